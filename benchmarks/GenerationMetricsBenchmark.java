@@ -0,0 +1,74 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of what the extensions' request metrics cost a request:
+ * timing a phase (from one thread, and from four at once into the same
+ * metrics), counting an outcome, and reading the percentiles for GetMetrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationMetricsBenchmark {
+
+  private final GenerationMetrics metrics = new GenerationMetrics();
+  private final GenerationMetrics filled = new GenerationMetrics();
+
+  public GenerationMetricsBenchmark() {
+    for (int i = 0; i < GenerationMetrics.PHASES.length; i++) {
+      for (long micros = 1; micros < 10000000; micros = micros * 11 / 10 + 1) {
+        filled.histogram(i).record(micros);
+      }
+    }
+  }
+
+  /**
+   * Times a phase that has just ended.
+   */
+  @Benchmark
+  public long recordPhase() {
+    return metrics.record(GenerationMetrics.SERVER, System.nanoTime());
+  }
+
+  /**
+   * Times a phase from four threads into the same histogram.
+   */
+  @Benchmark
+  @Threads(4)
+  public long recordPhaseContended() {
+    return metrics.record(GenerationMetrics.SERVER, System.nanoTime());
+  }
+
+  /**
+   * Counts an outcome.
+   */
+  @Benchmark
+  public void count() {
+    metrics.count(GenerationMetrics.SUCCESSES);
+  }
+
+  /**
+   * Builds GetMetrics' pairs, with every phase timed.
+   */
+  @Benchmark
+  public Object pairs() {
+    return filled.pairs();
+  }
+}
@@ -0,0 +1,54 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationNgramModel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Builds the n-gram model files of TextMixer's Local engine from text corpora,
+ * e.g., one for each of the seuss, taylor and shakespeare texts, to add to the
+ * app as assets (see TextMixer's LocalModels).
+ * <br>
+ * Arguments: [--order n] (the n-grams' maximum length, default 3) then pairs
+ * of a corpus (a UTF-8 text file) and the model file to write.
+ */
+public final class NgramModelBuilder {
+
+  private NgramModelBuilder() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    int order = 3;
+    int first = 0;
+    if (args.length >= 2 && args[0].equals("--order")) {
+      order = Integer.parseInt(args[1]);
+      first = 2;
+    }
+    if (args.length == first || (args.length - first) % 2 != 0) {
+      throw new IllegalArgumentException("Usage: NgramModelBuilder [--order n] corpus model [corpus model ...]");
+    }
+    for (int i = first; i < args.length; i += 2) {
+      Reader corpus = new InputStreamReader(new FileInputStream(args[i]), "UTF-8");
+      GenerationNgramModel model;
+      try {
+        model = GenerationNgramModel.build(corpus, order);
+      } finally {
+        corpus.close();
+      }
+      OutputStream out = new FileOutputStream(args[i + 1]);
+      try {
+        model.write(out);
+      } finally {
+        out.close();
+      }
+      System.out.println(args[i + 1] + ": " + model.vocabularySize() + " tokens, "
+          + new File(args[i + 1]).length() + " bytes");
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.PIDController.bench;
+
+import com.PIDController.PIDCore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the PID update step (the code behind
+ * PIDController.calcOutput and calcOutputs). The measured value cycles through
+ * a precomputed signal, so that the controller's state keeps changing and the
+ * JIT can't fold the calculation away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PIDCoreBenchmark {
+
+	// Length of the precomputed measured value signal (a power of 2):
+	private static final int SIGNAL_LENGTH = 1024;
+
+	// Number of measured values per calcOutputs call:
+	@Param({ "16", "256" })
+	public int batchSize;
+
+	private PIDCore core;
+	private double[] signal;
+	private int index;
+	private double[] batchIn;
+	private double[] batchOut;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		core = new PIDCore();
+		core.setGains(1.2, 0.05, 0.3);
+		core.setSetpoint(1);
+		core.setOutputMax(10);
+		core.setOutputMin(-10);
+		core.setNominalPeriod(0.02);
+
+		signal = new double[SIGNAL_LENGTH];
+		for (int i = 0; i < SIGNAL_LENGTH; i++) {
+			signal[i] = 1 + 0.5 * Math.sin(2 * Math.PI * i / 64.0);
+		}
+		batchIn = new double[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			batchIn[i] = signal[i % SIGNAL_LENGTH];
+		}
+		batchOut = new double[batchSize];
+	}
+
+	private double nextMeasuredValue() {
+		index = (index + 1) & (SIGNAL_LENGTH - 1);
+		return signal[index];
+	}
+
+	/**
+	 * One call to calcOutput, as made by the calcOutput block.
+	 */
+	@Benchmark
+	public double calcOutput() {
+		return core.calcOutput(nextMeasuredValue());
+	}
+
+	/**
+	 * One time-scaled call, as made by the fixed-rate loop when TimeScaled is
+	 * true.
+	 */
+	@Benchmark
+	public double calcOutputTimeScaled() {
+		return core.calcOutput(nextMeasuredValue(), 0.02);
+	}
+
+	/**
+	 * A batch of measured values, as sent by the calcOutputs block.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public double[] calcOutputs() {
+		core.calcOutputs(batchIn, batchOut);
+		return batchOut;
+	}
+}
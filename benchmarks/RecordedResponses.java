@@ -0,0 +1,82 @@
+package com.google.appinventor.components.runtime.bench;
+
+/**
+ * Server responses in the format recorded from the TextMixer and
+ * SentenceGenerator servers, scaled up to a given number of tokens by
+ * repeating the recorded words.
+ */
+public final class RecordedResponses {
+
+  // Recorded TextMixer response:
+  // {"tokens": ["hello", "world", "in", "the", "clear", "to", "a", "little",
+  // "<eos>"], "corpora": ["none", "none", "seuss", "seuss", "taylor",
+  // "shakespeare", "seuss", "taylor", "shakespeare"]}
+  private static final String[] TOKENS = { "hello", "world", "in", "the", "clear", "to", "a", "little" };
+  private static final String[] CORPORA = { "none", "none", "seuss", "seuss", "taylor", "shakespeare", "seuss",
+      "taylor" };
+
+  // words of the made-up corpora
+  private static final String[] CORPUS_WORDS = { "the", "a", "and", "i", "you", "to", "in", "of", "my", "cat",
+      "hat", "love", "heart", "thou", "thee", "green", "eggs", "ham", "night", "never", "ever", "shall", "sun",
+      "rain", "fox", "box", "sweet", "wild", "stars", "dance", "fair", "sorrow", "song", "dream", "fish", "red",
+      "blue", "one", "two", "light", "time", "gone", "away", "home", "king", "queen", "sleep", "run", "play",
+      "would", "could", "not", "with", "me", "we", "they", "say", "see", "there", "here" };
+
+  // What the TextMixer server puts in front of the json when the percentages
+  // don't add up to one:
+  public static final String TEXT_MIXER_WARNING = "Warning: percentages do not sum to 1, normalizing.\n";
+
+  private RecordedResponses() {
+  }
+
+  /**
+   * Returns a TextMixer response with the given number of tokens, followed by
+   * "<eos>".
+   */
+  public static String textMixer(int tokens) {
+    StringBuilder json = new StringBuilder("{\"tokens\": [");
+    for (int i = 0; i < tokens; i++) {
+      json.append('"').append(TOKENS[i % TOKENS.length]).append("\", ");
+    }
+    json.append("\"<eos>\"], \"corpora\": [");
+    for (int i = 0; i < tokens; i++) {
+      json.append('"').append(CORPORA[i % CORPORA.length]).append("\", ");
+    }
+    json.append("\"shakespeare\"]}");
+    return json.toString();
+  }
+
+  /**
+   * Returns a made-up corpus of the given number of sentences, for building
+   * n-gram models (see GenerationNgramModel). Different seeds give different
+   * corpora over the same words.
+   */
+  public static String corpus(int sentences, long seed) {
+    java.util.Random random = new java.util.Random(seed);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < sentences; i++) {
+      int words = 4 + random.nextInt(12);
+      for (int j = 0; j < words; j++) {
+        // a skewed choice, so some words are much more common than others, as in real text
+        int word = (int) (CORPUS_WORDS.length * Math.pow(random.nextDouble(), 3 + seed % 3));
+        text.append(j > 0 ? " " : "").append(CORPUS_WORDS[word]);
+      }
+      text.append(".\n");
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns a SentenceGenerator response with the given number of words.
+   */
+  public static String sentenceGenerator(int words) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        text.append(' ');
+      }
+      text.append(TOKENS[i % TOKENS.length]);
+    }
+    return "{\"generated\": \"" + text + "\"}";
+  }
+}
@@ -0,0 +1,30 @@
+package com.google.appinventor.components.runtime.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds the bytes allocated
+ * per operation (gc.alloc.rate.norm) and the number of garbage collections to
+ * every result. Takes the usual JMH command line options, e.g., a regular
+ * expression to only run some benchmarks, or "-rf json -rff results.json" to
+ * save the results for comparison.
+ */
+public final class RunBenchmarks {
+
+  private RunBenchmarks() {
+  }
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,80 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationHttpClient;
+import com.google.appinventor.components.runtime.GenerationResponseParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of SentenceGenerator's response handling: reading the
+ * response body, decoding the "generated" json, and the whole request (to a
+ * local stub server) plus decoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SentenceGeneratorBenchmark {
+
+  // Number of words in the generated text:
+  @Param({ "20", "200", "2000" })
+  public int words;
+
+  private String response;
+  private byte[] responseBytes;
+  private StubGenerationServer server;
+  private String url;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    response = RecordedResponses.sentenceGenerator(words);
+    responseBytes = response.getBytes(StandardCharsets.UTF_8);
+    server = new StubGenerationServer(response);
+    url = server.baseURL() + "?inputText=hello&model=drSeuss_20&outputLength=" + words;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  public String read() throws IOException {
+    return GenerationResponseParser.readResponse(new ByteArrayInputStream(responseBytes));
+  }
+
+  @Benchmark
+  public String parse() throws JSONException {
+    return GenerationResponseParser.parseGeneratedText(response);
+  }
+
+  /**
+   * Makes the same request as SentenceGenerator.StartTextGeneration (to the
+   * stub server) and decodes the response.
+   */
+  @Benchmark
+  public String fetchAndParse() throws IOException, JSONException {
+    String responseString = GenerationHttpClient.getInstance().get(url, 300000, 300000);
+    return GenerationResponseParser.parseGeneratedText(responseString);
+  }
+}
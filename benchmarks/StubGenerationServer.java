@@ -0,0 +1,346 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationResponseParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A local HTTP server that answers requests with recorded responses, so that
+ * the extensions' request and parsing code can be measured without the real
+ * (slow, remote) text generation servers, and so that apps can be load-tested
+ * offline (by pointing the extensions' ServerURLs at it).
+ * <br>
+ * It speaks the extensions' protocols: a GET gets the next recorded response
+ * (they are replayed in turn), or, with stream=true, its tokens one line at a
+ * time; a POST to /batch gets {"results": [...]} with one response per
+ * request. Every response can be delayed by a latency (plus a random jitter)
+ * to mimic a real server. Like a real server, it gzips responses for clients
+ * that accept it (unless turned off), and sends TextMixer responses in the
+ * compact format to clients that accept that.
+ * <br>
+ * Run main to start one from the command line.
+ */
+public final class StubGenerationServer {
+
+  static {
+    // Otherwise the headers and the body go in separate packets, and Nagle's
+    // algorithm plus the client's delayed ACK add ~40 ms to every response.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private volatile String[] responses;
+  // the next response to replay
+  private final AtomicInteger next = new AtomicInteger();
+  // delay before each response, plus up to jitter more, and between streamed tokens (milliseconds)
+  private volatile int latency;
+  private volatile int jitter;
+  private volatile int tokenDelay;
+  // whether responses are gzipped for clients that accept it
+  private volatile boolean gzip = true;
+
+  /**
+   * Starts a server on a free port of the loopback interface.
+   *
+   * @param response the body sent for every request
+   */
+  public StubGenerationServer(String response) throws IOException {
+    this(new InetSocketAddress("127.0.0.1", 0), 4, response);
+  }
+
+  /**
+   * Starts a server.
+   *
+   * @param address   the address to listen on
+   * @param threads   the number of requests answered at once
+   * @param responses the recorded responses, replayed in turn
+   */
+  public StubGenerationServer(InetSocketAddress address, int threads, String... responses) throws IOException {
+    setResponses(responses);
+    server = HttpServer.create(address, 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          respond(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Changes the body sent for every request.
+   */
+  public void setResponse(String response) {
+    setResponses(response);
+  }
+
+  /**
+   * Changes the recorded responses, which are replayed in turn.
+   */
+  public void setResponses(String... responses) {
+    if (responses.length == 0) {
+      throw new IllegalArgumentException("No responses");
+    }
+    this.responses = responses.clone();
+  }
+
+  /**
+   * Delays each response by latency milliseconds, plus a random time up to
+   * jitter milliseconds.
+   */
+  public void setLatency(int latency, int jitter) {
+    this.latency = latency;
+    this.jitter = jitter;
+  }
+
+  /**
+   * Delays each streamed token (after the first) by the given milliseconds.
+   */
+  public void setTokenDelay(int tokenDelay) {
+    this.tokenDelay = tokenDelay;
+  }
+
+  /**
+   * Turns gzipping responses (for clients that accept it) on or off.
+   */
+  public void setGzip(boolean gzip) {
+    this.gzip = gzip;
+  }
+
+  /**
+   * Returns the server's base URL, ending in "/".
+   */
+  public String baseURL() {
+    InetSocketAddress address = server.getAddress();
+    String host = address.getAddress().isAnyLocalAddress() ? "127.0.0.1" : address.getAddress().getHostAddress();
+    return "http://" + host + ":" + address.getPort() + "/";
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    String query = exchange.getRequestURI().getRawQuery();
+    boolean batch = exchange.getRequestMethod().equals("POST");
+    String body;
+    if (batch) {
+      try {
+        body = batchResponse(read(exchange.getRequestBody()));
+      } catch (JSONException e) {
+        send(exchange, 400, e.toString());
+        return;
+      }
+    } else {
+      body = nextResponse();
+    }
+    sleep(latency + (jitter > 0 ? (int) (Math.random() * jitter) : 0));
+    if (!batch && query != null && query.contains("stream=true")) {
+      stream(exchange, body);
+      return;
+    }
+    String accept = exchange.getRequestHeaders().getFirst("Accept");
+    if (!batch && accept != null && accept.contains(GenerationResponseParser.COMPACT_TYPE)
+        && body.contains("\"tokens\"")) {
+      ByteArrayOutputStream compact = new ByteArrayOutputStream();
+      GenerationResponseParser.writeCompactMixedSentence(GenerationResponseParser.parseMixedSentence(body), compact);
+      send(exchange, 200, compact.toByteArray(), GenerationResponseParser.COMPACT_TYPE);
+    } else {
+      send(exchange, 200, body);
+    }
+  }
+
+  private String nextResponse() {
+    String[] responses = this.responses;
+    return responses[(next.getAndIncrement() & Integer.MAX_VALUE) % responses.length];
+  }
+
+  // {"results": [...]} with a response for each request of the batch
+  private String batchResponse(String request) throws JSONException {
+    int count = new JSONObject(request).getJSONArray("requests").length();
+    JSONArray results = new JSONArray();
+    for (int i = 0; i < count; i++) {
+      results.put(new JSONObject(nextResponse()));
+    }
+    return new JSONObject().put("results", results).toString();
+  }
+
+  private void send(HttpExchange exchange, int status, String body) throws IOException {
+    send(exchange, status, body.getBytes(StandardCharsets.UTF_8), "application/json; charset=utf-8");
+  }
+
+  // sends the body, gzipped if the client accepts it
+  private void send(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+      GZIPOutputStream out = new GZIPOutputStream(zipped);
+      out.write(body);
+      out.close();
+      body = zipped.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  // sends the response's tokens one line at a time (a TextMixer response's
+  // tokens and corpora, or a SentenceGenerator response's words)
+  private void stream(HttpExchange exchange, String response) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    try {
+      if (response.contains("\"generated\"")) {
+        for (String word : GenerationResponseParser.parseGeneratedText(response).split(" ")) {
+          lines.add(new JSONObject().put("token", word).toString());
+        }
+      } else {
+        GenerationResponseParser.MixedSentence mixed = GenerationResponseParser.parseMixedSentence(response);
+        for (int i = 0; i < mixed.tokens.length; i++) {
+          lines.add(new JSONObject().put("token", mixed.tokens[i]).put("corpus", mixed.corpora[i]).toString());
+        }
+      }
+    } catch (JSONException e) {
+      send(exchange, 500, e.toString());
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+    exchange.sendResponseHeaders(200, 0);
+    OutputStream out = exchange.getResponseBody();
+    for (int i = 0; i < lines.size(); i++) {
+      if (i > 0) {
+        sleep(tokenDelay);
+      }
+      out.write((lines.get(i) + "\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+    out.close();
+  }
+
+  private static String read(InputStream stream) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    try {
+      StringBuilder text = new StringBuilder();
+      String line;
+      while ((line = in.readLine()) != null) {
+        text.append(line).append('\n');
+      }
+      return text.toString();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void sleep(int millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Starts a server from the command line, e.g., for load testing an app
+   * (set the extension's ServerURLs to the URL printed).
+   * <br>
+   * Options: --port (default 8080), --threads (64), --latency and --jitter
+   * (milliseconds, default 0), --token-delay (milliseconds between streamed
+   * tokens, default 0), --gzip (true or false, default true), and either
+   * --responses (a file of recorded responses,
+   * one per line) or --kind (textmixer or sentence, default textmixer) and
+   * --tokens (default 20) for a response from RecordedResponses.
+   */
+  public static void main(String[] args) throws IOException {
+    int port = 8080;
+    int threads = 64;
+    int latency = 0;
+    int jitter = 0;
+    int tokenDelay = 0;
+    boolean gzip = true;
+    String kind = "textmixer";
+    int tokens = 20;
+    String file = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String option = args[i];
+      String value = args[i + 1];
+      if (option.equals("--port")) {
+        port = Integer.parseInt(value);
+      } else if (option.equals("--threads")) {
+        threads = Integer.parseInt(value);
+      } else if (option.equals("--latency")) {
+        latency = Integer.parseInt(value);
+      } else if (option.equals("--jitter")) {
+        jitter = Integer.parseInt(value);
+      } else if (option.equals("--token-delay")) {
+        tokenDelay = Integer.parseInt(value);
+      } else if (option.equals("--gzip")) {
+        gzip = Boolean.parseBoolean(value);
+      } else if (option.equals("--kind")) {
+        kind = value;
+      } else if (option.equals("--tokens")) {
+        tokens = Integer.parseInt(value);
+      } else if (option.equals("--responses")) {
+        file = value;
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + option);
+      }
+    }
+
+    String[] responses;
+    if (file != null) {
+      List<String> recorded = new ArrayList<String>();
+      for (String line : read(new FileInputStream(file)).split("\n")) {
+        if (line.trim().length() > 0) {
+          recorded.add(line);
+        }
+      }
+      responses = recorded.toArray(new String[recorded.size()]);
+    } else if (kind.equals("sentence")) {
+      responses = new String[] { RecordedResponses.sentenceGenerator(tokens) };
+    } else {
+      responses = new String[] { RecordedResponses.textMixer(tokens) };
+    }
+
+    StubGenerationServer server = new StubGenerationServer(new InetSocketAddress(port), threads, responses);
+    server.setLatency(latency, jitter);
+    server.setTokenDelay(tokenDelay);
+    server.setGzip(gzip);
+    System.out.println("Serving " + responses.length + " recorded response(s) on port " + port
+        + " (latency " + latency + " + up to " + jitter + " ms)");
+  }
+}
@@ -0,0 +1,186 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationHttpClient;
+import com.google.appinventor.components.runtime.GenerationMetrics;
+import com.google.appinventor.components.runtime.GenerationResponseParser;
+import com.google.appinventor.components.runtime.GenerationTokenStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of TextMixer's response handling: decoding the tokens and
+ * corpora json and building the sentence, from a String (with and without the
+ * server's warning) or a stream, decoding the compact format, the whole
+ * request (read from a local stub server, gzipped) plus decoding, in json and
+ * in the compact format, and what is left for the UI thread once a response
+ * is decoded (with and without a GotToken per token).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMixerBenchmark {
+
+  // Number of tokens in the response (the recorded response has 8):
+  @Param({ "8", "100", "1000", "10000" })
+  public int tokens;
+
+  private String response;
+  private String warningResponse;
+  private byte[] responseBytes;
+  private byte[] compactBytes;
+  private StubGenerationServer server;
+  private String url;
+  // decoded in advance, as TextMixer does on its worker thread (the arrays
+  // stand in for the YailLists of words and corpora)
+  private GenerationResponseParser.MixedSentence decoded;
+  private Object wordList;
+  private Object originList;
+  private final GenerationMetrics metrics = new GenerationMetrics();
+  private long requestStart;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    response = RecordedResponses.textMixer(tokens);
+    warningResponse = RecordedResponses.TEXT_MIXER_WARNING + response;
+    responseBytes = response.getBytes("UTF-8");
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    GenerationResponseParser.writeCompactMixedSentence(GenerationResponseParser.parseMixedSentence(response), compact);
+    compactBytes = compact.toByteArray();
+    server = new StubGenerationServer(response);
+    url = server.baseURL() + "?sent=hello%20world&seuss=0.8&swift=0.1&shakes=0.1";
+    decoded = GenerationResponseParser.parseMixedSentence(response);
+    wordList = decoded.tokens.clone();
+    originList = decoded.corpora.clone();
+    requestStart = System.nanoTime();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  public GenerationResponseParser.MixedSentence parse() {
+    return GenerationResponseParser.parseMixedSentence(response);
+  }
+
+  @Benchmark
+  public GenerationResponseParser.MixedSentence parseWithWarning() {
+    return GenerationResponseParser.parseMixedSentence(warningResponse);
+  }
+
+  /**
+   * Decodes the response as it is read from a stream (here, of the response's
+   * bytes), without reading it into a String first.
+   */
+  @Benchmark
+  public GenerationResponseParser.MixedSentence parseStream() throws IOException {
+    return GenerationResponseParser.parseMixedSentence(new ByteArrayInputStream(responseBytes));
+  }
+
+  /**
+   * Decodes the response in the compact format, from a stream.
+   */
+  @Benchmark
+  public GenerationResponseParser.MixedSentence parseCompact() throws IOException {
+    return GenerationResponseParser.readCompactMixedSentence(new ByteArrayInputStream(compactBytes));
+  }
+
+  /**
+   * Makes the same request as TextMixer.StartSentenceGeneration with
+   * CompactResponses off (to the stub server) and decodes the response.
+   */
+  @Benchmark
+  public GenerationResponseParser.MixedSentence fetchAndParse() throws IOException {
+    String responseString = GenerationHttpClient.getInstance().get(url, 300000, 300000);
+    return GenerationResponseParser.parseMixedSentence(responseString);
+  }
+
+  /**
+   * Makes the same request as TextMixer.StartSentenceGeneration with
+   * CompactResponses on, decoding the response as it arrives.
+   */
+  @Benchmark
+  public GenerationResponseParser.MixedSentence fetchAndParseCompact() throws IOException {
+    return GenerationHttpClient.getInstance().get(url, new GenerationHttpClient.Call(),
+        new GenerationHttpClient.Options(300000, 300000, 0, 0, false), GenerationResponseParser.ACCEPT_COMPACT,
+        new GenerationHttpClient.ResponseReader<GenerationResponseParser.MixedSentence>() {
+          @Override
+          public GenerationResponseParser.MixedSentence read(InputStream stream, String contentType)
+              throws IOException {
+            return GenerationResponseParser.readMixedSentence(stream, contentType);
+          }
+        });
+  }
+
+  /**
+   * What TextMixer runs on the UI thread for a response (the Runnable in
+   * GenerationRequests.dispatchResponse), with Streaming off: raising
+   * GotGeneratedSentence and GotGeneratedSentenceAndTexts with the sentence
+   * and lists decoded on the worker thread (see parse), and timing the UI and
+   * total phases. The events
+   * are stubbed: each builds its arguments array, as EventDispatcher is
+   * called, and hands it to the blackhole.
+   */
+  @Benchmark
+  public void uiThread(Blackhole events) {
+    raiseEvents(events, false);
+  }
+
+  /**
+   * The same with Streaming on, for a response that wasn't streamed (e.g.,
+   * from the cache): a GotToken is raised for each token first, so this grows
+   * with the number of tokens.
+   */
+  @Benchmark
+  public void uiThreadStreaming(Blackhole events) {
+    raiseEvents(events, true);
+  }
+
+  // the body of GenerationRequests.dispatchResponse's Runnable, with TextMixer's
+  // raiseResponse
+  private void raiseEvents(Blackhole events, boolean streaming) {
+    long uiStart = System.nanoTime();
+    GenerationResponseParser.MixedSentence mixed = decoded;
+    if (streaming) {
+      for (int i = 0; i < mixed.tokens.length; i++) {
+        if (!mixed.tokens[i].equals(GenerationTokenStream.END_OF_SENTENCE)) {
+          dispatchEvent(events, "GotToken", mixed.tokens[i], i < mixed.corpora.length ? mixed.corpora[i] : "");
+        }
+      }
+    }
+    dispatchEvent(events, "GotGeneratedSentence", mixed.sentence);
+    dispatchEvent(events, "GotGeneratedSentenceAndTexts", wordList, originList);
+    metrics.record(GenerationMetrics.UI, uiStart);
+    metrics.record(GenerationMetrics.TOTAL, requestStart);
+    metrics.count(GenerationMetrics.SUCCESSES);
+  }
+
+  // stands in for EventDispatcher.dispatchEvent
+  private static void dispatchEvent(Blackhole events, String eventName, Object... args) {
+    events.consume(eventName);
+    events.consume(args);
+  }
+}
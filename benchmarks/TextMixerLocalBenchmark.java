@@ -0,0 +1,87 @@
+package com.google.appinventor.components.runtime.bench;
+
+import com.google.appinventor.components.runtime.GenerationNgramMixer;
+import com.google.appinventor.components.runtime.GenerationNgramModel;
+import com.google.appinventor.components.runtime.GenerationResponseParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of TextMixer's Local engine: loading the three n-gram models
+ * (memory-mapped) and merging their vocabularies, generating a sentence, and
+ * generating plus decoding it as the extension does, with models built from
+ * made-up corpora of different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMixerLocalBenchmark {
+
+  // Number of sentences in each corpus:
+  @Param({ "1000", "50000" })
+  public int sentences;
+
+  private File[] files;
+  private GenerationNgramMixer mixer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    files = new File[3];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = File.createTempFile("textmixer", ".ngram");
+      OutputStream out = new FileOutputStream(files[i]);
+      try {
+        GenerationNgramModel.build(new StringReader(RecordedResponses.corpus(sentences, i)), 3).write(out);
+      } finally {
+        out.close();
+      }
+    }
+    mixer = load();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  @Benchmark
+  public GenerationNgramMixer load() throws IOException {
+    return new GenerationNgramMixer(GenerationNgramModel.open(files[0]), GenerationNgramModel.open(files[1]),
+        GenerationNgramModel.open(files[2]), new Random(1));
+  }
+
+  @Benchmark
+  public String generate() {
+    return mixer.generate("hello the cat", 0.8f, 0.1f, 0.1f);
+  }
+
+  @Benchmark
+  public GenerationResponseParser.MixedSentence generateAndDecode() {
+    return GenerationResponseParser.parseMixedSentence(mixer.generate("hello the cat", 0.8f, 0.1f, 0.1f));
+  }
+}
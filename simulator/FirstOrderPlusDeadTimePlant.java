@@ -0,0 +1,53 @@
+package com.PIDController.sim;
+
+/**
+ * First-order-plus-dead-time plant: tau * y' = K * u(t - deadTime) - y. The
+ * first-order part is discretized exactly for the time step, and the dead time
+ * is a ring buffer of past inputs, so stepping never allocates.
+ */
+public final class FirstOrderPlusDeadTimePlant implements Plant {
+
+	private final double gain;
+	private final double decay;
+	private final double[] delayed;
+	private int next;
+	private double y;
+
+	/**
+	 * @param gain:
+	 *            steady-state gain K
+	 * @param timeConstant:
+	 *            time constant tau, in seconds
+	 * @param deadTime:
+	 *            dead time, in seconds (rounded to whole time steps)
+	 * @param dt:
+	 *            time step, in seconds
+	 */
+	public FirstOrderPlusDeadTimePlant(double gain, double timeConstant, double deadTime, double dt) {
+		this.gain = gain;
+		this.decay = Math.exp(-dt / timeConstant);
+		this.delayed = new double[Math.max((int) Math.round(deadTime / dt), 0) + 1];
+	}
+
+	@Override
+	public double step(double input) {
+		delayed[next] = input;
+		next = next + 1 == delayed.length ? 0 : next + 1;
+		// The oldest input is the one about to be overwritten.
+		double u = delayed[next];
+		y = decay * y + (1 - decay) * gain * u;
+		return y;
+	}
+
+	@Override
+	public double output() {
+		return y;
+	}
+
+	@Override
+	public void reset() {
+		java.util.Arrays.fill(delayed, 0);
+		next = 0;
+		y = 0;
+	}
+}
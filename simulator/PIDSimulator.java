@@ -0,0 +1,216 @@
+package com.PIDController.sim;
+
+import com.PIDController.PIDCore;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Closed-loop simulation and benchmark harness for PIDCore. Runs a step
+ * response of a simulated plant through the controller and reports throughput
+ * (steps per second), bytes allocated per step and control quality. It runs
+ * on any desktop JVM, without a phone or App Inventor.
+ * <br>
+ * When run from the command line, it exits with status 1 if any of the given
+ * thresholds are not met, so that it can catch regressions in CI.
+ */
+public final class PIDSimulator {
+
+	/**
+	 * Results of one simulation run.
+	 */
+	public static final class Result {
+		public long steps;
+		public double stepsPerSecond;
+		// Bytes allocated per step on the simulating thread (-1 if unknown):
+		public double bytesPerStep;
+		// Integral of the absolute error, in value-seconds:
+		public double integralAbsoluteError;
+		public double rmsError;
+		// How far the output went past the setpoint, as a percentage of the step:
+		public double overshootPercent;
+		// Seconds until the output first reached 90% of the step (-1 if never):
+		public double riseTime;
+		// Seconds until the error stayed within 2% of the step (-1 if never):
+		public double settlingTime;
+
+		@Override
+		public String toString() {
+			return String.format("steps=%d stepsPerSecond=%.0f bytesPerStep=%.3f IAE=%.4f RMSError=%.4f "
+					+ "overshootPercent=%.2f riseTime=%.3fs settlingTime=%.3fs", steps, stepsPerSecond,
+					bytesPerStep, integralAbsoluteError, rmsError, overshootPercent, riseTime, settlingTime);
+		}
+	}
+
+	private PIDSimulator() {
+	}
+
+	/**
+	 * Simulates a step of the setpoint from the plant's resting output to
+	 * setpoint, for the given number of steps. The controller and plant are
+	 * reset first. The loop does not allocate.
+	 *
+	 * @param core:
+	 *            controller, with its gains and limits already set
+	 * @param plant:
+	 *            simulated system
+	 * @param setpoint:
+	 *            target value
+	 * @param dt:
+	 *            time step, in seconds (also used as the controller's
+	 *            NominalPeriod when timeScaled is true)
+	 * @param steps:
+	 *            number of steps to simulate
+	 * @param timeScaled:
+	 *            if true, use PIDCore.calcOutput(measuredVal, dt) with the
+	 *            simulation clock; otherwise use calcOutput(measuredVal)
+	 */
+	public static Result run(PIDCore core, Plant plant, double setpoint, double dt, long steps, boolean timeScaled) {
+		core.reset();
+		plant.reset();
+		core.setSetpoint(setpoint);
+		if (timeScaled) {
+			core.setNominalPeriod(dt);
+		}
+
+		double start = plant.output();
+		double stepSize = Math.abs(setpoint - start);
+		double direction = Math.signum(setpoint - start);
+		double band = 0.02 * stepSize;
+		double iae = 0;
+		double sumSquares = 0;
+		double overshoot = 0;
+		long riseStep = -1;
+		long lastOutsideBand = 0;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long allocatedBefore = allocatedBytes(threads);
+		long startNanos = System.nanoTime();
+
+		double y = start;
+		for (long k = 0; k < steps; k++) {
+			double u = timeScaled ? core.calcOutput(y, dt) : core.calcOutput(y);
+			y = plant.step(u);
+
+			double error = setpoint - y;
+			double absError = Math.abs(error);
+			iae += absError * dt;
+			sumSquares += error * error;
+			double past = -error * direction;
+			if (past > overshoot) {
+				overshoot = past;
+			}
+			if (riseStep < 0 && (y - start) * direction >= 0.9 * stepSize) {
+				riseStep = k + 1;
+			}
+			if (absError > band) {
+				lastOutsideBand = k + 1;
+			}
+		}
+
+		long elapsedNanos = System.nanoTime() - startNanos;
+		long allocatedAfter = allocatedBytes(threads);
+
+		Result result = new Result();
+		result.steps = steps;
+		result.stepsPerSecond = steps / (elapsedNanos / 1e9);
+		result.bytesPerStep = allocatedBefore < 0 || allocatedAfter < 0 ? -1
+				: (allocatedAfter - allocatedBefore) / (double) steps;
+		result.integralAbsoluteError = iae;
+		result.rmsError = Math.sqrt(sumSquares / steps);
+		result.overshootPercent = stepSize == 0 ? 0 : 100 * overshoot / stepSize;
+		result.riseTime = riseStep < 0 ? -1 : riseStep * dt;
+		result.settlingTime = lastOutsideBand >= steps ? -1 : lastOutsideBand * dt;
+		return result;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread, or -1 if the
+	 * JVM can't tell.
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Runs the standard scenarios and prints the results. Options:
+	 * <ul>
+	 * <li>--steps N: steps per scenario (default 5000000)</li>
+	 * <li>--time-scaled: use the time-scaled calculation</li>
+	 * <li>--min-steps-per-sec X: fail if throughput is lower</li>
+	 * <li>--max-bytes-per-step X: fail if more is allocated per step</li>
+	 * <li>--max-settling-time X: fail if a step response takes longer (s)</li>
+	 * </ul>
+	 */
+	public static void main(String[] args) {
+		long steps = 5000000;
+		boolean timeScaled = false;
+		double minStepsPerSecond = 0;
+		double maxBytesPerStep = Double.POSITIVE_INFINITY;
+		double maxSettlingTime = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--steps")) {
+				steps = Long.parseLong(args[++i]);
+			} else if (arg.equals("--time-scaled")) {
+				timeScaled = true;
+			} else if (arg.equals("--min-steps-per-sec")) {
+				minStepsPerSecond = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--max-bytes-per-step")) {
+				maxBytesPerStep = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--max-settling-time")) {
+				maxSettlingTime = Double.parseDouble(args[++i]);
+			} else {
+				System.err.println("Unknown option: " + arg);
+				System.exit(2);
+			}
+		}
+
+		final double dt = 0.01;
+		String[] names = { "fopdt", "second-order" };
+		boolean ok = true;
+		for (int s = 0; s < names.length; s++) {
+			PIDCore core = new PIDCore();
+			Plant plant;
+			if (s == 0) {
+				// K = 2, tau = 1 s, dead time 0.2 s; PI control.
+				plant = new FirstOrderPlusDeadTimePlant(2, 1, 0.2, dt);
+				core.setGains(0.4, 0.4 * dt / 0.8, 0);
+			} else {
+				// K = 1, omega = 2 rad/s, zeta = 0.3; PID control.
+				plant = new SecondOrderPlant(1, 2, 0.3, dt);
+				core.setGains(2, 2 * dt / 1.0, 2 * 0.2 / dt);
+			}
+			core.setOutputMax(10);
+			core.setOutputMin(-10);
+			core.setTimeScaled(timeScaled);
+
+			// Warm up the JIT before measuring.
+			run(core, plant, 1, dt, Math.min(steps, 1000000), timeScaled);
+			Result result = run(core, plant, 1, dt, steps, timeScaled);
+			System.out.println(names[s] + ": " + result);
+
+			if (result.stepsPerSecond < minStepsPerSecond) {
+				System.out.println(names[s] + ": FAIL steps per second below " + minStepsPerSecond);
+				ok = false;
+			}
+			if (result.bytesPerStep > maxBytesPerStep) {
+				System.out.println(names[s] + ": FAIL bytes per step above " + maxBytesPerStep);
+				ok = false;
+			}
+			if (result.settlingTime < 0 || result.settlingTime > maxSettlingTime) {
+				System.out.println(names[s] + ": FAIL settling time above " + maxSettlingTime + "s");
+				ok = false;
+			}
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+}
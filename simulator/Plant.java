@@ -0,0 +1,23 @@
+package com.PIDController.sim;
+
+/**
+ * A simulated system (plant) driven by the controller output.
+ */
+public interface Plant {
+
+	/**
+	 * Advances the plant by one time step with the given input and returns the
+	 * new output (the value the controller will measure).
+	 */
+	double step(double input);
+
+	/**
+	 * Returns the current output without advancing the plant.
+	 */
+	double output();
+
+	/**
+	 * Returns the plant to rest (zero output, zero stored input).
+	 */
+	void reset();
+}
@@ -0,0 +1,51 @@
+package com.PIDController.sim;
+
+/**
+ * Second-order plant: y'' + 2 * zeta * omega * y' + omega^2 * y = K * omega^2 *
+ * u, integrated with semi-implicit Euler steps.
+ */
+public final class SecondOrderPlant implements Plant {
+
+	private final double gain;
+	private final double omega;
+	private final double zeta;
+	private final double dt;
+	private double y;
+	private double velocity;
+
+	/**
+	 * @param gain:
+	 *            steady-state gain K
+	 * @param naturalFrequency:
+	 *            natural frequency omega, in radians per second
+	 * @param damping:
+	 *            damping ratio zeta
+	 * @param dt:
+	 *            time step, in seconds
+	 */
+	public SecondOrderPlant(double gain, double naturalFrequency, double damping, double dt) {
+		this.gain = gain;
+		this.omega = naturalFrequency;
+		this.zeta = damping;
+		this.dt = dt;
+	}
+
+	@Override
+	public double step(double input) {
+		double acceleration = gain * omega * omega * input - 2 * zeta * omega * velocity - omega * omega * y;
+		velocity += dt * acceleration;
+		y += dt * velocity;
+		return y;
+	}
+
+	@Override
+	public double output() {
+		return y;
+	}
+
+	@Override
+	public void reset() {
+		y = 0;
+		velocity = 0;
+	}
+}
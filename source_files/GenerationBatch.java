@@ -0,0 +1,212 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.*;
+
+/**
+ * Generates text for many seeds, sending them to the server in batches (one
+ * POST per batch, several batches at once) instead of one GET per seed.
+ * Results are handed over as each batch completes, tagged with the index of
+ * their seed.
+ * <br>
+ * A batch request is {"requests": [item, ...]}, with one item per seed (built
+ * by the extension), and the server responds with {"results": [response,
+ * ...]}, in the same order, each result being what a single request would
+ * have returned. If the server has no batch endpoint (it responds 404, 405 or
+ * 501), the seeds are sent one GET at a time instead. Cached responses are
+ * used if caching is on.
+ * <br>
+ * Every request of the batch has its own Call, made from the batch's: cancelling
+ * the batch's stops the requests in flight, and no more are sent, while a
+ * request that times out only fails its own seeds.
+ * <br>
+ * The caller starts workers() threads, each calling runWorker() (or
+ * skipWorker(), for one that won't run).
+ */
+public final class GenerationBatch {
+
+  /**
+   * The extension-specific parts of a batch.
+   */
+  public interface Handler {
+    // the batch request item for a seed
+    JSONObject batchItem(String seed) throws JSONException;
+
+    // the url of a single request for a seed (if there's no batch endpoint)
+    String url(String seed) throws IOException;
+
+    String cacheKey(String seed);
+
+    // true if the response can be decoded (and so can be cached)
+    boolean isValidResponse(String response);
+
+    // called on a worker thread; index starts at 1
+    void onResult(int index, String response);
+
+    // called on a worker thread; index starts at 1
+    void onError(int index, Exception e);
+
+    // called once, on a worker thread, after every seed's result or error
+    void onComplete();
+  }
+
+  private final String batchURL;
+  private final String[] seeds;
+  private final int batchSize;
+  private final int workers;
+  private final boolean cacheEnabled;
+  private final GenerationHttpClient.Call call;
+  private final GenerationHttpClient.Options options;
+  private final Handler handler;
+
+  private final int batchCount;
+  // index of the next batch to send
+  private final AtomicInteger nextBatch = new AtomicInteger();
+  // number of workers still running
+  private final AtomicInteger runningWorkers;
+  // set when the server turns out not to have a batch endpoint
+  private volatile boolean singleRequests;
+
+  /**
+   * @param batchURL     the url of the server's batch endpoint
+   * @param seeds        the seeds
+   * @param batchSize    maximum number of seeds per request
+   * @param concurrency  maximum number of requests at once
+   * @param cacheEnabled whether to use and fill the response cache
+   * @param call         the call of the whole batch (each request gets its own,
+   *                     cancelled along with it)
+   * @param options      timeouts and retries of each request
+   * @param handler      the extension-specific parts
+   */
+  public GenerationBatch(String batchURL, String[] seeds, int batchSize, int concurrency, boolean cacheEnabled,
+      GenerationHttpClient.Call call, GenerationHttpClient.Options options, Handler handler) {
+    this.batchURL = batchURL;
+    this.seeds = seeds;
+    this.batchSize = Math.max(1, batchSize);
+    this.cacheEnabled = cacheEnabled;
+    this.call = call;
+    this.options = options;
+    this.handler = handler;
+    batchCount = (seeds.length + this.batchSize - 1) / this.batchSize;
+    workers = Math.max(1, Math.min(concurrency, batchCount));
+    runningWorkers = new AtomicInteger(workers);
+  }
+
+  /**
+   * Returns the number of threads that should call runWorker.
+   */
+  public int workers() {
+    return workers;
+  }
+
+  /**
+   * Sends batches until there are none left (or the call is cancelled). The
+   * seeds of batches not sent because of a cancel get no result or error.
+   * The last worker to finish calls the handler's onComplete.
+   */
+  public void runWorker() {
+    try {
+      int batch;
+      while (!call.isCancelled() && (batch = nextBatch.getAndIncrement()) < batchCount) {
+        int start = batch * batchSize;
+        runBatch(start, Math.min(start + batchSize, seeds.length));
+      }
+    } finally {
+      skipWorker();
+    }
+  }
+
+  /**
+   * Called instead of runWorker for a worker that won't run (e.g., it was
+   * turned away because too many requests were waiting). The last worker to
+   * finish calls the handler's onComplete.
+   */
+  public void skipWorker() {
+    if (runningWorkers.decrementAndGet() == 0) {
+      handler.onComplete();
+    }
+  }
+
+  private void runBatch(int start, int end) {
+    // answer what we can from the cache
+    int[] misses = new int[end - start];
+    int missCount = 0;
+    for (int i = start; i < end; i++) {
+      String cached = cacheEnabled ? GenerationResponseCache.getInstance().get(handler.cacheKey(seeds[i])) : null;
+      if (cached != null) {
+        handler.onResult(i + 1, cached);
+      } else {
+        misses[missCount++] = i;
+      }
+    }
+    if (missCount == 0) {
+      return;
+    }
+
+    if (!singleRequests) {
+      try {
+        JSONArray items = new JSONArray();
+        for (int k = 0; k < missCount; k++) {
+          items.put(handler.batchItem(seeds[misses[k]]));
+        }
+        JSONObject body = new JSONObject();
+        body.put("requests", items);
+        String response;
+        GenerationHttpClient.Call requestCall = call.newChild();
+        try {
+          response = GenerationHttpClient.getInstance().post(batchURL, body.toString(), requestCall, options);
+        } finally {
+          requestCall.end();
+        }
+        String[] results = GenerationResponseParser.splitBatchResponse(response, missCount);
+        for (int k = 0; k < missCount; k++) {
+          deliver(misses[k], results[k]);
+        }
+        return;
+      } catch (GenerationHttpClient.HttpStatusException e) {
+        if (!isMissingEndpoint(e.status)) {
+          failAll(misses, missCount, e);
+          return;
+        }
+        // no batch endpoint: fall through to single requests (from now on)
+        singleRequests = true;
+      } catch (Exception e) {
+        failAll(misses, missCount, e);
+        return;
+      }
+    }
+
+    for (int k = 0; k < missCount; k++) {
+      int i = misses[k];
+      GenerationHttpClient.Call requestCall = call.newChild();
+      try {
+        deliver(i, GenerationHttpClient.getInstance().get(handler.url(seeds[i]), requestCall, options));
+      } catch (Exception e) {
+        handler.onError(i + 1, e);
+      } finally {
+        requestCall.end();
+      }
+    }
+  }
+
+  private void deliver(int i, String response) {
+    if (cacheEnabled && handler.isValidResponse(response)) {
+      GenerationResponseCache.getInstance().put(handler.cacheKey(seeds[i]), response);
+    }
+    handler.onResult(i + 1, response);
+  }
+
+  private void failAll(int[] misses, int missCount, Exception e) {
+    for (int k = 0; k < missCount; k++) {
+      handler.onError(misses[k] + 1, e);
+    }
+  }
+
+  // true if the HTTP status means the server has no batch endpoint
+  private static boolean isMissingEndpoint(int status) {
+    return status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_BAD_METHOD
+        || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+  }
+}
@@ -0,0 +1,160 @@
+package com.google.appinventor.components.runtime;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The servers an extension sends its requests to, and how it picks one for
+ * each request: in turn (round robin), or the one that has been answering
+ * fastest (least latency, from the latencies the shared GenerationHttpClient
+ * has seen). Servers that have failed since their last success are avoided
+ * until the others fail too.
+ */
+public final class GenerationEndpoints {
+  // load balancing policies:
+  public static final String ROUND_ROBIN = "RoundRobin";
+  public static final String LEAST_LATENCY = "LeastLatency";
+
+  // added to a server's latency for each failure since its last success (milliseconds)
+  private static final long FAILURE_PENALTY = 60000;
+
+  // the servers' base URLs (ending in "/"), and their keys in the latencies
+  private volatile String[] urls;
+  private volatile String[] hosts;
+  // the sorted URLs, for cache keys
+  private volatile String key;
+  private volatile String balancing = ROUND_ROBIN;
+  // the server to try next (or first, on a tie)
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * @param urls the servers' base URLs, separated by commas
+   * @throws IllegalArgumentException if one of them isn't a URL
+   */
+  public GenerationEndpoints(String urls) {
+    try {
+      setURLs(urls);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Changes the servers.
+   *
+   * @param urls the servers' base URLs, separated by commas (a "/" is added
+   *             to any that doesn't end with one)
+   * @throws MalformedURLException if one of them isn't a URL, or there are none
+   */
+  public void setURLs(String urls) throws MalformedURLException {
+    List<String> parsed = new ArrayList<String>();
+    List<String> keys = new ArrayList<String>();
+    for (String url : urls.split(",")) {
+      url = url.trim();
+      if (url.length() == 0) {
+        continue;
+      }
+      if (!url.endsWith("/")) {
+        url += "/";
+      }
+      parsed.add(url);
+      keys.add(GenerationHttpClient.hostKey(new URL(url)));
+    }
+    if (parsed.isEmpty()) {
+      throw new MalformedURLException("No server URL");
+    }
+    String[] hostArray = keys.toArray(new String[keys.size()]);
+    List<String> sorted = new ArrayList<String>(parsed);
+    Collections.sort(sorted);
+    StringBuilder joined = new StringBuilder();
+    for (String url : sorted) {
+      if (joined.length() > 0) {
+        joined.append(',');
+      }
+      joined.append(url);
+    }
+    synchronized (this) {
+      hosts = hostArray;
+      this.urls = parsed.toArray(new String[parsed.size()]);
+      key = joined.toString();
+    }
+  }
+
+  /**
+   * Returns the servers' base URLs, separated by commas.
+   */
+  public String getURLs() {
+    StringBuilder joined = new StringBuilder();
+    for (String url : urls) {
+      if (joined.length() > 0) {
+        joined.append(", ");
+      }
+      joined.append(url);
+    }
+    return joined.toString();
+  }
+
+  /**
+   * Returns the servers as a string for cache keys (and the requests merged
+   * by GenerationRequestCoalescer), so that responses from one set of servers
+   * aren't used after the extension switches to another. The order of the
+   * servers doesn't matter.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  public String getBalancing() {
+    return balancing;
+  }
+
+  /**
+   * @param balancing ROUND_ROBIN or LEAST_LATENCY
+   * @throws IllegalArgumentException if it's neither
+   */
+  public void setBalancing(String balancing) {
+    if (!balancing.equals(ROUND_ROBIN) && !balancing.equals(LEAST_LATENCY)) {
+      throw new IllegalArgumentException("Unknown load balancing policy: " + balancing);
+    }
+    this.balancing = balancing;
+  }
+
+  /**
+   * Returns the base URL (ending in "/") of the server to send the next
+   * request to.
+   */
+  public String next() {
+    String[] urls;
+    String[] hosts;
+    synchronized (this) {
+      urls = this.urls;
+      hosts = this.hosts;
+    }
+    if (urls.length == 1) {
+      return urls[0];
+    }
+    // start from a different server each time, so ties are spread out
+    int first = (next.getAndIncrement() & Integer.MAX_VALUE) % urls.length;
+    GenerationLatencyTracker latencies = GenerationHttpClient.getInstance().getLatencies();
+    boolean leastLatency = balancing.equals(LEAST_LATENCY);
+    int best = first;
+    long bestScore = Long.MAX_VALUE;
+    for (int k = 0; k < urls.length; k++) {
+      int i = (first + k) % urls.length;
+      long score = latencies.failures(hosts[i]) * FAILURE_PENALTY;
+      if (leastLatency) {
+        // a server with no latencies yet scores 0, so it gets tried
+        score += Math.max(0, latencies.percentile(hosts[i], 50));
+      }
+      if (score < bestScore) {
+        best = i;
+        bestScore = score;
+      }
+    }
+    return urls[best];
+  }
+}
@@ -0,0 +1,209 @@
+package com.google.appinventor.components.runtime;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads that make the server requests of the SentenceGenerator and
+ * TextMixer extensions, shared by both. At most a fixed number of requests run
+ * at once; the others wait in a queue of limited length, where interactive
+ * requests go before batch ones. When the queue is full, a request is turned
+ * away: either the new one, or the oldest of the lowest priority waiting (if
+ * it isn't more urgent than the new one), and its onDropped is run, so that
+ * a burst of requests can't pile up threads or memory.
+ */
+public final class GenerationExecutor {
+  // priorities:
+  public static final int INTERACTIVE = 0;
+  public static final int BATCH = 1;
+
+  // saturation policies:
+  public static final String REJECT_NEW = "RejectNew";
+  public static final String DROP_OLDEST = "DropOldest";
+
+  public static final int DEFAULT_MAX_PARALLEL = 4;
+  public static final int DEFAULT_MAX_QUEUED = 16;
+  public static final String DEFAULT_SATURATION_POLICY = DROP_OLDEST;
+
+  // how long an idle thread is kept (seconds)
+  private static final int KEEP_ALIVE = 30;
+
+  private static final GenerationExecutor INSTANCE = new GenerationExecutor();
+
+  /**
+   * A request that was turned away because the queue was full.
+   */
+  public static final class SaturatedException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    public SaturatedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A request to run.
+   */
+  public abstract static class Task implements Runnable, Comparable<Task> {
+    private final int priority;
+    // order of submission, so tasks of the same priority run first come, first served
+    private long sequence;
+
+    /**
+     * @param priority INTERACTIVE or BATCH
+     */
+    protected Task(int priority) {
+      this.priority = priority;
+    }
+
+    /**
+     * Called (on the submitting thread) instead of run if the task is turned
+     * away because the queue is full.
+     */
+    public abstract void onDropped(SaturatedException e);
+
+    @Override
+    public int compareTo(Task other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile int maxQueued = DEFAULT_MAX_QUEUED;
+  private volatile String saturationPolicy = DEFAULT_SATURATION_POLICY;
+
+  private GenerationExecutor() {
+    executor = new ThreadPoolExecutor(DEFAULT_MAX_PARALLEL, DEFAULT_MAX_PARALLEL, KEEP_ALIVE, TimeUnit.SECONDS, queue,
+        new ThreadFactory() {
+          private final AtomicLong count = new AtomicLong();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GenerationExecutor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the executor shared by all the extensions.
+   */
+  public static GenerationExecutor getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs the task on one of the threads, when its turn comes, unless the queue
+   * is full, in which case this task's (or a queued one's) onDropped is run
+   * instead.
+   *
+   * @return false if this task was turned away
+   */
+  public boolean submit(Task task) {
+    Task dropped = null;
+    synchronized (this) {
+      task.sequence = sequence.incrementAndGet();
+      if (executor.getActiveCount() >= executor.getMaximumPoolSize() && queue.size() >= maxQueued) {
+        Task victim = saturationPolicy.equals(DROP_OLDEST) ? oldestOfLowestPriority() : null;
+        if (victim != null && victim.priority >= task.priority && executor.remove(victim)) {
+          dropped = victim;
+        } else {
+          dropped = task;
+        }
+      }
+      if (dropped != task) {
+        executor.execute(task);
+      }
+    }
+    if (dropped != null) {
+      dropped.onDropped(new SaturatedException("Too many requests: the request was "
+          + (dropped == task ? "rejected" : "dropped for a newer one")));
+    }
+    return dropped != task;
+  }
+
+  // the queued task that would run last among those of the lowest priority
+  // waiting, but was queued first
+  private Task oldestOfLowestPriority() {
+    Task victim = null;
+    for (Runnable queued : queue) {
+      Task task = (Task) queued;
+      if (victim == null || task.priority > victim.priority
+          || (task.priority == victim.priority && task.sequence < victim.sequence)) {
+        victim = task;
+      }
+    }
+    return victim;
+  }
+
+  /**
+   * Returns the number of requests waiting for a thread.
+   */
+  public int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the number of requests running.
+   */
+  public int getActive() {
+    return executor.getActiveCount();
+  }
+
+  public int getMaxParallel() {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * @param maxParallel the maximum number of requests run at once (at least 1)
+   */
+  public synchronized void setMaxParallel(int maxParallel) {
+    maxParallel = Math.max(1, maxParallel);
+    if (maxParallel > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(maxParallel);
+      executor.setCorePoolSize(maxParallel);
+    } else {
+      executor.setCorePoolSize(maxParallel);
+      executor.setMaximumPoolSize(maxParallel);
+    }
+  }
+
+  public int getMaxQueued() {
+    return maxQueued;
+  }
+
+  /**
+   * @param maxQueued the maximum number of requests waiting for a thread (0
+   *                  means none wait: a request is only run if a thread is
+   *                  free)
+   */
+  public void setMaxQueued(int maxQueued) {
+    this.maxQueued = Math.max(0, maxQueued);
+  }
+
+  public String getSaturationPolicy() {
+    return saturationPolicy;
+  }
+
+  /**
+   * @param policy REJECT_NEW or DROP_OLDEST
+   * @throws IllegalArgumentException if it's neither
+   */
+  public void setSaturationPolicy(String policy) {
+    if (!policy.equals(REJECT_NEW) && !policy.equals(DROP_OLDEST)) {
+      throw new IllegalArgumentException("Unknown saturation policy: " + policy);
+    }
+    saturationPolicy = policy;
+  }
+}
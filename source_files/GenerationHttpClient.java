@@ -0,0 +1,691 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The HTTP client shared by the SentenceGenerator and TextMixer extensions.
+ * <br>
+ * HttpURLConnection keeps idle connections alive and reuses them for later
+ * requests to the same host, but only if each response is read to the end and
+ * its stream closed (and disconnect() isn't called, since that closes the
+ * socket). This client makes sure that happens, including for error
+ * responses, and limits the number of connections open to each host at once
+ * (requests over the limit wait), so back-to-back requests skip the TCP
+ * setup.
+ * <br>
+ * Each request belongs to a Call, which can be cancelled from any thread, and
+ * follows its Options: connect and read timeouts, a total deadline, and
+ * retries (for GETs, which are idempotent) with jittered exponential backoff.
+ * The read timeout can adapt to the latencies recently seen from the host.
+ * If the Options have GenerationMetrics, each attempt's phases (connecting,
+ * including resolving the host, waiting for the server, reading the body)
+ * are timed into them, along with the bytes received.
+ * <br>
+ * Responses are asked for gzipped (and unzipped here), except streamed ones,
+ * whose lines must arrive as soon as they are sent. A request can also name
+ * the formats it accepts (e.g., TextMixer's compact format, with json as the
+ * fallback), and its reader is told which one the server picked.
+ */
+public final class GenerationHttpClient {
+  // Maximum number of connections open to one host at once:
+  public static final int MAX_CONNECTIONS_PER_HOST = 4;
+  // Backoff before the first retry, and the most it can grow to (milliseconds):
+  public static final int BACKOFF_BASE = 500;
+  public static final int BACKOFF_MAX = 10000;
+  // How often a request waiting for a free connection checks whether it has
+  // been cancelled (milliseconds):
+  private static final int ACQUIRE_POLL = 50;
+
+  private static final String USER_AGENT = "AppInventor";
+  private static final GenerationHttpClient INSTANCE = new GenerationHttpClient();
+
+  // host:port -> permits for its connections
+  private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+  private final GenerationLatencyTracker latencies = new GenerationLatencyTracker();
+  // enforces the total deadlines
+  private final ScheduledThreadPoolExecutor deadlines;
+
+  private GenerationHttpClient() {
+    deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "GenerationHttpClient deadlines");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    deadlines.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns the client shared by all the extensions.
+   */
+  public static GenerationHttpClient getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the latencies recently seen from each host.
+   */
+  public GenerationLatencyTracker getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * Thrown when the server responds with an error status.
+   */
+  public static final class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public final int status;
+
+    public HttpStatusException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  /**
+   * Thrown when a request is stopped because its Call was cancelled.
+   */
+  public static final class CancelledException extends InterruptedIOException {
+    private static final long serialVersionUID = 1L;
+
+    public CancelledException() {
+      super("Request cancelled");
+    }
+  }
+
+  /**
+   * Receives the lines of a streamed response as they arrive.
+   */
+  public interface LineHandler {
+    void onLine(String line) throws IOException;
+  }
+
+  /**
+   * How a request is made. Times are in milliseconds; 0 means no limit.
+   */
+  public static final class Options {
+    public final int connectTimeout;
+    // longest wait for data (the upper bound, if adaptive)
+    public final int readTimeout;
+    // deadline for the whole request, including retries
+    public final int totalTimeout;
+    // number of times a failed GET is retried
+    public final int maxRetries;
+    // if true, the read timeout follows the host's recent latencies
+    public final boolean adaptiveTimeout;
+    // where the request's phases are timed, or null
+    public final GenerationMetrics metrics;
+
+    public Options(int connectTimeout, int readTimeout, int totalTimeout, int maxRetries, boolean adaptiveTimeout) {
+      this(connectTimeout, readTimeout, totalTimeout, maxRetries, adaptiveTimeout, null);
+    }
+
+    public Options(int connectTimeout, int readTimeout, int totalTimeout, int maxRetries, boolean adaptiveTimeout,
+        GenerationMetrics metrics) {
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+      this.totalTimeout = totalTimeout;
+      this.maxRetries = maxRetries;
+      this.adaptiveTimeout = adaptiveTimeout;
+      this.metrics = metrics;
+    }
+  }
+
+  /**
+   * A request (possibly made of several attempts, or of several connections
+   * at once) that can be cancelled from any thread. Cancelling closes its open
+   * connections and ends any backoff wait or wait for a free connection, so
+   * the thread making the request is freed right away.
+   */
+  public static final class Call {
+    private final List<HttpURLConnection> connections = new ArrayList<HttpURLConnection>(1);
+    // calls cancelled along with this one (see newChild)
+    private final List<Call> children = new ArrayList<Call>(0);
+    private Call parent;
+    private boolean cancelled;
+    private boolean timedOut;
+
+    /**
+     * Cancels the request. The thread making it gets a CancelledException.
+     */
+    public void cancel() {
+      abort(false);
+    }
+
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    // ends the call because its deadline has passed
+    void timeOut() {
+      abort(true);
+    }
+
+    private void abort(boolean timeout) {
+      List<HttpURLConnection> open;
+      List<Call> cancelledChildren;
+      synchronized (this) {
+        // a cancel still counts after a timeout, so it reaches the children
+        if (cancelled || (timeout && timedOut)) {
+          return;
+        }
+        if (timeout) {
+          timedOut = true;
+          cancelledChildren = new ArrayList<Call>(0);
+        } else {
+          cancelled = true;
+          cancelledChildren = new ArrayList<Call>(children);
+          children.clear();
+        }
+        open = new ArrayList<HttpURLConnection>(connections);
+        connections.clear();
+        notifyAll();
+      }
+      for (HttpURLConnection con : open) {
+        con.disconnect();
+      }
+      for (Call child : cancelledChildren) {
+        child.cancel();
+      }
+    }
+
+    // returns a call for one request of this one (e.g., a batch's): cancelling
+    // this call cancels it, but its deadline is its own, so its timing out
+    // doesn't end this call's other requests. end() it once its request is done.
+    synchronized Call newChild() {
+      Call child = new Call();
+      if (cancelled) {
+        child.cancelled = true;
+      } else {
+        child.parent = this;
+        children.add(child);
+      }
+      return child;
+    }
+
+    // forgets a call made by newChild, once its request is done
+    void end() {
+      Call parent;
+      synchronized (this) {
+        parent = this.parent;
+        this.parent = null;
+      }
+      if (parent != null) {
+        synchronized (parent) {
+          parent.children.remove(this);
+        }
+      }
+    }
+
+    // throws if the call has been cancelled or has timed out
+    synchronized void check() throws IOException {
+      if (cancelled) {
+        throw new CancelledException();
+      }
+      if (timedOut) {
+        throw new SocketTimeoutException("The request took longer than its total timeout");
+      }
+    }
+
+    synchronized void attach(HttpURLConnection con) throws IOException {
+      check();
+      connections.add(con);
+    }
+
+    synchronized void detach(HttpURLConnection con) {
+      connections.remove(con);
+    }
+
+    // waits for the given time, unless the call ends first
+    synchronized void sleep(long millis) throws IOException {
+      long end = System.currentTimeMillis() + millis;
+      long left = millis;
+      while (left > 0 && !cancelled && !timedOut) {
+        try {
+          wait(left);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted during backoff");
+        }
+        left = end - System.currentTimeMillis();
+      }
+      check();
+    }
+  }
+
+  /**
+   * Makes a GET request (once, with the given timeouts) and returns the whole
+   * response body.
+   *
+   * @param url            the url, including the query
+   * @param connectTimeout connect timeout, in milliseconds
+   * @param readTimeout    read timeout, in milliseconds
+   * @return the response
+   * @throws IOException if the request fails or the server responds with an
+   *                     error status
+   */
+  public String get(String url, int connectTimeout, int readTimeout) throws IOException {
+    return get(url, new Call(), new Options(connectTimeout, readTimeout, 0, 0, false));
+  }
+
+  /**
+   * Makes a GET request and returns the whole response body, retrying if it
+   * fails.
+   *
+   * @param url     the url, including the query
+   * @param call    the call the request belongs to
+   * @param options timeouts and retries
+   * @return the response
+   * @throws IOException if every attempt fails (HttpStatusException if the
+   *                     server responded with an error status), the call is
+   *                     cancelled (CancelledException) or the total timeout
+   *                     passes
+   */
+  public String get(String url, Call call, Options options) throws IOException {
+    return get(url, call, options, null, new ResponseReader<String>() {
+      @Override
+      public String read(InputStream stream, String contentType) throws IOException {
+        // reads to the end of the stream and closes it
+        return GenerationResponseParser.readResponse(stream);
+      }
+    });
+  }
+
+  /**
+   * Reads a response body, in whichever format the server sent it.
+   */
+  public interface ResponseReader<T> {
+    /**
+     * @param stream      the response body (unzipped); must be read to the
+     *                    end and closed
+     * @param contentType the response's Content-Type (e.g.,
+     *                    "application/json; charset=utf-8"), or null
+     */
+    T read(InputStream stream, String contentType) throws IOException;
+  }
+
+  /**
+   * Makes a GET request accepting the given formats, and decodes the response
+   * with reader, retrying if it fails.
+   *
+   * @param url     the url, including the query
+   * @param call    the call the request belongs to
+   * @param options timeouts and retries
+   * @param accept  the Accept header, or null for none
+   * @param reader  decodes the response
+   * @return what reader returned
+   * @throws IOException if every attempt fails (HttpStatusException if the
+   *                     server responded with an error status), the call is
+   *                     cancelled (CancelledException) or the total timeout
+   *                     passes
+   */
+  public <T> T get(String url, Call call, Options options, String accept, final ResponseReader<T> reader)
+      throws IOException {
+    final List<T> response = new ArrayList<T>(1);
+    run(url, null, accept, true, call, options, new Attempt() {
+      @Override
+      public void run(InputStream stream, String contentType) throws IOException {
+        response.clear();
+        response.add(reader.read(stream, contentType));
+      }
+    });
+    return response.get(0);
+  }
+
+  /**
+   * Makes a GET request and passes each line of the response to handler as
+   * soon as it arrives (e.g., from a chunked or newline-delimited stream).
+   * Returns when the response ends. The request is retried only if it fails
+   * before the first line arrives.
+   *
+   * @param url     the url, including the query
+   * @param call    the call the request belongs to
+   * @param options timeouts and retries (the read timeout is the longest wait
+   *                for the next line, and doesn't adapt)
+   * @param handler receives each line, without the line break
+   * @throws IOException if the request fails, the call is cancelled, or
+   *                     handler throws
+   */
+  public void getLines(String url, Call call, Options options, final LineHandler handler) throws IOException {
+    Options streamOptions = new Options(options.connectTimeout, options.readTimeout, options.totalTimeout,
+        options.maxRetries, false, options.metrics);
+    run(url, null, null, false, call, streamOptions, new Attempt() {
+      @Override
+      public void run(InputStream stream, String contentType) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        boolean started = false;
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            started = true;
+            handler.onLine(line);
+          }
+        } catch (IOException e) {
+          if (started) {
+            // the lines can't be taken back, so don't retry
+            throw new NoRetryException(e);
+          }
+          throw e;
+        } finally {
+          in.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Makes a POST request with a json body and returns the whole response
+   * body. POSTs aren't retried.
+   *
+   * @param url     the url
+   * @param json    the request body
+   * @param call    the call the request belongs to
+   * @param options timeouts (maxRetries is ignored)
+   * @return the response
+   * @throws IOException if the request fails or the server responds with an
+   *                     error status (HttpStatusException)
+   */
+  public String post(String url, String json, Call call, Options options) throws IOException {
+    Options postOptions = new Options(options.connectTimeout, options.readTimeout, options.totalTimeout, 0,
+        options.adaptiveTimeout, options.metrics);
+    final String[] response = new String[1];
+    run(url, json, null, true, call, postOptions, new Attempt() {
+      @Override
+      public void run(InputStream stream, String contentType) throws IOException {
+        response[0] = GenerationResponseParser.readResponse(stream);
+      }
+    });
+    return response[0];
+  }
+
+  // reads the response of one attempt
+  private interface Attempt {
+    void run(InputStream stream, String contentType) throws IOException;
+  }
+
+  // wraps a failure that must not be retried
+  private static final class NoRetryException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    NoRetryException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  // makes attempts until one succeeds, retries run out, or the call ends
+  private void run(String url, String json, String accept, boolean gzip, final Call call, Options options,
+      Attempt attempt) throws IOException {
+    URL obj = new URL(url);
+    String host = hostKey(obj);
+    long deadline = options.totalTimeout > 0 ? System.currentTimeMillis() + options.totalTimeout : 0;
+    Future<?> deadlineTask = null;
+    if (deadline > 0) {
+      deadlineTask = deadlines.schedule(new Runnable() {
+        @Override
+        public void run() {
+          call.timeOut();
+        }
+      }, options.totalTimeout, TimeUnit.MILLISECONDS);
+    }
+    try {
+      for (int retry = 0;; retry++) {
+        call.check();
+        int readTimeout = options.adaptiveTimeout ? latencies.adaptiveTimeout(host, options.readTimeout)
+            : options.readTimeout;
+        long start = System.currentTimeMillis();
+        try {
+          send(obj, json, accept, gzip, call, deadline, limit(options.connectTimeout, deadline),
+              limit(readTimeout, deadline), options.metrics, attempt);
+          latencies.record(host, System.currentTimeMillis() - start);
+          return;
+        } catch (NoRetryException e) {
+          call.check();
+          throw (IOException) e.getCause();
+        } catch (IOException e) {
+          // a cancelled or timed-out call reports that, rather than the closed connection
+          call.check();
+          boolean retryable = isRetryable(e);
+          if (retryable) {
+            // the host is down or struggling (rather than the request being wrong)
+            latencies.recordFailure(host);
+          }
+          if (retry >= options.maxRetries || !retryable) {
+            throw e;
+          }
+        }
+        call.sleep(backoff(retry));
+      }
+    } finally {
+      if (deadlineTask != null) {
+        deadlineTask.cancel(false);
+      }
+    }
+  }
+
+  // sends one request (a GET, or a POST if there's a json body) and reads its
+  // response, unzipping it if the server gzipped it, timing its phases into
+  // metrics (if not null)
+  private void send(URL url, String json, String accept, boolean gzip, Call call, long deadline,
+      int connectTimeout, int readTimeout, GenerationMetrics metrics, Attempt attempt) throws IOException {
+    // resolving the host is left to the connection (so it is bounded by the
+    // connect timeout, and done by the proxy if there is one), and timed as part
+    // of CONNECT
+    long phase = metrics != null ? System.nanoTime() : 0;
+    Semaphore permits = acquire(url, call, deadline);
+    HttpURLConnection con = null;
+    try {
+      con = (HttpURLConnection) url.openConnection();
+      call.attach(con);
+      con.setRequestProperty("User-Agent", USER_AGENT);
+      con.setRequestProperty("Connection", "keep-alive");
+      // asking explicitly means no one else unzips it (e.g., Android's HttpURLConnection would)
+      con.setRequestProperty("Accept-Encoding", gzip ? "gzip" : "identity");
+      if (accept != null) {
+        con.setRequestProperty("Accept", accept);
+      }
+      con.setConnectTimeout(connectTimeout);
+      con.setReadTimeout(readTimeout);
+      if (json == null) {
+        con.setRequestMethod("GET");
+        con.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        con.connect();
+      } else {
+        byte[] body = json.getBytes("UTF-8");
+        con.setRequestMethod("POST");
+        con.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        con.setDoOutput(true);
+        con.setFixedLengthStreamingMode(body.length);
+        OutputStream out = con.getOutputStream();
+        try {
+          out.write(body);
+        } finally {
+          out.close();
+        }
+      }
+      if (metrics != null) {
+        phase = metrics.record(GenerationMetrics.CONNECT, phase);
+      }
+
+      int status = con.getResponseCode();
+      if (metrics != null) {
+        phase = metrics.record(GenerationMetrics.SERVER, phase);
+      }
+      if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+        // drain the error body too, so the connection can be reused
+        drain(con.getErrorStream());
+        throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + url);
+      }
+      InputStream stream = con.getInputStream();
+      if (metrics != null) {
+        stream = new CountingInputStream(stream, metrics);
+      }
+      if ("gzip".equalsIgnoreCase(con.getContentEncoding())) {
+        try {
+          stream = new GZIPInputStream(stream);
+        } catch (ZipException e) {
+          // not gzip after all
+          stream.close();
+          throw new NoRetryException(e);
+        } catch (IOException e) {
+          stream.close();
+          throw e;
+        }
+      }
+      try {
+        attempt.run(stream, con.getContentType());
+      } catch (ZipException e) {
+        // a corrupt body: the server would send it again, and it says nothing
+        // about the host's health
+        throw new NoRetryException(e);
+      } catch (GenerationResponseParser.MalformedResponseException e) {
+        throw new NoRetryException(e);
+      } finally {
+        // the readers close it when they're done; this covers one that throws first
+        // (closing twice does nothing)
+        stream.close();
+      }
+      if (metrics != null) {
+        metrics.record(GenerationMetrics.TRANSFER, phase);
+      }
+    } finally {
+      if (con != null) {
+        call.detach(con);
+      }
+      permits.release();
+    }
+  }
+
+  // counts the bytes read from a response into the metrics
+  private static final class CountingInputStream extends FilterInputStream {
+    private final GenerationMetrics metrics;
+
+    CountingInputStream(InputStream in, GenerationMetrics metrics) {
+      super(in);
+      this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        metrics.count(GenerationMetrics.BYTES_RECEIVED);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        metrics.add(GenerationMetrics.BYTES_RECEIVED, n);
+      }
+      return n;
+    }
+  }
+
+  // true if a failed GET is worth trying again
+  private static boolean isRetryable(IOException e) {
+    if (e instanceof HttpStatusException) {
+      int status = ((HttpStatusException) e).status;
+      // server errors, request timeout and too many requests
+      return status >= 500 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429;
+    }
+    // timeouts, refused or reset connections, DNS failures... (responses that
+    // can't be decoded are thrown as NoRetryException by send)
+    return !(e instanceof CancelledException) && !(e instanceof MalformedURLException);
+  }
+
+  // the wait before retry number retry + 1: a random time up to
+  // BACKOFF_BASE * 2^retry (at most BACKOFF_MAX), so clients don't retry in step
+  static long backoff(int retry) {
+    long ceiling = Math.min(BACKOFF_MAX, (long) BACKOFF_BASE << Math.min(retry, 20));
+    return (long) (Math.random() * ceiling);
+  }
+
+  // shortens timeout so it doesn't pass the deadline (0 means none)
+  private static int limit(int timeout, long deadline) {
+    if (deadline <= 0) {
+      return timeout;
+    }
+    long left = Math.max(1, deadline - System.currentTimeMillis());
+    return (int) (timeout > 0 ? Math.min(timeout, left) : left);
+  }
+
+  // waits for a free connection to url's host, until the call is cancelled or
+  // the deadline (0 means none) passes; the wait is cut into short slices, since
+  // cancelling doesn't wake a thread blocked on the semaphore
+  private Semaphore acquire(URL url, Call call, long deadline) throws IOException {
+    Semaphore permits = permitsFor(url);
+    try {
+      while (true) {
+        call.check();
+        long wait = ACQUIRE_POLL;
+        if (deadline > 0) {
+          long left = deadline - System.currentTimeMillis();
+          if (left <= 0) {
+            call.timeOut();
+            call.check();
+          }
+          wait = Math.min(wait, left);
+        }
+        if (permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+    }
+    return permits;
+  }
+
+  private synchronized Semaphore permitsFor(URL url) {
+    String key = hostKey(url);
+    Semaphore permits = hostPermits.get(key);
+    if (permits == null) {
+      permits = new Semaphore(MAX_CONNECTIONS_PER_HOST, true);
+      hostPermits.put(key, permits);
+    }
+    return permits;
+  }
+
+  /**
+   * Returns the key of url's host in the latencies, i.e., host:port.
+   */
+  static String hostKey(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return url.getHost() + ":" + port;
+  }
+
+  /**
+   * Reads the rest of the stream (if any) and closes it.
+   */
+  static void drain(InputStream stream) throws IOException {
+    if (stream == null) {
+      return;
+    }
+    try {
+      byte[] buffer = new byte[4096];
+      while (stream.read(buffer) != -1) {
+        // discard
+      }
+    } finally {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import org.json.JSONException;
+
+/**
+ * A small pull parser for the json sent by the text generation servers. It
+ * reads straight from the response (a Reader over the stream or the string)
+ * one value at a time, so decoding doesn't build a tree of JSONObjects and
+ * JSONArrays first, and strings that are one of a few known values (e.g., the
+ * corpus labels) are returned as those constants instead of new Strings.
+ * <br>
+ * Syntax errors are reported as JSONExceptions, like org.json's.
+ */
+public final class GenerationJsonReader {
+  private final Reader in;
+  // characters read but not consumed yet
+  private final char[] buffer = new char[1024];
+  private int pos;
+  private int limit;
+  // number of characters consumed before buffer[0], for error messages
+  private long offset;
+  // reused for every string
+  private final StringBuilder string = new StringBuilder();
+  // true if a value was just read, so the next member of the object or array
+  // must come after a comma. Opening an object or array clears it and closing
+  // one sets it, since that is a value in the enclosing one.
+  private boolean afterValue;
+
+  public GenerationJsonReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads everything up to the first "{" (e.g., a warning the server put in
+   * front of the json).
+   *
+   * @return the text before the json
+   * @throws JSONException if there is no json
+   */
+  public String readPrefix() throws IOException, JSONException {
+    StringBuilder prefix = new StringBuilder();
+    while (true) {
+      if (pos == limit && !fill()) {
+        throw syntaxError("A JSONObject text must begin with '{'");
+      }
+      char c = buffer[pos];
+      if (c == '{') {
+        return prefix.toString();
+      }
+      prefix.append(c);
+      pos++;
+    }
+  }
+
+  public void beginObject() throws IOException, JSONException {
+    expect('{', "A JSONObject text must begin with '{'");
+    afterValue = false;
+  }
+
+  public void endObject() throws IOException, JSONException {
+    expect('}', "Expected a '}'");
+    afterValue = true;
+  }
+
+  public void beginArray() throws IOException, JSONException {
+    expect('[', "A JSONArray text must start with '['");
+    afterValue = false;
+  }
+
+  public void endArray() throws IOException, JSONException {
+    expect(']', "Expected a ']'");
+    afterValue = true;
+  }
+
+  /**
+   * Returns true if the current object or array has another member, skipping
+   * the comma before it.
+   *
+   * @throws JSONException if a member isn't separated from the one before it
+   *     by a comma, or a comma isn't followed by a member
+   */
+  public boolean hasNext() throws IOException, JSONException {
+    int c = peek();
+    if (c == '}' || c == ']') {
+      return false;
+    }
+    if (c == -1) {
+      throw syntaxError("Unterminated json");
+    }
+    if (afterValue) {
+      if (c != ',') {
+        throw syntaxError("Expected a ',' or '}' or ']'");
+      }
+      pos++;
+      c = peek();
+      if (c == '}' || c == ']') {
+        throw syntaxError("Expected a value after ','");
+      }
+      if (c == -1) {
+        throw syntaxError("Unterminated json");
+      }
+      afterValue = false;
+    } else if (c == ',') {
+      throw syntaxError("Expected a value before ','");
+    }
+    return true;
+  }
+
+  /**
+   * Reads the name of the next member of an object, and the colon after it.
+   */
+  public String nextName() throws IOException, JSONException {
+    if (peek() != '"') {
+      throw syntaxError("Expected a name");
+    }
+    String name = nextString();
+    expect(':', "Expected a ':' after a key");
+    afterValue = false;
+    return name;
+  }
+
+  /**
+   * Reads a string value.
+   *
+   * @throws JSONException if the next value isn't a string
+   */
+  public String nextString() throws IOException, JSONException {
+    return nextString(null);
+  }
+
+  /**
+   * Reads a string value, returning the matching constant if it equals one of
+   * known, without making a new String.
+   *
+   * @param known the strings that are likely to come up (may be null)
+   * @throws JSONException if the next value isn't a string
+   */
+  public String nextString(String[] known) throws IOException, JSONException {
+    if (peek() != '"') {
+      throw syntaxError("Expected a string");
+    }
+    pos++;
+    string.setLength(0);
+    while (true) {
+      if (pos == limit && !fill()) {
+        throw syntaxError("Unterminated string");
+      }
+      char c = buffer[pos++];
+      if (c == '"') {
+        break;
+      } else if (c == '\\') {
+        string.append(readEscape());
+      } else {
+        string.append(c);
+      }
+    }
+    afterValue = true;
+    if (known != null) {
+      for (String constant : known) {
+        if (equals(string, constant)) {
+          return constant;
+        }
+      }
+    }
+    return string.toString();
+  }
+
+  /**
+   * Skips the next value, whatever it is (including nested objects and
+   * arrays).
+   */
+  public void skipValue() throws IOException, JSONException {
+    int c = peek();
+    if (c == '"') {
+      nextString();
+    } else if (c == '{') {
+      beginObject();
+      while (hasNext()) {
+        nextName();
+        skipValue();
+      }
+      endObject();
+    } else if (c == '[') {
+      beginArray();
+      while (hasNext()) {
+        skipValue();
+      }
+      endArray();
+    } else if (c == -1) {
+      throw syntaxError("Unterminated json");
+    } else if (c == ',' || c == '}' || c == ']') {
+      throw syntaxError("Expected a value");
+    } else {
+      // a number, true, false or null
+      afterValue = true;
+      while (true) {
+        if (pos == limit && !fill()) {
+          return;
+        }
+        c = buffer[pos];
+        if (c == ',' || c == '}' || c == ']' || Character.isWhitespace((char) c)) {
+          return;
+        }
+        pos++;
+      }
+    }
+  }
+
+  // consumes c (after any whitespace), or throws with message
+  private void expect(char c, String message) throws IOException, JSONException {
+    if (peek() != c) {
+      throw syntaxError(message);
+    }
+    pos++;
+  }
+
+  // returns the next character that isn't whitespace, without consuming it, or
+  // -1 at the end
+  private int peek() throws IOException {
+    while (true) {
+      if (pos == limit && !fill()) {
+        return -1;
+      }
+      char c = buffer[pos];
+      if (!Character.isWhitespace(c)) {
+        return c;
+      }
+      pos++;
+    }
+  }
+
+  // decodes the escape after a backslash
+  private char readEscape() throws IOException, JSONException {
+    if (pos == limit && !fill()) {
+      throw syntaxError("Unterminated string");
+    }
+    char c = buffer[pos++];
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated string");
+          }
+          int digit = Character.digit(buffer[pos++], 16);
+          if (digit < 0) {
+            throw syntaxError("Illegal escape");
+          }
+          code = code * 16 + digit;
+        }
+        return (char) code;
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      default:
+        throw syntaxError("Illegal escape");
+    }
+  }
+
+  // reads more characters; returns false at the end of the input
+  private boolean fill() throws IOException {
+    offset += limit;
+    pos = 0;
+    limit = 0;
+    int n;
+    while ((n = in.read(buffer)) == 0) {
+      // keep reading
+    }
+    if (n < 0) {
+      return false;
+    }
+    limit = n;
+    return true;
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at " + (offset + pos));
+  }
+
+  private static boolean equals(StringBuilder chars, String s) {
+    if (chars.length() != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (chars.charAt(i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,108 @@
+package com.google.appinventor.components.runtime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the latencies of the most recent successful requests to each host, so
+ * that read timeouts can follow how fast the server actually is, instead of
+ * always waiting for the longest a request could possibly take. Also counts
+ * each host's failures since its last success, so requests can be steered
+ * away from a host that is down.
+ */
+public final class GenerationLatencyTracker {
+  // number of latencies kept per host
+  public static final int WINDOW = 64;
+  // latencies needed before the timeout adapts
+  public static final int MIN_SAMPLES = 10;
+  // the adaptive timeout is this many times the 95th percentile latency...
+  public static final double TIMEOUT_FACTOR = 3;
+  // ...but never less than this (milliseconds)
+  public static final int MIN_ADAPTIVE_TIMEOUT = 5000;
+
+  private static final class Window {
+    final long[] latencies = new long[WINDOW];
+    int count;
+    int next;
+    // failures since the last success
+    int failures;
+  }
+
+  // host:port -> its recent latencies
+  private final Map<String, Window> windows = new HashMap<String, Window>();
+
+  /**
+   * Records the latency (in milliseconds) of a successful request.
+   */
+  public synchronized void record(String host, long latency) {
+    Window window = windowFor(host);
+    window.failures = 0;
+    window.latencies[window.next] = latency;
+    window.next = (window.next + 1) % WINDOW;
+    if (window.count < WINDOW) {
+      window.count++;
+    }
+  }
+
+  /**
+   * Records a failed request (e.g., the host couldn't be reached, timed out,
+   * or responded with a server error).
+   */
+  public synchronized void recordFailure(String host) {
+    windowFor(host).failures++;
+  }
+
+  /**
+   * Returns the number of failed requests to host since its last successful
+   * one.
+   */
+  public synchronized int failures(String host) {
+    Window window = windows.get(host);
+    return window == null ? 0 : window.failures;
+  }
+
+  /**
+   * Returns the given percentile (0 to 100) of the recent latencies to host,
+   * in milliseconds, or -1 if there are none.
+   */
+  public synchronized long percentile(String host, double percentile) {
+    Window window = windows.get(host);
+    if (window == null || window.count == 0) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(window.latencies, window.count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  /**
+   * Returns the read timeout to use for a request to host: TIMEOUT_FACTOR
+   * times the 95th percentile of its recent latencies (at least
+   * MIN_ADAPTIVE_TIMEOUT), or maxTimeout if that is smaller (and not 0) or
+   * there aren't enough latencies yet.
+   */
+  public int adaptiveTimeout(String host, int maxTimeout) {
+    long p95;
+    synchronized (this) {
+      Window window = windows.get(host);
+      if (window == null || window.count < MIN_SAMPLES) {
+        return maxTimeout;
+      }
+      p95 = percentile(host, 95);
+    }
+    long timeout = Math.max(MIN_ADAPTIVE_TIMEOUT, (long) (TIMEOUT_FACTOR * p95));
+    // a maxTimeout of 0 means no limit
+    return (int) (maxTimeout > 0 ? Math.min(timeout, maxTimeout) : Math.min(timeout, Integer.MAX_VALUE));
+  }
+
+  private Window windowFor(String host) {
+    Window window = windows.get(host);
+    if (window == null) {
+      window = new Window();
+      windows.put(host, window);
+    }
+    return window;
+  }
+}
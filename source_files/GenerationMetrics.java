@@ -0,0 +1,249 @@
+package com.google.appinventor.components.runtime;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times the requests of a SentenceGenerator or TextMixer extension, phase by
+ * phase, and counts their outcomes, so it can be told where the time of a
+ * slow generation goes (waiting for a thread, connecting, the server, the
+ * transfer, decoding, or the UI thread).
+ * <br>
+ * Each phase's durations go into a histogram of log-linear buckets (8 per
+ * power of two, so a percentile is within 12.5% of the exact value), kept in
+ * atomic counters, so recording takes two or three atomic adds, without locks
+ * or allocation, from any thread. Durations are measured with
+ * System.nanoTime and kept in microseconds.
+ */
+public final class GenerationMetrics {
+  // phases:
+  // waiting for a thread of GenerationExecutor
+  public static final int QUEUE = 0;
+  // waiting for a free connection to the host, and opening it (resolving the
+  // host and the TCP setup; next to nothing for a kept-alive one), and sending
+  // the request
+  public static final int CONNECT = 1;
+  // waiting for the response's headers, i.e., the server generating (or, with
+  // TextMixer's Local engine, generating on the device)
+  public static final int SERVER = 2;
+  // reading the response body (and decoding it, if it is decoded as it arrives)
+  public static final int TRANSFER = 3;
+  // building the sentence and lists for the events, on the worker thread
+  public static final int DECODE = 4;
+  // raising the events on the UI thread
+  public static final int UI = 5;
+  // from the Start call to the end of the events
+  public static final int TOTAL = 6;
+
+  public static final String[] PHASES = { "Queue", "Connect", "Server", "Transfer", "Decode", "UiThread", "Total" };
+
+  // counters:
+  public static final int REQUESTS = 0;
+  public static final int SUCCESSES = 1;
+  public static final int ERRORS = 2;
+  public static final int TIMEOUTS = 3;
+  // turned away by GenerationExecutor
+  public static final int REJECTED = 4;
+  public static final int CACHE_HITS = 5;
+  // answered with a response generated ahead of time (see GenerationPrefetchPool)
+  public static final int PREFETCH_HITS = 6;
+  // response bytes read from the network (compressed, if they were gzipped)
+  public static final int BYTES_RECEIVED = 7;
+
+  public static final String[] COUNTERS = { "Requests", "Successes", "Errors", "Timeouts", "Rejected",
+      "CacheHits", "PrefetchHits", "BytesReceived" };
+
+  /**
+   * The durations of one phase, in microseconds. Values below 2 * SUB_BUCKETS
+   * have a bucket each; above, each power of two is split into SUB_BUCKETS
+   * buckets of equal width.
+   */
+  public static final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // the largest value with its own bucket: about 2^40 us (12 days)
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a duration, in microseconds.
+     */
+    public void record(long micros) {
+      if (micros < 0) {
+        // e.g., a clock adjustment in a test
+        micros = 0;
+      }
+      buckets.incrementAndGet(bucket(micros));
+      sum.addAndGet(micros);
+      long current;
+      while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        // another thread raised it first; try again
+      }
+    }
+
+    public long count() {
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        count += buckets.get(i);
+      }
+      return count;
+    }
+
+    /**
+     * Returns the mean duration, in milliseconds, or 0 if there are none.
+     */
+    public double mean() {
+      long n = count();
+      return n == 0 ? 0 : sum.get() / 1000.0 / n;
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of the durations, in
+     * milliseconds: the upper bound of the bucket it falls in (but no more
+     * than the longest duration), or 0 if there are none.
+     */
+    public double percentile(double percentile) {
+      return percentiles(percentile)[0];
+    }
+
+    /**
+     * Returns several percentiles (see percentile) of the same durations.
+     * Durations recorded while this runs may or may not be counted.
+     */
+    public double[] percentiles(double... percentiles) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        total += counts[i];
+      }
+      double[] values = new double[percentiles.length];
+      if (total == 0) {
+        return values;
+      }
+      long longest = max.get();
+      for (int p = 0; p < percentiles.length; p++) {
+        long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100 * total));
+        long seen = 0;
+        int i = 0;
+        while (i < BUCKETS - 1 && (seen += counts[i]) < rank) {
+          i++;
+        }
+        values[p] = Math.min(upperBound(i), longest) / 1000.0;
+      }
+      return values;
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets.set(i, 0);
+      }
+      sum.set(0);
+      max.set(0);
+    }
+
+    static int bucket(long micros) {
+      if (micros < 2 * SUB_BUCKETS) {
+        return (int) micros;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+      int bucket = (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+      return Math.min(bucket, BUCKETS - 1);
+    }
+
+    // the largest value that falls in bucket
+    static long upperBound(int bucket) {
+      if (bucket < 2 * SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = bucket / SUB_BUCKETS - 1;
+      long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+      return ((sub + 1) << shift) - 1;
+    }
+  }
+
+  private final Histogram[] histograms = new Histogram[PHASES.length];
+  private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+
+  public GenerationMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new Histogram();
+    }
+  }
+
+  /**
+   * Records that a phase, started at start (System.nanoTime), has just ended.
+   *
+   * @return the time it ended (System.nanoTime), i.e., the start of the next
+   *         phase
+   */
+  public long record(int phase, long start) {
+    long now = System.nanoTime();
+    histograms[phase].record((now - start) / 1000);
+    return now;
+  }
+
+  public Histogram histogram(int phase) {
+    return histograms[phase];
+  }
+
+  public void count(int counter) {
+    counters.incrementAndGet(counter);
+  }
+
+  public void add(int counter, long amount) {
+    counters.addAndGet(counter, amount);
+  }
+
+  /**
+   * Counts a failed request as a timeout, a rejection or an error.
+   */
+  public void countFailure(Exception e) {
+    count(e instanceof SocketTimeoutException ? TIMEOUTS
+        : e instanceof GenerationExecutor.SaturatedException ? REJECTED : ERRORS);
+  }
+
+  public long counter(int counter) {
+    return counters.get(counter);
+  }
+
+  /**
+   * Returns the metrics as (name, value) pairs: each counter, then for each
+   * phase its count and its 50th, 95th and 99th percentiles, in milliseconds
+   * (e.g., "ServerP95").
+   */
+  public List<Object[]> pairs() {
+    List<Object[]> pairs = new ArrayList<Object[]>(COUNTERS.length + 4 * PHASES.length);
+    for (int i = 0; i < COUNTERS.length; i++) {
+      pairs.add(new Object[] { COUNTERS[i], counters.get(i) });
+    }
+    for (int i = 0; i < PHASES.length; i++) {
+      Histogram histogram = histograms[i];
+      double[] percentiles = histogram.percentiles(50, 95, 99);
+      pairs.add(new Object[] { PHASES[i] + "Count", histogram.count() });
+      pairs.add(new Object[] { PHASES[i] + "P50", percentiles[0] });
+      pairs.add(new Object[] { PHASES[i] + "P95", percentiles[1] });
+      pairs.add(new Object[] { PHASES[i] + "P99", percentiles[2] });
+    }
+    return pairs;
+  }
+
+  /**
+   * Sets every counter and histogram back to zero.
+   */
+  public void reset() {
+    for (int i = 0; i < COUNTERS.length; i++) {
+      counters.set(i, 0);
+    }
+    for (Histogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.google.appinventor.components.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.json.JSONObject;
+
+/**
+ * Generates TextMixer sentences on the device, from n-gram models of the
+ * seuss, taylor and shakespeare corpora (see GenerationNgramModel), instead of
+ * on the TextMixer server: each token is drawn from one of the corpora, picked
+ * at random with the given percentages, and labelled with it. The result is a
+ * response in the server's format, so it is decoded and raises the same
+ * events.
+ * <br>
+ * The models' vocabularies are merged into one, with each token a single
+ * String, and each model's ids of the merged vocabulary precomputed, so that
+ * generating a token is a few array lookups and binary searches.
+ */
+public final class GenerationNgramMixer {
+  // the most tokens generated after the seed, if no sentence end comes up first
+  public static final int MAX_TOKENS = 40;
+
+  // the label of the seed's tokens
+  private static final String SEED_CORPUS = GenerationResponseParser.CORPORA[0];
+
+  // the models, in the order of the percentages, and their corpus labels
+  private final GenerationNgramModel[] models;
+  private final String[] labels;
+  // token id -> token, over all the models
+  private final String[] vocabulary;
+  private final Map<String, Integer> ids = new HashMap<String, Integer>();
+  // [model][token id] -> the model's id of the token, or -1, and back
+  private final int[][] modelIds;
+  private final int[][] mergedIds;
+  private final Random random;
+
+  /**
+   * @param seuss       the model of the seuss corpus
+   * @param taylor      the model of the taylor corpus
+   * @param shakespeare the model of the shakespeare corpus
+   */
+  public GenerationNgramMixer(GenerationNgramModel seuss, GenerationNgramModel taylor,
+      GenerationNgramModel shakespeare) {
+    this(seuss, taylor, shakespeare, new Random());
+  }
+
+  /**
+   * @param random where the choices come from (e.g., seeded, for repeatable
+   *               sentences)
+   */
+  public GenerationNgramMixer(GenerationNgramModel seuss, GenerationNgramModel taylor,
+      GenerationNgramModel shakespeare, Random random) {
+    this.random = random;
+    models = new GenerationNgramModel[] { seuss, taylor, shakespeare };
+    labels = new String[] { GenerationResponseParser.CORPORA[1], GenerationResponseParser.CORPORA[2],
+        GenerationResponseParser.CORPORA[3] };
+    mergedIds = new int[models.length][];
+    ArrayList<String> merged = new ArrayList<String>();
+    for (int m = 0; m < models.length; m++) {
+      mergedIds[m] = new int[models[m].vocabularySize()];
+      for (int i = 0; i < mergedIds[m].length; i++) {
+        String token = models[m].token(i);
+        Integer id = ids.get(token);
+        if (id == null) {
+          id = merged.size();
+          ids.put(token, id);
+          merged.add(token);
+        }
+        mergedIds[m][i] = id;
+      }
+    }
+    vocabulary = merged.toArray(new String[merged.size()]);
+    modelIds = new int[models.length][vocabulary.length];
+    for (int m = 0; m < models.length; m++) {
+      Arrays.fill(modelIds[m], -1);
+      for (int i = 0; i < mergedIds[m].length; i++) {
+        modelIds[m][mergedIds[m][i]] = i;
+      }
+    }
+  }
+
+  /**
+   * Generates a sentence that continues the seed, like the TextMixer server.
+   * If the percentages don't add up to one, they are scaled so they do, and
+   * the response has a warning, as the server's does.
+   *
+   * @return the response, e.g., {"tokens": ["hello", "world", "in", "the",
+   *         "&lt;eos&gt;"], "corpora": ["none", "none", "seuss", "taylor",
+   *         "taylor"]}
+   */
+  public String generate(String seed, float drSeussPercentage, float taylorSwiftPercentage,
+      float shakespearePercentage) {
+    double[] shares = { Math.max(0, drSeussPercentage), Math.max(0, taylorSwiftPercentage),
+        Math.max(0, shakespearePercentage) };
+    double total = shares[0] + shares[1] + shares[2];
+    boolean warning = Math.abs(drSeussPercentage + taylorSwiftPercentage + shakespearePercentage - 1) > 0.001;
+    if (total <= 0) {
+      shares = new double[] { 1, 1, 1 };
+      total = 3;
+    }
+
+    List<String> seedTokens = GenerationNgramModel.tokenize(seed);
+    seedTokens.removeAll(Collections.singleton(GenerationTokenStream.END_OF_SENTENCE));
+    int length = seedTokens.size() + MAX_TOKENS;
+    String[] tokens = new String[length];
+    String[] corpora = new String[length];
+    // the tokens so far, as each model's ids
+    int[][] history = new int[models.length][length];
+    int end = 0;
+    for (String token : seedTokens) {
+      Integer id = ids.get(token);
+      tokens[end] = id != null ? vocabulary[id] : token;
+      corpora[end] = SEED_CORPUS;
+      for (int m = 0; m < models.length; m++) {
+        history[m][end] = id != null ? modelIds[m][id] : -1;
+      }
+      end++;
+    }
+    while (end < length) {
+      double r = random.nextDouble() * total;
+      int m = 0;
+      while (m < models.length - 1 && r >= shares[m]) {
+        r -= shares[m];
+        m++;
+      }
+      int next = models[m].sample(history[m], end, random);
+      if (next < 0) {
+        // an empty model
+        break;
+      }
+      int id = mergedIds[m][next];
+      tokens[end] = vocabulary[id];
+      corpora[end] = labels[m];
+      for (int k = 0; k < models.length; k++) {
+        history[k][end] = modelIds[k][id];
+      }
+      end++;
+      if (vocabulary[id] == GenerationTokenStream.END_OF_SENTENCE) {
+        break;
+      }
+    }
+
+    StringBuilder response = new StringBuilder("{\"tokens\": [");
+    for (int i = 0; i < end; i++) {
+      response.append(i > 0 ? ", " : "").append(JSONObject.quote(tokens[i]));
+    }
+    response.append("], \"corpora\": [");
+    for (int i = 0; i < end; i++) {
+      response.append(i > 0 ? ", " : "").append(JSONObject.quote(corpora[i]));
+    }
+    response.append(']');
+    if (warning) {
+      response.append(", \"warning\": ").append(JSONObject.quote(GenerationResponseParser.PERCENTAGES_WARNING));
+    }
+    return response.append('}').toString();
+  }
+}
@@ -0,0 +1,401 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * An n-gram model of one corpus, for generating text on the device (see
+ * GenerationNgramMixer) instead of on the text generation servers. Models are
+ * built ahead of time from the corpus (build and write), and loaded from the
+ * model file in the app (open, read).
+ * <br>
+ * The model is a trie of the corpus' n-grams (up to order tokens long), stored
+ * as primitive int tables in one ByteBuffer, level by level: each node's token
+ * id, and the running total of its siblings' counts up to itself, so that a
+ * next token is found by binary search. A node's children are contiguous and
+ * sorted by token id. When the file can be memory-mapped, the tables are read
+ * straight from it: loading a model doesn't parse or copy them, only the
+ * vocabulary.
+ * <br>
+ * File format (big-endian): magic, version, order, vocabulary size, the
+ * vocabulary (each token's UTF-8 length as a short, then its bytes), padding
+ * to a multiple of 4 bytes, the node count, the inner (non-leaf) node count,
+ * the number of root children, then the tables: tokens[node count],
+ * weights[node count] and firstChild[inner count + 1].
+ */
+public final class GenerationNgramModel {
+  private static final int MAGIC = 0x4e47524d; // "NGRM"
+  private static final int VERSION = 1;
+
+  // the n-grams' maximum length
+  private final int order;
+  // token id -> token
+  private final String[] vocabulary;
+  // node -> its token id, and the sum of the counts of its earlier siblings and itself
+  private final IntBuffer tokens;
+  private final IntBuffer weights;
+  // the children of inner node i are firstChild[i] to firstChild[i + 1] - 1;
+  // those of the root are 0 to rootChildren - 1 (the unigrams)
+  private final IntBuffer firstChild;
+  private final int innerCount;
+  private final int rootChildren;
+
+  private GenerationNgramModel(int order, String[] vocabulary, IntBuffer tokens, IntBuffer weights,
+      IntBuffer firstChild, int innerCount, int rootChildren) {
+    this.order = order;
+    this.vocabulary = vocabulary;
+    this.tokens = tokens;
+    this.weights = weights;
+    this.firstChild = firstChild;
+    this.innerCount = innerCount;
+    this.rootChildren = rootChildren;
+  }
+
+  /**
+   * Loads a model file, memory-mapping its tables.
+   */
+  public static GenerationNgramModel open(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      // the mapping stays valid after the file is closed
+      return load(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Loads a model from a stream (e.g., an app asset, which can't be
+   * memory-mapped), reading it into memory.
+   *
+   * @param stream the model file (closed when done)
+   */
+  public static GenerationNgramModel read(InputStream stream) throws IOException {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = stream.read(buffer)) > 0) {
+        bytes.write(buffer, 0, n);
+      }
+      return load(ByteBuffer.wrap(bytes.toByteArray()));
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Loads a model from the contents of a model file. The tables are views of
+   * the buffer, not copies.
+   *
+   * @throws IOException if it isn't a model file
+   */
+  public static GenerationNgramModel load(ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not an n-gram model");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported n-gram model version " + version);
+      }
+      int order = buffer.getInt();
+      String[] vocabulary = new String[buffer.getInt()];
+      for (int i = 0; i < vocabulary.length; i++) {
+        byte[] token = new byte[buffer.getShort() & 0xffff];
+        buffer.get(token);
+        vocabulary[i] = new String(token, "UTF-8");
+        if (vocabulary[i].equals(GenerationTokenStream.END_OF_SENTENCE)) {
+          vocabulary[i] = GenerationTokenStream.END_OF_SENTENCE;
+        }
+      }
+      buffer.position((buffer.position() + 3) & ~3);
+      int nodeCount = buffer.getInt();
+      int innerCount = buffer.getInt();
+      int rootChildren = buffer.getInt();
+      IntBuffer tokens = table(buffer, nodeCount);
+      IntBuffer weights = table(buffer, nodeCount);
+      IntBuffer firstChild = table(buffer, innerCount + 1);
+      return new GenerationNgramModel(order, vocabulary, tokens, weights, firstChild, innerCount, rootChildren);
+    } catch (RuntimeException e) {
+      // e.g., BufferUnderflowException or IllegalArgumentException for a truncated file
+      throw new IOException("Corrupt n-gram model", e);
+    }
+  }
+
+  // the next length ints of buffer, as a view
+  private static IntBuffer table(ByteBuffer buffer, int length) {
+    ByteBuffer table = buffer.slice();
+    table.limit(length * 4);
+    buffer.position(buffer.position() + length * 4);
+    return table.asIntBuffer();
+  }
+
+  /**
+   * Builds the model of a corpus.
+   *
+   * @param text  the corpus (split into tokens by tokenize)
+   * @param order the n-grams' maximum length (at least 1)
+   */
+  public static GenerationNgramModel build(Reader text, int order) throws IOException {
+    StringBuilder corpus = new StringBuilder();
+    char[] buffer = new char[8192];
+    int n;
+    while ((n = text.read(buffer)) > 0) {
+      corpus.append(buffer, 0, n);
+    }
+    List<String> words = tokenize(corpus.toString());
+    List<String> vocabulary = new ArrayList<String>();
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    int[] sequence = new int[words.size()];
+    for (int i = 0; i < sequence.length; i++) {
+      Integer id = ids.get(words.get(i));
+      if (id == null) {
+        id = vocabulary.size();
+        ids.put(words.get(i), id);
+        vocabulary.add(words.get(i));
+      }
+      sequence[i] = id;
+    }
+
+    // count the n-grams in a pointer trie, then lay it out level by level
+    BuildNode root = new BuildNode();
+    for (int i = 0; i < sequence.length; i++) {
+      BuildNode node = root;
+      for (int k = i; k < Math.min(i + order, sequence.length); k++) {
+        node = node.child(sequence[k]);
+        node.count++;
+      }
+    }
+    List<BuildNode> level = new ArrayList<BuildNode>(root.children.values());
+    List<BuildNode> nodes = new ArrayList<BuildNode>();
+    List<Integer> firstChildren = new ArrayList<Integer>();
+    int innerCount = 0;
+    for (int depth = 1; depth <= order && !level.isEmpty(); depth++) {
+      int levelStart = nodes.size();
+      nodes.addAll(level);
+      List<BuildNode> next = new ArrayList<BuildNode>();
+      if (depth < order) {
+        innerCount += level.size();
+        for (BuildNode node : level) {
+          firstChildren.add(levelStart + level.size() + next.size());
+          next.addAll(node.children.values());
+        }
+      }
+      level = next;
+    }
+    firstChildren.add(nodes.size());
+
+    IntBuffer tokens = IntBuffer.allocate(nodes.size());
+    IntBuffer weights = IntBuffer.allocate(nodes.size());
+    writeGroup(root, tokens, weights);
+    for (BuildNode node : nodes) {
+      writeGroup(node, tokens, weights);
+    }
+    IntBuffer firstChild = IntBuffer.allocate(innerCount + 1);
+    for (int i = 0; i <= innerCount; i++) {
+      firstChild.put(i, firstChildren.get(i));
+    }
+    return new GenerationNgramModel(order, vocabulary.toArray(new String[vocabulary.size()]), tokens, weights,
+        firstChild, innerCount, root.children.size());
+  }
+
+  // appends a node's children (in token order) to the tables, with running
+  // totals of their counts
+  private static void writeGroup(BuildNode node, IntBuffer tokens, IntBuffer weights) {
+    int total = 0;
+    for (Map.Entry<Integer, BuildNode> child : node.children.entrySet()) {
+      total += child.getValue().count;
+      tokens.put(child.getKey());
+      weights.put(total);
+    }
+  }
+
+  // a node of the trie being built
+  private static final class BuildNode {
+    int count;
+    final TreeMap<Integer, BuildNode> children = new TreeMap<Integer, BuildNode>();
+
+    BuildNode child(int token) {
+      BuildNode child = children.get(token);
+      if (child == null) {
+        child = new BuildNode();
+        children.put(token, child);
+      }
+      return child;
+    }
+  }
+
+  /**
+   * Writes the model file.
+   */
+  public void write(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(order);
+    out.writeInt(vocabulary.length);
+    for (String token : vocabulary) {
+      byte[] bytes = token.getBytes("UTF-8");
+      out.writeShort(bytes.length);
+      out.write(bytes);
+    }
+    while (out.size() % 4 != 0) {
+      out.writeByte(0);
+    }
+    int nodeCount = tokens.limit();
+    out.writeInt(nodeCount);
+    out.writeInt(innerCount);
+    out.writeInt(rootChildren);
+    for (int i = 0; i < nodeCount; i++) {
+      out.writeInt(tokens.get(i));
+    }
+    for (int i = 0; i < nodeCount; i++) {
+      out.writeInt(weights.get(i));
+    }
+    for (int i = 0; i <= innerCount; i++) {
+      out.writeInt(firstChild.get(i));
+    }
+    out.flush();
+  }
+
+  /**
+   * Splits text into the tokens the models are made of: lower-case words
+   * (letters, digits and apostrophes), with &lt;eos&gt; after each sentence
+   * (at ".", "!" or "?").
+   */
+  public static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<String>();
+    StringBuilder word = new StringBuilder();
+    boolean inSentence = false;
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c) || c == '\'') {
+        word.append(Character.toLowerCase(c));
+        continue;
+      }
+      if (word.length() > 0) {
+        words.add(word.toString());
+        word.setLength(0);
+        inSentence = true;
+      }
+      if ((c == '.' || c == '!' || c == '?') && inSentence) {
+        words.add(GenerationTokenStream.END_OF_SENTENCE);
+        inSentence = false;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Returns the n-grams' maximum length.
+   */
+  public int order() {
+    return order;
+  }
+
+  public int vocabularySize() {
+    return vocabulary.length;
+  }
+
+  /**
+   * Returns the token with the given id.
+   */
+  public String token(int id) {
+    return vocabulary[id];
+  }
+
+  /**
+   * Picks the next token at random, as often as it follows the latest tokens
+   * in the corpus. If they never came up together, fewer of the latest tokens
+   * are used (down to none, i.e., how often each token comes up).
+   *
+   * @param history the tokens so far, as ids (-1 for a token not in the
+   *                vocabulary)
+   * @param end     the number of tokens in history
+   * @return the next token's id, or -1 if the model is empty
+   */
+  public int sample(int[] history, int end, Random random) {
+    for (int length = Math.min(order - 1, end); length >= 0; length--) {
+      int from;
+      int to;
+      if (length == 0) {
+        from = 0;
+        to = rootChildren;
+      } else {
+        int node = find(history, end - length, end);
+        if (node < 0 || node >= innerCount) {
+          continue;
+        }
+        from = firstChild.get(node);
+        to = firstChild.get(node + 1);
+      }
+      if (from < to) {
+        return tokens.get(pick(from, to, random.nextInt(weights.get(to - 1))));
+      }
+    }
+    return -1;
+  }
+
+  // the node of the n-gram history[from..to), or -1 if it isn't in the corpus
+  private int find(int[] history, int from, int to) {
+    int groupFrom = 0;
+    int groupTo = rootChildren;
+    int node = -1;
+    for (int i = from; i < to; i++) {
+      if (history[i] < 0 || (node >= 0 && node >= innerCount)) {
+        return -1;
+      }
+      if (node >= 0) {
+        groupFrom = firstChild.get(node);
+        groupTo = firstChild.get(node + 1);
+      }
+      node = search(groupFrom, groupTo, history[i]);
+      if (node < 0) {
+        return -1;
+      }
+    }
+    return node;
+  }
+
+  // the node in [from, to) with the token, or -1
+  private int search(int from, int to, int token) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midToken = tokens.get(mid);
+      if (midToken < token) {
+        low = mid + 1;
+      } else if (midToken > token) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  // the node in [from, to) whose share of the running total holds r
+  private int pick(int from, int to, int r) {
+    int low = from;
+    int high = to - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (weights.get(mid) > r) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,181 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a few responses generated ahead of time for the parameters (seed and
+ * settings) of an extension's latest request, so that the next request with
+ * the same parameters is answered at once, while another response is fetched
+ * to take its place.
+ * <br>
+ * The pool follows one set of parameters at a time, identified by a key (the
+ * cache key): a request with different parameters throws away the responses
+ * kept for the old ones and cancels their requests in flight. Each response is
+ * handed out once, so every request still gets a newly generated sentence
+ * (unlike the cache, which repeats the same response).
+ * <br>
+ * Responses are fetched on GenerationExecutor at batch priority, so they never
+ * go before a request someone is waiting for, and only when the Source allows
+ * it (e.g., on an unmetered network, or when no request is waiting for a
+ * thread).
+ */
+public final class GenerationPrefetchPool {
+
+  /**
+   * Makes the requests for the pool's current parameters, and says when they
+   * may be made.
+   */
+  public interface Source {
+    /**
+     * Makes one request (on a worker thread) and returns its response, or null
+     * if it isn't a usable one.
+     */
+    String fetch(GenerationHttpClient.Call call) throws IOException;
+
+    /**
+     * Returns true if a request may be made now.
+     */
+    boolean mayFetch();
+  }
+
+  private int capacity; // guarded by this
+  private String key; // guarded by this
+  private Source source; // guarded by this
+  private final ArrayDeque<String> ready = new ArrayDeque<String>(); // guarded by this
+  // requests in flight for the current key
+  private int fetching; // guarded by this
+  // the call the current key's requests are made from (each has its own child
+  // call, cancelled along with it)
+  private GenerationHttpClient.Call call = new GenerationHttpClient.Call(); // guarded by this
+
+  /**
+   * @param capacity the number of responses to keep ready
+   */
+  public GenerationPrefetchPool(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns a response kept for the given key, or null if none is ready yet.
+   * If the key isn't the pool's current one, the pool switches to it first:
+   * the old responses are thrown away, and requests are made with source from
+   * now on. Call fill afterwards (e.g., once the request that missed has been
+   * started, so it goes first) to replace the response.
+   */
+  public synchronized String take(String key, Source source) {
+    if (!key.equals(this.key)) {
+      discard();
+      this.key = key;
+      this.source = source;
+    }
+    return ready.poll();
+  }
+
+  /**
+   * Returns the number of responses ready.
+   */
+  public synchronized int size() {
+    return ready.size();
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Sets the number of responses to keep ready. Extra ones are thrown away.
+   */
+  public void setCapacity(int capacity) {
+    synchronized (this) {
+      this.capacity = Math.max(0, capacity);
+      while (ready.size() > this.capacity) {
+        ready.poll();
+      }
+    }
+    fill();
+  }
+
+  /**
+   * Throws away every response, cancels the requests in flight, and forgets
+   * the current parameters.
+   */
+  public synchronized void clear() {
+    discard();
+    key = null;
+    source = null;
+  }
+
+  // throws away the current key's responses and requests
+  private void discard() {
+    ready.clear();
+    fetching = 0;
+    call.cancel();
+    call = new GenerationHttpClient.Call();
+  }
+
+  /**
+   * Starts requests until enough responses are ready or on their way, if the
+   * source allows it and there is room in GenerationExecutor's queue (so a
+   * prefetch never pushes out another request).
+   */
+  public void fill() {
+    GenerationExecutor executor = GenerationExecutor.getInstance();
+    while (true) {
+      final GenerationHttpClient.Call fillCall;
+      final Source fillSource;
+      synchronized (this) {
+        if (source == null || ready.size() + fetching >= capacity || executor.getQueued() >= executor.getMaxQueued()
+            || !source.mayFetch()) {
+          return;
+        }
+        fetching++;
+        fillCall = call;
+        fillSource = source;
+      }
+      boolean submitted = executor.submit(new GenerationExecutor.Task(GenerationExecutor.BATCH) {
+        @Override
+        public void run() {
+          String response = null;
+          // its own call, so a fetch that times out doesn't end the others
+          GenerationHttpClient.Call fetchCall = fillCall.newChild();
+          try {
+            response = fillSource.fetch(fetchCall);
+          } catch (Exception e) {
+            // the next take tries again
+          } finally {
+            fetchCall.end();
+          }
+          boolean again;
+          synchronized (GenerationPrefetchPool.this) {
+            if (fillCall != call) {
+              // the parameters have changed
+              return;
+            }
+            fetching--;
+            if (response != null && ready.size() < capacity) {
+              ready.add(response);
+            }
+            // keep going while requests succeed, but don't retry right away
+            again = response != null;
+          }
+          if (again) {
+            fill();
+          }
+        }
+
+        @Override
+        public void onDropped(GenerationExecutor.SaturatedException e) {
+          synchronized (GenerationPrefetchPool.this) {
+            if (fillCall == call) {
+              fetching--;
+            }
+          }
+        }
+      });
+      if (!submitted) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.google.appinventor.components.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges identical text generation requests that are in flight at the same
+ * time (e.g., when a button is tapped several times) into one server request,
+ * and hands its result to every caller. Shared by the SentenceGenerator and
+ * TextMixer extensions; requests are identified by their cache key (see
+ * GenerationResponseCache.key).
+ * <br>
+ * A caller that no longer wants the result leaves the request; when nobody is
+ * left waiting, the server request is cancelled.
+ */
+public final class GenerationRequestCoalescer {
+
+  /**
+   * Receives the result of a request. Called on the thread that made the
+   * server request.
+   */
+  public interface Callback {
+    /**
+     * @param response     the server's response (null if it was only decoded,
+     *                     and decoded isn't null)
+     * @param decoded      the response as already decoded by the request
+     *                     (e.g., from the stream), or null if it wasn't
+     * @param tokensRaised true if GotToken was already raised for this
+     *                     callback's component as the tokens arrived
+     */
+    void onResponse(String response, Object decoded, boolean tokensRaised);
+
+    void onError(Exception e);
+  }
+
+  /**
+   * A server request in flight, and the callbacks waiting for it.
+   */
+  public static final class Flight {
+    public final String key;
+    // cancelled when every callback has left
+    public final GenerationHttpClient.Call call = new GenerationHttpClient.Call();
+    private final List<Callback> callbacks = new ArrayList<Callback>(1);
+    // the callback of the caller that made the request
+    private Callback leader;
+
+    private Flight(String key) {
+      this.key = key;
+    }
+  }
+
+  private static final GenerationRequestCoalescer INSTANCE = new GenerationRequestCoalescer();
+
+  // key -> the request in flight
+  private final Map<String, Flight> inFlight = new HashMap<String, Flight>();
+
+  private GenerationRequestCoalescer() {
+  }
+
+  /**
+   * Returns the coalescer shared by all the extensions.
+   */
+  public static GenerationRequestCoalescer getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Adds a callback for the request with the given key.
+   *
+   * @return the new flight if no such request is in flight, in which case the
+   *         caller must make it (with the flight's call) and then call complete
+   *         or fail; null if the callback will get the result of the request
+   *         already in flight
+   */
+  public synchronized Flight join(String key, Callback callback) {
+    Flight flight = inFlight.get(key);
+    if (flight != null) {
+      flight.callbacks.add(callback);
+      return null;
+    }
+    flight = new Flight(key);
+    flight.leader = callback;
+    flight.callbacks.add(callback);
+    inFlight.put(key, flight);
+    return flight;
+  }
+
+  /**
+   * Removes a callback from the request with the given key, so it won't be
+   * called. If no callbacks are left, the request is cancelled, and a request
+   * with the same key made after this is a new request.
+   *
+   * @return true if the callback was waiting for the request
+   */
+  public boolean leave(String key, Callback callback) {
+    Flight cancelled = null;
+    synchronized (this) {
+      Flight flight = inFlight.get(key);
+      if (flight == null || !flight.callbacks.remove(callback)) {
+        return false;
+      }
+      if (flight.callbacks.isEmpty()) {
+        inFlight.remove(key);
+        cancelled = flight;
+      }
+    }
+    if (cancelled != null) {
+      // closes its connection, outside the lock
+      cancelled.call.cancel();
+    }
+    return true;
+  }
+
+  /**
+   * Hands the response to every callback still waiting for the request.
+   * Requests with the same key made after this are new requests.
+   *
+   * @param tokensRaised true if GotToken was raised for the callback that
+   *                     made the request as the tokens arrived
+   */
+  public void complete(Flight flight, String response, boolean tokensRaised) {
+    complete(flight, response, null, tokensRaised);
+  }
+
+  /**
+   * Hands the response, and its decoded form, to every callback still waiting
+   * for the request, so they don't decode it again.
+   */
+  public void complete(Flight flight, String response, Object decoded, boolean tokensRaised) {
+    List<Callback> callbacks = remove(flight);
+    for (Callback callback : callbacks) {
+      callback.onResponse(response, decoded, tokensRaised && callback == flight.leader);
+    }
+  }
+
+  /**
+   * Hands the error to every callback still waiting for the request.
+   */
+  public void fail(Flight flight, Exception e) {
+    List<Callback> callbacks = remove(flight);
+    for (Callback callback : callbacks) {
+      callback.onError(e);
+    }
+  }
+
+  private synchronized List<Callback> remove(Flight flight) {
+    // the key may belong to a newer flight if this one was cancelled
+    if (inFlight.get(flight.key) == flight) {
+      inFlight.remove(flight.key);
+    }
+    List<Callback> callbacks = new ArrayList<Callback>(flight.callbacks);
+    flight.callbacks.clear();
+    return callbacks;
+  }
+}
@@ -0,0 +1,80 @@
+package com.google.appinventor.components.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of an extension's requests that haven't finished yet, by id, so
+ * that they can be cancelled. A request is added when it is made and removed
+ * when it finishes; whoever removes it decides what happens: the request
+ * itself (which then raises its events) or a cancel (which stops it, so it
+ * raises none).
+ */
+public final class GenerationRequestRegistry {
+  // id -> stops the request
+  private final Map<Long, Runnable> pending = new HashMap<Long, Runnable>();
+
+  /**
+   * Adds a request.
+   *
+   * @param id        the request's id
+   * @param canceller stops the request; run at most once, on the thread that
+   *                  cancels it
+   */
+  public synchronized void add(long id, Runnable canceller) {
+    pending.put(id, canceller);
+  }
+
+  /**
+   * Returns true if the request hasn't finished or been cancelled.
+   */
+  public synchronized boolean contains(long id) {
+    return pending.containsKey(id);
+  }
+
+  /**
+   * Removes a request that has finished.
+   *
+   * @return true if the request was still pending, i.e., it should raise its
+   *         events; false if it was cancelled
+   */
+  public synchronized boolean remove(long id) {
+    return pending.remove(id) != null;
+  }
+
+  /**
+   * Cancels a request, if it is still pending.
+   *
+   * @return true if the request was cancelled
+   */
+  public boolean cancel(long id) {
+    Runnable canceller;
+    synchronized (this) {
+      canceller = pending.remove(id);
+    }
+    if (canceller == null) {
+      return false;
+    }
+    canceller.run();
+    return true;
+  }
+
+  /**
+   * Cancels every pending request.
+   *
+   * @return the number of requests cancelled
+   */
+  public int cancelAll() {
+    List<Runnable> cancellers;
+    synchronized (this) {
+      cancellers = new ArrayList<Runnable>(pending.values());
+      pending.clear();
+    }
+    for (Runnable canceller : cancellers) {
+      canceller.run();
+    }
+    return cancellers.size();
+  }
+}
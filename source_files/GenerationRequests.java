@@ -0,0 +1,972 @@
+package com.google.appinventor.components.runtime;
+
+import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.YailList;
+import java.io.*;
+import java.net.MalformedURLException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.*;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * The requests of a SentenceGenerator or TextMixer extension: everything
+ * about them that doesn't depend on which server API they call. That is the
+ * request policy and cancelling, the response cache, merging identical
+ * requests in flight, streaming, prefetching, batches, timeouts, retries and
+ * load balancing, and the metrics. The extension supplies the rest through
+ * an Extension (how its responses are read and decoded, and its events) and,
+ * for each request, Parameters (its url, batch item and cache key).
+ * <br>
+ * Server requests run on GenerationExecutor's threads, and responses are
+ * decoded there too, so the UI thread only raises the events.
+ *
+ * @param <T> a response decoded for the extension's events
+ */
+public final class GenerationRequests<T> {
+
+  /**
+   * The extension-specific parts of the requests.
+   *
+   * @param <T> a response decoded for the extension's events
+   */
+  public interface Extension<T> {
+    // gets the response to url (not streamed): the response string, or the
+    // response as decoded while it arrived
+    Object get(String url, GenerationHttpClient.Call call, GenerationHttpClient.Options options)
+        throws IOException;
+
+    // the response string of a streamed request
+    String streamedResponse(GenerationTokenStream stream);
+
+    // the response (a string, or as returned by get) as it is cached, or null
+    // if it can't be decoded (and so isn't cached)
+    String cacheable(Object response);
+
+    // decodes a response (a string, or as returned by get) on a worker thread;
+    // withTokens is true if raiseResponse must raise a token event for each
+    // token, because they weren't raised as they arrived
+    T decode(Object response, boolean withTokens);
+
+    // decodes the response for one seed of a batch, on a worker thread
+    T decodeBatchResult(String response);
+
+    // the rest are called on the UI thread
+
+    void raiseResponse(T decoded, boolean withTokens);
+
+    // a token of a streamed response, as it arrives
+    void raiseToken(GenerationTokenStream.Token token);
+
+    // index starts at 1
+    void raiseBatchResult(int index, T decoded);
+
+    void raiseBatchError(int index, String message);
+
+    void raiseBatchComplete();
+
+    void raiseError(String message);
+
+    void raiseRejected(long id, String message);
+
+    void raiseMetrics(YailList metrics);
+  }
+
+  /**
+   * The parameters of a request (or of each request of a batch), apart from
+   * its seed.
+   */
+  public interface Parameters {
+    // the url of the request for seed on server (a base URL ending in "/")
+    String url(String server, String seed) throws IOException;
+
+    // the batch request item for seed
+    JSONObject batchItem(String seed) throws JSONException;
+
+    // the request's cache key (see GenerationRequests.cacheKey)
+    String cacheKey(String seed);
+  }
+
+  /**
+   * Generates responses on the device instead of asking a server (e.g.,
+   * TextMixer's Local engine).
+   */
+  public interface Generator {
+    /**
+     * @return the response, in the server's format
+     * @throws IOException if it can't (e.g., its models can't be loaded)
+     */
+    String generate(String seed) throws IOException;
+  }
+
+  // request policies:
+  public static final String POLICY_PARALLEL = "Parallel";
+  public static final String POLICY_LATEST_WINS = "LatestWins";
+  public static final String POLICY_QUEUE = "Queue";
+
+  // defaults:
+  public static final String DEFAULT_LOAD_BALANCING = GenerationEndpoints.ROUND_ROBIN;
+  public static final String DEFAULT_REQUEST_POLICY = POLICY_PARALLEL;
+  public static final boolean DEFAULT_STREAMING = false;
+  public static final boolean DEFAULT_PREFETCH = false;
+  public static final int DEFAULT_PREFETCH_SIZE = 3;
+  public static final int DEFAULT_BATCH_SIZE = 20;
+  public static final int DEFAULT_BATCH_CONCURRENCY = 2;
+  public static final boolean DEFAULT_CACHE_ENABLED = false;
+  public static final int DEFAULT_CONNECT_TIMEOUT = 15000; // 15 s
+  public static final int DEFAULT_READ_TIMEOUT = 120000; // 2 min
+  public static final int DEFAULT_TOTAL_TIMEOUT = 300000; // 5 min
+  public static final int DEFAULT_MAX_RETRIES = 2;
+  public static final boolean DEFAULT_ADAPTIVE_TIMEOUTS = true;
+  public static final int DEFAULT_METRICS_INTERVAL = 0;
+
+  private final Activity activity; // for running on ui thread
+  private final Handler handler = new Handler(); // for the metrics timer
+  private final String logTag;
+  private final Extension<T> extension;
+
+  // the servers requests are sent to, and the ones used if they are set to
+  // something that isn't a list of URLs
+  private final GenerationEndpoints endpoints;
+  private final String defaultServerURLs;
+
+  // whether responses are cached (the cache itself is shared by the extensions)
+  private volatile boolean cacheEnabled = DEFAULT_CACHE_ENABLED;
+
+  // whether responses are streamed, raising a token event for each token
+  private volatile boolean streaming = DEFAULT_STREAMING;
+
+  // whether responses for the latest request's parameters are generated ahead
+  // of time, and the ones that are
+  private volatile boolean prefetch = DEFAULT_PREFETCH;
+  private final GenerationPrefetchPool prefetchPool = new GenerationPrefetchPool(DEFAULT_PREFETCH_SIZE);
+
+  // what happens to a request when another is made before it finishes
+  private volatile String requestPolicy = DEFAULT_REQUEST_POLICY;
+  // id of the latest request (or batch)
+  private final AtomicLong requestNumber = new AtomicLong();
+  // requests and batches that haven't finished, so they can be cancelled
+  private final GenerationRequestRegistry pendingRequests = new GenerationRequestRegistry();
+  private final GenerationRequestRegistry pendingBatches = new GenerationRequestRegistry();
+  // requests waiting for the one before to finish (for the Queue policy)
+  private final ArrayDeque<Runnable> queuedRequests = new ArrayDeque<Runnable>();
+  private boolean requestRunning; // guarded by queuedRequests
+
+  // seeds per batch request, and batch requests at once
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+
+  // timeouts (in milliseconds) and retries of each server request
+  private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+  private volatile int totalTimeout = DEFAULT_TOTAL_TIMEOUT;
+  private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+  private volatile boolean adaptiveTimeouts = DEFAULT_ADAPTIVE_TIMEOUTS;
+
+  // the requests' phase timings and outcomes, and how often (milliseconds)
+  // the metrics event is raised (0 for never)
+  private final GenerationMetrics metrics = new GenerationMetrics();
+  private int metricsInterval = DEFAULT_METRICS_INTERVAL;
+  private final Runnable metricsTimer = new Runnable() {
+    @Override
+    public void run() {
+      extension.raiseMetrics(metricsList());
+      handler.postDelayed(this, metricsInterval);
+    }
+  };
+
+  /**
+   * @param activity          the extension's activity
+   * @param logTag            the extension's log tag (also the first part of its
+   *                          cache keys)
+   * @param defaultServerURLs the extension's servers, separated by commas
+   * @param extension         the extension-specific parts
+   */
+  public GenerationRequests(Activity activity, String logTag, String defaultServerURLs, Extension<T> extension) {
+    this.activity = activity;
+    this.logTag = logTag;
+    this.defaultServerURLs = defaultServerURLs;
+    this.extension = extension;
+    endpoints = new GenerationEndpoints(defaultServerURLs);
+  }
+
+  /**
+   * Builds a cache key (see GenerationResponseCache.key) from the extension,
+   * its servers and the request's parameters, which also identifies
+   * identical requests in flight.
+   */
+  public String cacheKey(Object... params) {
+    Object[] all = new Object[params.length + 1];
+    all[0] = endpoints.getKey();
+    System.arraycopy(params, 0, all, 1, params.length);
+    return GenerationResponseCache.key(logTag, all);
+  }
+
+  /**
+   * Makes a request to the servers, for seed. The response comes from the
+   * cache, the prefetched responses or an identical request in flight if it
+   * can; otherwise the request is sent when the request policy lets it.
+   */
+  public void start(final String seed, final Parameters parameters) {
+    final long start = System.nanoTime();
+    final long number = newRequest();
+    final String cacheKey = parameters.cacheKey(seed);
+    if (cacheEnabled) {
+      String cached = GenerationResponseCache.getInstance().getFromMemory(cacheKey);
+      if (cached != null) {
+        metrics.count(GenerationMetrics.CACHE_HITS);
+        postResponse(cached, start);
+        return;
+      }
+    }
+    if (prefetch) {
+      String prefetched = prefetchPool.take(cacheKey, prefetchSource(seed, parameters));
+      if (prefetched != null) {
+        metrics.count(GenerationMetrics.PREFETCH_HITS);
+        postResponse(prefetched, start);
+        prefetchPool.fill();
+        return;
+      }
+    }
+    final GenerationRequestCoalescer.Callback callback = requestCallback(number, start);
+    pendingRequests.add(number, new Runnable() {
+      @Override
+      public void run() {
+        // stops the server request, unless an identical request is waiting for it
+        if (GenerationRequestCoalescer.getInstance().leave(cacheKey, callback)) {
+          requestDone();
+        }
+      }
+    });
+    submitRequest(new Runnable() {
+      @Override
+      public void run() {
+        startRequest(cacheKey, callback, seed, parameters, number);
+      }
+    });
+    if (prefetch) {
+      // after the request, so it goes first
+      prefetchPool.fill();
+    }
+  }
+
+  /**
+   * Makes a request that generator answers on the device. It takes
+   * milliseconds, so it isn't cached, merged or queued.
+   */
+  public void startLocal(final String seed, final Generator generator) {
+    final long start = System.nanoTime();
+    final long number = newRequest();
+    pendingRequests.add(number, new Runnable() {
+      @Override
+      public void run() {
+        // nothing to stop: the response just raises no events
+      }
+    });
+    final long queued = System.nanoTime();
+    GenerationExecutor.getInstance().submit(new GenerationExecutor.Task(GenerationExecutor.INTERACTIVE) {
+      @Override
+      public void run() {
+        long phase = metrics.record(GenerationMetrics.QUEUE, queued);
+        final String response;
+        try {
+          response = generator.generate(seed);
+        } catch (final IOException e) {
+          if (pendingRequests.remove(number)) {
+            metrics.countFailure(e);
+            Log.e(logTag, "ERROR_UNABLE_TO_LOAD_MODELS", e);
+            raiseError(e);
+          }
+          return;
+        }
+        // generating on the device takes the place of the server
+        metrics.record(GenerationMetrics.SERVER, phase);
+        if (pendingRequests.remove(number)) {
+          dispatchResponse(response, false, start);
+        }
+      }
+
+      @Override
+      public void onDropped(GenerationExecutor.SaturatedException e) {
+        if (pendingRequests.remove(number)) {
+          metrics.countFailure(e);
+          requestRejected(number, e);
+        }
+      }
+    });
+  }
+
+  // gives a request its id, and cancels the older ones with the LatestWins policy
+  private long newRequest() {
+    long number = requestNumber.incrementAndGet();
+    metrics.count(GenerationMetrics.REQUESTS);
+    if (requestPolicy.equals(POLICY_LATEST_WINS)) {
+      // the older requests' results are no longer wanted
+      pendingRequests.cancelAll();
+    }
+    return number;
+  }
+
+  // hands the result of request number (made at start, by System.nanoTime) to
+  // the extension, unless it was cancelled
+  private GenerationRequestCoalescer.Callback requestCallback(final long number, final long start) {
+    return new GenerationRequestCoalescer.Callback() {
+      @Override
+      public void onResponse(String response, Object decoded, boolean tokensRaised) {
+        requestDone();
+        if (!pendingRequests.remove(number)) {
+          return;
+        }
+        dispatchResponse(decoded != null ? decoded : response, tokensRaised, start);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        requestDone();
+        if (!pendingRequests.remove(number)) {
+          return;
+        }
+        metrics.countFailure(e);
+        if (e instanceof GenerationExecutor.SaturatedException) {
+          requestRejected(number, e);
+          return;
+        }
+        Log.e(logTag, "ERROR_UNABLE_TO_GET", e);
+        e.printStackTrace();
+        raiseError(e);
+      }
+    };
+  }
+
+  // raises the extension's error event on the UI thread
+  private void raiseError(final Exception e) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        extension.raiseError(e.toString());
+      }
+    });
+  }
+
+  // raises the extension's rejected event for request (or batch) number on the UI thread
+  private void requestRejected(final long number, final Exception e) {
+    Log.w(logTag, "Request " + number + ": " + e.getMessage());
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        extension.raiseRejected(number, e.getMessage());
+      }
+    });
+  }
+
+  // joins an identical request that is in flight, or makes a new one
+  private void startRequest(final String cacheKey, GenerationRequestCoalescer.Callback callback,
+      final String seed, final Parameters parameters, final long number) {
+    if (!pendingRequests.contains(number)) {
+      // cancelled while it was queued
+      requestDone();
+      return;
+    }
+    GenerationRequestCoalescer requests = GenerationRequestCoalescer.getInstance();
+    final GenerationRequestCoalescer.Flight flight = requests.join(cacheKey, callback);
+    if (!pendingRequests.contains(number) && requests.leave(cacheKey, callback)) {
+      // cancelled while joining
+      requestDone();
+    }
+    if (flight == null || flight.call.isCancelled()) {
+      // the identical request in flight will call back (or no one is waiting)
+      return;
+    }
+    final GenerationHttpClient.Options options = requestOptions();
+    final long queued = System.nanoTime();
+    // From Web.java:
+    GenerationExecutor.getInstance().submit(new GenerationExecutor.Task(GenerationExecutor.INTERACTIVE) {
+      @Override
+      public void run() {
+        metrics.record(GenerationMetrics.QUEUE, queued);
+        GenerationRequestCoalescer requests = GenerationRequestCoalescer.getInstance();
+        try {
+          Object response = cacheEnabled ? GenerationResponseCache.getInstance().get(cacheKey) : null;
+          boolean tokensRaised = false;
+          if (response != null) {
+            metrics.count(GenerationMetrics.CACHE_HITS);
+          } else {
+            String url = parameters.url(endpoints.next(), seed);
+            if (streaming) {
+              GenerationTokenStream stream = streamResponse(url + "&stream=true", flight.call, options, number);
+              response = extension.streamedResponse(stream);
+              tokensRaised = stream.tokenCount() > 0;
+            } else {
+              // over a kept-alive connection, if there is one
+              response = extension.get(url, flight.call, options);
+            }
+            if (cacheEnabled) {
+              String cacheable = extension.cacheable(response);
+              if (cacheable != null) {
+                GenerationResponseCache.getInstance().put(cacheKey, cacheable);
+              }
+            }
+          }
+          if (response instanceof String) {
+            requests.complete(flight, (String) response, tokensRaised);
+          } else {
+            requests.complete(flight, null, response, tokensRaised);
+          }
+        } catch (Exception e) {
+          requests.fail(flight, e);
+        }
+      }
+
+      @Override
+      public void onDropped(GenerationExecutor.SaturatedException e) {
+        GenerationRequestCoalescer.getInstance().fail(flight, e);
+      }
+    });
+  }
+
+  // makes the prefetch pool's requests for seed
+  private GenerationPrefetchPool.Source prefetchSource(final String seed, final Parameters parameters) {
+    final GenerationHttpClient.Options options = requestOptions();
+    return new GenerationPrefetchPool.Source() {
+      @Override
+      public String fetch(GenerationHttpClient.Call call) throws IOException {
+        return extension.cacheable(extension.get(parameters.url(endpoints.next(), seed), call, options));
+      }
+
+      @Override
+      public boolean mayFetch() {
+        return unmeteredNetwork() || GenerationExecutor.getInstance().getActive() == 0;
+      }
+    };
+  }
+
+  // true if the device is on an unmetered network (e.g., wifi)
+  private boolean unmeteredNetwork() {
+    ConnectivityManager connectivity = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
+    return connectivity != null && !connectivity.isActiveNetworkMetered();
+  }
+
+  // reads a streamed response, raising the token event as each token arrives
+  // (unless the request was cancelled)
+  private GenerationTokenStream streamResponse(String url, GenerationHttpClient.Call call,
+      GenerationHttpClient.Options options, final long number) throws IOException {
+    final GenerationTokenStream stream = new GenerationTokenStream();
+    GenerationHttpClient.getInstance().getLines(url, call, options, new GenerationHttpClient.LineHandler() {
+      @Override
+      public void onLine(String line) {
+        final GenerationTokenStream.Token token = stream.accept(line);
+        if (token != null && !token.token.equals(GenerationTokenStream.END_OF_SENTENCE)) {
+          activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+              if (pendingRequests.contains(number)) {
+                extension.raiseToken(token);
+              }
+            }
+          });
+        }
+      }
+    });
+    return stream;
+  }
+
+  // runs the request now or, with the Queue policy, after the requests before it
+  private void submitRequest(Runnable request) {
+    if (requestPolicy.equals(POLICY_QUEUE)) {
+      synchronized (queuedRequests) {
+        if (requestRunning) {
+          queuedRequests.add(request);
+          return;
+        }
+        requestRunning = true;
+      }
+    }
+    request.run();
+  }
+
+  // called when a request has finished; starts the next queued one (if any)
+  private void requestDone() {
+    Runnable next;
+    synchronized (queuedRequests) {
+      next = queuedRequests.poll();
+      if (next == null) {
+        requestRunning = false;
+        return;
+      }
+    }
+    next.run();
+  }
+
+  // the timeouts and retries of a server request, from the properties
+  private GenerationHttpClient.Options requestOptions() {
+    return new GenerationHttpClient.Options(connectTimeout, readTimeout, totalTimeout, maxRetries, adaptiveTimeouts,
+        metrics);
+  }
+
+  // decodes a response that is already here (from the cache or the prefetch
+  // pool) for a request made at start, off the UI thread, then raises its events.
+  // It doesn't go through GenerationExecutor, so it never waits behind (or is
+  // turned away for) server requests.
+  private void postResponse(final String response, final long start) {
+    AsynchUtil.runAsynchronously(new Runnable() {
+      @Override
+      public void run() {
+        dispatchResponse(response, false, start);
+      }
+    });
+  }
+
+  // decodes the response (on the calling worker thread) and raises its events on
+  // the UI thread (after a token event for each token, in streaming mode, if they
+  // weren't raised as the tokens arrived), so the UI thread only dispatches them.
+  // start is when the request was made (System.nanoTime).
+  private void dispatchResponse(Object response, boolean tokensRaised, final long start) {
+    final boolean withTokens = streaming && !tokensRaised;
+    long decodeStart = System.nanoTime();
+    final T decoded = extension.decode(response, withTokens);
+    metrics.record(GenerationMetrics.DECODE, decodeStart);
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        long uiStart = System.nanoTime();
+        extension.raiseResponse(decoded, withTokens);
+        metrics.record(GenerationMetrics.UI, uiStart);
+        metrics.record(GenerationMetrics.TOTAL, start);
+        metrics.count(GenerationMetrics.SUCCESSES);
+      }
+    });
+  }
+
+  /**
+   * Generates a response for each seed, sending them to the servers in
+   * batches (BatchSize seeds per request, BatchConcurrency requests at once).
+   * The extension's batch events are raised for each seed as its batch
+   * completes, then once at the end.
+   */
+  public void startBatch(String[] seeds, final Parameters parameters) {
+    final long number = requestNumber.incrementAndGet();
+    metrics.add(GenerationMetrics.REQUESTS, seeds.length);
+    final GenerationHttpClient.Call call = new GenerationHttpClient.Call();
+    pendingBatches.add(number, new Runnable() {
+      @Override
+      public void run() {
+        call.cancel();
+      }
+    });
+    final GenerationBatch batch = new GenerationBatch(endpoints.next() + "batch", seeds, batchSize,
+        batchConcurrency, cacheEnabled, call, requestOptions(), new GenerationBatch.Handler() {
+          @Override
+          public JSONObject batchItem(String seed) throws JSONException {
+            return parameters.batchItem(seed);
+          }
+
+          @Override
+          public String url(String seed) throws IOException {
+            return parameters.url(endpoints.next(), seed);
+          }
+
+          @Override
+          public String cacheKey(String seed) {
+            return parameters.cacheKey(seed);
+          }
+
+          @Override
+          public boolean isValidResponse(String response) {
+            return extension.cacheable(response) != null;
+          }
+
+          @Override
+          public void onResult(int index, String response) {
+            batchResult(number, index, response);
+          }
+
+          @Override
+          public void onError(int index, Exception e) {
+            if (call.isCancelled()) {
+              return;
+            }
+            metrics.countFailure(e);
+            Log.e(logTag, "ERROR_UNABLE_TO_GET", e);
+            batchError(number, index, e);
+          }
+
+          @Override
+          public void onComplete() {
+            batchComplete(number);
+          }
+        });
+    for (int i = 0; i < batch.workers(); i++) {
+      GenerationExecutor.getInstance().submit(new GenerationExecutor.Task(GenerationExecutor.BATCH) {
+        @Override
+        public void run() {
+          batch.runWorker();
+        }
+
+        @Override
+        public void onDropped(GenerationExecutor.SaturatedException e) {
+          // the rest of the batch is rejected too
+          if (pendingBatches.cancel(number)) {
+            metrics.countFailure(e);
+            requestRejected(number, e);
+          }
+          batch.skipWorker();
+        }
+      });
+    }
+  }
+
+  /**
+   * Generates a response for each seed with generator, on the device, one
+   * after the other, raising the same events as startBatch.
+   */
+  public void startLocalBatch(final String[] seeds, final Generator generator) {
+    final long number = requestNumber.incrementAndGet();
+    metrics.add(GenerationMetrics.REQUESTS, seeds.length);
+    pendingBatches.add(number, new Runnable() {
+      @Override
+      public void run() {
+        // the worker stops at the next seed
+      }
+    });
+    GenerationExecutor.getInstance().submit(new GenerationExecutor.Task(GenerationExecutor.BATCH) {
+      @Override
+      public void run() {
+        for (int i = 0; i < seeds.length && pendingBatches.contains(number); i++) {
+          String response;
+          try {
+            response = generator.generate(seeds[i]);
+          } catch (IOException e) {
+            metrics.countFailure(e);
+            Log.e(logTag, "ERROR_UNABLE_TO_LOAD_MODELS", e);
+            batchError(number, i + 1, e);
+            continue;
+          }
+          batchResult(number, i + 1, response);
+        }
+        batchComplete(number);
+      }
+
+      @Override
+      public void onDropped(GenerationExecutor.SaturatedException e) {
+        if (pendingBatches.remove(number)) {
+          metrics.countFailure(e);
+          requestRejected(number, e);
+        }
+      }
+    });
+  }
+
+  // decodes the response for seed index of batch number (on the calling worker
+  // thread), and raises its event on the UI thread, unless the batch was cancelled
+  private void batchResult(final long number, final int index, String response) {
+    final T decoded = extension.decodeBatchResult(response);
+    metrics.count(GenerationMetrics.SUCCESSES);
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (pendingBatches.contains(number)) {
+          extension.raiseBatchResult(index, decoded);
+        }
+      }
+    });
+  }
+
+  private void batchError(final long number, final int index, final Exception e) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (pendingBatches.contains(number)) {
+          extension.raiseBatchError(index, e.toString());
+        }
+      }
+    });
+  }
+
+  private void batchComplete(final long number) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (pendingBatches.remove(number)) {
+          extension.raiseBatchComplete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Cancels a request (or batch), if it hasn't finished.
+   *
+   * @return true if it was cancelled
+   */
+  public boolean cancel(long id) {
+    return pendingRequests.cancel(id) || pendingBatches.cancel(id);
+  }
+
+  /**
+   * Cancels every request (and batch) that hasn't finished.
+   */
+  public void cancelAll() {
+    pendingRequests.cancelAll();
+    pendingBatches.cancelAll();
+  }
+
+  /**
+   * Returns the id of the latest request (or batch).
+   */
+  public long getLastRequestId() {
+    return requestNumber.get();
+  }
+
+  /**
+   * Returns the metrics as a list of [name, value] lists.
+   */
+  public YailList metricsList() {
+    List<Object[]> pairs = metrics.pairs();
+    Object[] items = new Object[pairs.size()];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = YailList.makeList(pairs.get(i));
+    }
+    return YailList.makeList(items);
+  }
+
+  public void resetMetrics() {
+    metrics.reset();
+  }
+
+  /*
+   * The settings behind the extension's properties. Invalid values are
+   * logged, and the default is used instead.
+   */
+
+  public boolean isCacheEnabled() {
+    return cacheEnabled;
+  }
+
+  public void setCacheEnabled(boolean enabled) {
+    cacheEnabled = enabled;
+  }
+
+  public boolean isDiskCache() {
+    return GenerationResponseCache.getInstance().getDiskDirectory() != null;
+  }
+
+  public void setDiskCache(boolean enabled) {
+    GenerationResponseCache.getInstance()
+        .setDiskDirectory(enabled ? new File(activity.getCacheDir(), GenerationResponseCache.DISK_DIRECTORY) : null);
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  public void setStreaming(boolean enabled) {
+    streaming = enabled;
+  }
+
+  public boolean isPrefetch() {
+    return prefetch;
+  }
+
+  public void setPrefetch(boolean enabled) {
+    prefetch = enabled;
+    if (!enabled) {
+      prefetchPool.clear();
+    }
+  }
+
+  public int getPrefetchSize() {
+    return prefetchPool.getCapacity();
+  }
+
+  public void setPrefetchSize(int size) {
+    if (size < 0) {
+      Log.e(logTag, "PrefetchSize can't be negative. Using " + DEFAULT_PREFETCH_SIZE + " instead.");
+      size = DEFAULT_PREFETCH_SIZE;
+    }
+    prefetchPool.setCapacity(size);
+  }
+
+  // the number of prefetched responses ready to be handed out
+  public int getPrefetchedCount() {
+    return prefetchPool.size();
+  }
+
+  public String getRequestPolicy() {
+    return requestPolicy;
+  }
+
+  public void setRequestPolicy(String policy) {
+    if (!policy.equals(POLICY_PARALLEL) && !policy.equals(POLICY_LATEST_WINS) && !policy.equals(POLICY_QUEUE)) {
+      Log.e(logTag, "RequestPolicy must be " + POLICY_PARALLEL + ", " + POLICY_LATEST_WINS + " or " + POLICY_QUEUE
+          + ". Using " + DEFAULT_REQUEST_POLICY + " instead.");
+      policy = DEFAULT_REQUEST_POLICY;
+    }
+    requestPolicy = policy;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int size) {
+    if (size < 1) {
+      Log.e(logTag, "BatchSize must be at least 1. Using " + DEFAULT_BATCH_SIZE + " instead.");
+      size = DEFAULT_BATCH_SIZE;
+    }
+    batchSize = size;
+  }
+
+  public int getBatchConcurrency() {
+    return batchConcurrency;
+  }
+
+  public void setBatchConcurrency(int concurrency) {
+    if (concurrency < 1) {
+      Log.e(logTag, "BatchConcurrency must be at least 1. Using " + DEFAULT_BATCH_CONCURRENCY + " instead.");
+      concurrency = DEFAULT_BATCH_CONCURRENCY;
+    }
+    batchConcurrency = concurrency;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int timeout) {
+    if (timeout < 0) {
+      Log.e(logTag, "ConnectTimeout can't be negative. Using " + DEFAULT_CONNECT_TIMEOUT + " instead.");
+      timeout = DEFAULT_CONNECT_TIMEOUT;
+    }
+    connectTimeout = timeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(int timeout) {
+    if (timeout < 0) {
+      Log.e(logTag, "ReadTimeout can't be negative. Using " + DEFAULT_READ_TIMEOUT + " instead.");
+      timeout = DEFAULT_READ_TIMEOUT;
+    }
+    readTimeout = timeout;
+  }
+
+  public int getTotalTimeout() {
+    return totalTimeout;
+  }
+
+  public void setTotalTimeout(int timeout) {
+    if (timeout < 0) {
+      Log.e(logTag, "TotalTimeout can't be negative. Using " + DEFAULT_TOTAL_TIMEOUT + " instead.");
+      timeout = DEFAULT_TOTAL_TIMEOUT;
+    }
+    totalTimeout = timeout;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public void setMaxRetries(int retries) {
+    if (retries < 0) {
+      Log.e(logTag, "MaxRetries can't be negative. Using " + DEFAULT_MAX_RETRIES + " instead.");
+      retries = DEFAULT_MAX_RETRIES;
+    }
+    maxRetries = retries;
+  }
+
+  public boolean isAdaptiveTimeouts() {
+    return adaptiveTimeouts;
+  }
+
+  public void setAdaptiveTimeouts(boolean enabled) {
+    adaptiveTimeouts = enabled;
+  }
+
+  public String getServerURLs() {
+    return endpoints.getURLs();
+  }
+
+  public void setServerURLs(String urls) {
+    try {
+      endpoints.setURLs(urls);
+    } catch (MalformedURLException e) {
+      Log.e(logTag, "ServerURLs must be URLs separated by commas. Using " + defaultServerURLs + " instead.");
+      setServerURLs(defaultServerURLs);
+    }
+  }
+
+  public String getLoadBalancing() {
+    return endpoints.getBalancing();
+  }
+
+  public void setLoadBalancing(String balancing) {
+    if (!balancing.equals(GenerationEndpoints.ROUND_ROBIN) && !balancing.equals(GenerationEndpoints.LEAST_LATENCY)) {
+      Log.e(logTag, "LoadBalancing must be " + GenerationEndpoints.ROUND_ROBIN + " or "
+          + GenerationEndpoints.LEAST_LATENCY + ". Using " + DEFAULT_LOAD_BALANCING + " instead.");
+      balancing = DEFAULT_LOAD_BALANCING;
+    }
+    endpoints.setBalancing(balancing);
+  }
+
+  // shared by the extensions (see GenerationExecutor)
+  public void setMaxParallelRequests(int maxParallel) {
+    if (maxParallel < 1) {
+      Log.e(logTag, "MaxParallelRequests must be at least 1. Using "
+          + GenerationExecutor.DEFAULT_MAX_PARALLEL + " instead.");
+      maxParallel = GenerationExecutor.DEFAULT_MAX_PARALLEL;
+    }
+    GenerationExecutor.getInstance().setMaxParallel(maxParallel);
+  }
+
+  // shared by the extensions (see GenerationExecutor)
+  public void setMaxQueuedRequests(int maxQueued) {
+    if (maxQueued < 0) {
+      Log.e(logTag, "MaxQueuedRequests can't be negative. Using " + GenerationExecutor.DEFAULT_MAX_QUEUED
+          + " instead.");
+      maxQueued = GenerationExecutor.DEFAULT_MAX_QUEUED;
+    }
+    GenerationExecutor.getInstance().setMaxQueued(maxQueued);
+  }
+
+  // shared by the extensions (see GenerationExecutor)
+  public void setSaturationPolicy(String policy) {
+    if (!policy.equals(GenerationExecutor.REJECT_NEW) && !policy.equals(GenerationExecutor.DROP_OLDEST)) {
+      Log.e(logTag, "SaturationPolicy must be " + GenerationExecutor.REJECT_NEW + " or "
+          + GenerationExecutor.DROP_OLDEST + ". Using " + GenerationExecutor.DEFAULT_SATURATION_POLICY + " instead.");
+      policy = GenerationExecutor.DEFAULT_SATURATION_POLICY;
+    }
+    GenerationExecutor.getInstance().setSaturationPolicy(policy);
+  }
+
+  public int getMetricsInterval() {
+    return metricsInterval;
+  }
+
+  public void setMetricsInterval(int interval) {
+    if (interval < 0) {
+      Log.e(logTag, "MetricsInterval can't be negative. Using " + DEFAULT_METRICS_INTERVAL + " instead.");
+      interval = DEFAULT_METRICS_INTERVAL;
+    }
+    metricsInterval = interval;
+    handler.removeCallbacks(metricsTimer);
+    if (interval > 0) {
+      handler.postDelayed(metricsTimer, interval);
+    }
+  }
+
+  /**
+   * Called from the extension's onDestroy: stops the metrics timer, so the
+   * handler doesn't keep the destroyed form alive.
+   */
+  public void onDestroy() {
+    handler.removeCallbacks(metricsTimer);
+  }
+}
@@ -0,0 +1,338 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of text generation server responses, shared by the
+ * SentenceGenerator and TextMixer extensions, so that repeating a request
+ * (same seed, same parameters) doesn't cost another round trip to the server.
+ * <br>
+ * Responses are kept in memory, bounded by number of entries and total size,
+ * evicting the least recently used entry first. Entries can expire after a
+ * time to live. Optionally, responses are also written to a directory (e.g.,
+ * in the app's cache dir), which is searched when a response isn't in memory
+ * and is bounded by the same total size.
+ */
+public final class GenerationResponseCache {
+  public static final int DEFAULT_MAX_ENTRIES = 100;
+  public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+  // seconds; 0 means entries never expire
+  public static final double DEFAULT_TIME_TO_LIVE = 0;
+  // name of the disk tier's directory, inside the app's cache dir
+  public static final String DISK_DIRECTORY = "TextGenerationCache";
+
+  private static final GenerationResponseCache INSTANCE = new GenerationResponseCache();
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // separates the parts of a key (unlikely to be typed into a seed)
+  private static final char KEY_SEPARATOR = '\u0001';
+  private static final String DISK_SUFFIX = ".response";
+
+  private static final class Entry {
+    final String response;
+    final long storedAt;
+    final long bytes;
+
+    Entry(String key, String response, long storedAt) {
+      this.response = response;
+      this.storedAt = storedAt;
+      // approximate memory used (chars are 2 bytes)
+      this.bytes = 2L * (key.length() + response.length());
+    }
+  }
+
+  // key -> entry, in access order (least recently used first)
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long bytes;
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private long timeToLiveMillis = (long) (DEFAULT_TIME_TO_LIVE * 1000);
+  // null when the disk tier is off
+  private File diskDirectory;
+
+  private GenerationResponseCache() {
+  }
+
+  /**
+   * Returns the cache shared by all the extensions.
+   */
+  public static GenerationResponseCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Builds a cache key from the extension's name and the request's
+   * parameters. Strings are trimmed and runs of whitespace are replaced by a
+   * single space; numbers are written in their shortest form, so that, e.g.,
+   * "hello  world " with 0.8 gives the same key as "hello world" with .8f.
+   */
+  public static String key(String extension, Object... params) {
+    StringBuilder key = new StringBuilder(extension);
+    for (Object param : params) {
+      key.append(KEY_SEPARATOR);
+      if (param instanceof String) {
+        key.append(((String) param).trim().replaceAll("\\s+", " "));
+      } else if (param instanceof Float || param instanceof Double) {
+        double value = ((Number) param).doubleValue();
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+          key.append((long) value);
+        } else {
+          key.append(param instanceof Float ? Float.toString((Float) param) : Double.toString(value));
+        }
+      } else {
+        key.append(param);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the response stored in memory for key, or null if there isn't one
+   * (or it has expired). This doesn't touch the disk, so it can be called on
+   * the UI thread.
+   */
+  public synchronized String getFromMemory(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (isExpired(entry.storedAt)) {
+      remove(key);
+      return null;
+    }
+    return entry.response;
+  }
+
+  /**
+   * Returns the response stored for key in memory or, failing that, on disk
+   * (in which case it's put back in memory), or null if there isn't one.
+   * Don't call this on the UI thread.
+   */
+  public String get(String key) {
+    String response = getFromMemory(key);
+    if (response != null) {
+      return response;
+    }
+    File file = diskFile(key);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        String storedKey = in.readUTF();
+        long storedAt = in.readLong();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        if (!storedKey.equals(key)) {
+          return null;
+        }
+        if (isExpired(storedAt)) {
+          file.delete();
+          return null;
+        }
+        response = new String(body, UTF_8);
+        putInMemory(key, new Entry(key, response, storedAt));
+        file.setLastModified(System.currentTimeMillis());
+        return response;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // a damaged file is just a miss
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Stores a response, in memory and (if the disk tier is on) on disk.
+   * Responses larger than the maximum size aren't stored.
+   */
+  public void put(String key, String response) {
+    Entry entry = new Entry(key, response, System.currentTimeMillis());
+    if (!putInMemory(key, entry)) {
+      return;
+    }
+    File file = diskFile(key);
+    if (file == null) {
+      return;
+    }
+    File directory = file.getParentFile();
+    try {
+      directory.mkdirs();
+      // write to a temporary file first, so a reader never sees half a file
+      File temp = File.createTempFile("write", ".tmp", directory);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        byte[] body = response.getBytes(UTF_8);
+        out.writeUTF(key);
+        out.writeLong(entry.storedAt);
+        out.writeInt(body.length);
+        out.write(body);
+      } finally {
+        out.close();
+      }
+      if (!temp.renameTo(file)) {
+        temp.delete();
+      }
+      trimDisk(directory);
+    } catch (IOException e) {
+      // the memory tier still has it
+    }
+  }
+
+  /**
+   * Removes every response, from memory and from disk.
+   */
+  public void clear() {
+    File directory;
+    synchronized (this) {
+      entries.clear();
+      bytes = 0;
+      directory = diskDirectory;
+    }
+    if (directory != null) {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  public synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets the maximum number of responses kept in memory (at least 1).
+   */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    evict();
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the maximum total size of the responses kept in memory, and of those
+   * kept on disk.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+    evict();
+  }
+
+  public synchronized double getTimeToLive() {
+    return timeToLiveMillis / 1000.0;
+  }
+
+  /**
+   * Sets how long (in seconds) a response is kept; 0 keeps it until evicted.
+   */
+  public synchronized void setTimeToLive(double seconds) {
+    this.timeToLiveMillis = seconds > 0 ? (long) (seconds * 1000) : 0;
+  }
+
+  public synchronized File getDiskDirectory() {
+    return diskDirectory;
+  }
+
+  /**
+   * Sets the directory of the disk tier, or turns it off if null. The
+   * directory is used only by this cache.
+   */
+  public synchronized void setDiskDirectory(File diskDirectory) {
+    this.diskDirectory = diskDirectory;
+  }
+
+  private synchronized boolean putInMemory(String key, Entry entry) {
+    if (entry.bytes > maxBytes) {
+      return false;
+    }
+    remove(key);
+    entries.put(key, entry);
+    bytes += entry.bytes;
+    evict();
+    return true;
+  }
+
+  private void remove(String key) {
+    Entry old = entries.remove(key);
+    if (old != null) {
+      bytes -= old.bytes;
+    }
+  }
+
+  // removes the least recently used entries until the cache is within its limits
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+      bytes -= it.next().getValue().bytes;
+      it.remove();
+    }
+  }
+
+  private synchronized boolean isExpired(long storedAt) {
+    return timeToLiveMillis > 0 && System.currentTimeMillis() - storedAt > timeToLiveMillis;
+  }
+
+  private synchronized File diskFile(String key) {
+    if (diskDirectory == null) {
+      return null;
+    }
+    return new File(diskDirectory, sha1(key) + DISK_SUFFIX);
+  }
+
+  // deletes the least recently used files until the directory is within maxBytes
+  private void trimDisk(File directory) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+    }
+    long limit = getMaxBytes();
+    if (total <= limit) {
+      return;
+    }
+    java.util.Arrays.sort(files, new java.util.Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long difference = a.lastModified() - b.lastModified();
+        return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+      }
+    });
+    for (int i = 0; i < files.length && total > limit; i++) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  private static String sha1(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+}
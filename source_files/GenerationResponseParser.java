@@ -0,0 +1,565 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.*;
+
+/**
+ * Reads and decodes the responses of the text generation servers used by the
+ * SentenceGenerator and TextMixer extensions. This has no App Inventor or
+ * Android dependencies (other than org.json, which Android includes), so the
+ * same code can be benchmarked on a desktop JVM.
+ * <br>
+ * Responses are decoded with a pull parser (GenerationJsonReader), straight
+ * into the arrays and sentence they end up in, and the corpus labels are
+ * shared constants rather than a new String per token.
+ * <br>
+ * A TextMixer response can also come in a compact binary format (if the
+ * request accepts COMPACT_TYPE), decoded straight from the stream. All
+ * numbers in it are unsigned LEB128 varints, and strings are a varint byte
+ * length followed by UTF-8 bytes:
+ * <ul>
+ * <li>the bytes 'G', 'T', then the version (1);</li>
+ * <li>the warning, a string (empty if there is none);</li>
+ * <li>the token table: a count, then that many strings (each distinct token
+ * once);</li>
+ * <li>the corpus table, likewise (each distinct corpus label once);</li>
+ * <li>the number of tokens, then each token's index in the token table, then
+ * each token's index in the corpus table.</li>
+ * </ul>
+ */
+public final class GenerationResponseParser {
+
+  /**
+   * Thrown when a response can't be decoded (e.g., a corrupt compact
+   * response), as opposed to when it can't be read. Trying again wouldn't help.
+   */
+  public static final class MalformedResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public MalformedResponseException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A decoded TextMixer response.
+   */
+  public static final class MixedSentence {
+    // the sentence (tokens joined with spaces, without <eos>), or an error message
+    public final String sentence;
+    // every token, including <eos>
+    public final String[] tokens;
+    // the corpus each token came from
+    public final String[] corpora;
+    // the corpus each token came from, as its code (see corpusCode)
+    public final byte[] origins;
+    // number of tokens from each corpus, by code
+    public final int[] corpusCounts;
+    // whether the server warned that the percentages don't add up to one (the
+    // warning is also at the end of the sentence)
+    public final boolean warning;
+
+    public MixedSentence(String sentence, String[] tokens, String[] corpora) {
+      this(sentence, tokens, corpora, new byte[corpora.length], new int[CORPORA.length + 1], false);
+      for (int i = 0; i < corpora.length; i++) {
+        origins[i] = corpusCode(corpora[i]);
+        corpusCounts[origins[i]]++;
+      }
+    }
+
+    MixedSentence(String sentence, String[] tokens, String[] corpora, byte[] origins, int[] corpusCounts,
+        boolean warning) {
+      this.sentence = sentence;
+      this.tokens = tokens;
+      this.corpora = corpora;
+      this.origins = origins;
+      this.corpusCounts = corpusCounts;
+      this.warning = warning;
+    }
+
+    /**
+     * Returns the response as json, in the server's format, with the warning
+     * (if any) as a "warning" member, e.g., to cache a response that arrived
+     * in the compact format. Decoding it gives this sentence back.
+     */
+    public String toJson() {
+      StringBuilder json = new StringBuilder("{\"tokens\": [");
+      for (int i = 0; i < tokens.length; i++) {
+        json.append(i > 0 ? ", " : "").append(JSONObject.quote(tokens[i]));
+      }
+      json.append("], \"corpora\": [");
+      for (int i = 0; i < corpora.length; i++) {
+        json.append(i > 0 ? ", " : "").append(JSONObject.quote(corpora[i]));
+      }
+      json.append(']');
+      if (warning) {
+        json.append(", \"warning\": ").append(JSONObject.quote(PERCENTAGES_WARNING));
+      }
+      return json.append('}').toString();
+    }
+
+    /**
+     * Returns the runs of consecutive tokens from the same corpus, in order,
+     * each as {first token, last token, corpus code} (the tokens' indices start
+     * at 0).
+     */
+    public int[][] originRuns() {
+      int count = 0;
+      for (int i = 0; i < origins.length; i++) {
+        if (i == 0 || origins[i] != origins[i - 1]) {
+          count++;
+        }
+      }
+      int[][] runs = new int[count][];
+      int run = 0;
+      for (int i = 0; i < origins.length; i++) {
+        if (i + 1 == origins.length || origins[i + 1] != origins[i]) {
+          int first = run == 0 ? 0 : runs[run - 1][1] + 1;
+          runs[run++] = new int[] { first, i, origins[i] };
+        }
+      }
+      return runs;
+    }
+
+    /**
+     * Returns the percentage (0 to 100) of the tokens that came from the
+     * corpus with the given code, or 0 if there are no tokens.
+     */
+    public double percentage(int code) {
+      return origins.length == 0 ? 0 : 100.0 * corpusCounts[code] / origins.length;
+    }
+  }
+
+  // the corpus labels the TextMixer server sends; a label's code is its index
+  // plus one (so it can be used as an App Inventor list index), and 0 is the
+  // code of any other label
+  public static final String[] CORPORA = { "none", "seuss", "taylor", "shakespeare" };
+  // tokens that come up in most responses
+  private static final String[] COMMON_TOKENS = { GenerationTokenStream.END_OF_SENTENCE };
+
+  // what is added to the sentence of a response with a warning
+  public static final String PERCENTAGES_WARNING = "Warning: The percentages must add up to one.";
+
+  // media types of the responses:
+  public static final String JSON_TYPE = "application/json";
+  public static final String COMPACT_TYPE = "application/vnd.appinventor.tokens";
+  // the Accept header of a TextMixer request: the compact format if the
+  // server has it, json otherwise
+  public static final String ACCEPT_COMPACT = COMPACT_TYPE + ", " + JSON_TYPE + ";q=0.9";
+
+  private static final int COMPACT_MAGIC_0 = 'G';
+  private static final int COMPACT_MAGIC_1 = 'T';
+  private static final int COMPACT_VERSION = 1;
+  // the most tokens (or table entries) and bytes per string in a compact
+  // response, so a corrupt one can't ask for huge arrays
+  private static final int COMPACT_MAX_COUNT = 1 << 20;
+  private static final int COMPACT_MAX_STRING = 1 << 16;
+
+  private GenerationResponseParser() {
+  }
+
+  /**
+   * Returns the code of a corpus label: its index in CORPORA plus one, or 0
+   * if it isn't one of them.
+   */
+  public static byte corpusCode(String label) {
+    for (int i = 0; i < CORPORA.length; i++) {
+      // the decoder returns the constants themselves, so this is usually enough
+      if (label == CORPORA[i]) {
+        return (byte) (i + 1);
+      }
+    }
+    for (int i = 0; i < CORPORA.length; i++) {
+      if (label.equals(CORPORA[i])) {
+        return (byte) (i + 1);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Reads the whole response body (UTF-8), as sent, line breaks included.
+   *
+   * @param stream the response stream (closed when done)
+   * @return the response
+   */
+  public static String readResponse(InputStream stream) throws IOException {
+    Reader in = new InputStreamReader(stream, "UTF-8");
+    try {
+      StringBuilder response = new StringBuilder();
+      char[] buffer = new char[4096];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        response.append(buffer, 0, n);
+      }
+      return response.toString();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Decodes a SentenceGenerator response, e.g., {"generated": "..."}.
+   *
+   * @param response the response body
+   * @return the generated text
+   */
+  public static String parseGeneratedText(String response) throws JSONException {
+    GenerationJsonReader reader = new GenerationJsonReader(new StringReader(response));
+    try {
+      String generated = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals("generated")) {
+          generated = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (generated == null) {
+        throw new JSONException("JSONObject[\"generated\"] not found.");
+      }
+      return generated;
+    } catch (IOException e) {
+      // can't happen: it's a StringReader
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Decodes a TextMixer response. The server may warn that the percentages
+   * don't add up to one, in a "warning" member or (older servers) before the
+   * json, in which case a warning is added to the end of the sentence. If the json can't be decoded, the
+   * sentence is the error message and the lists are empty.
+   *
+   * @param responseString the response body
+   * @return the sentence, tokens and corpora
+   */
+  public static MixedSentence parseMixedSentence(String responseString) {
+    try {
+      return decodeMixedSentence(new StringReader(responseString), responseString.contains("Warning"));
+    } catch (IOException e) {
+      // can't happen: it's a StringReader
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Decodes a TextMixer response as it is read from the stream, without
+   * reading it into a String first. Only a warning before the json (where the
+   * server puts it) adds the warning to the sentence.
+   *
+   * @param stream the response stream (closed when done)
+   * @return the sentence, tokens and corpora
+   * @throws IOException if the stream can't be read
+   */
+  public static MixedSentence parseMixedSentence(InputStream stream) throws IOException {
+    Reader in = new InputStreamReader(stream, "UTF-8");
+    try {
+      return decodeMixedSentence(in, false);
+    } finally {
+      in.close();
+    }
+  }
+
+  // decodes a TextMixer response; warning is true if the caller found the
+  // server's warning (if false, the text before the json is checked)
+  private static MixedSentence decodeMixedSentence(Reader in, boolean warning) throws IOException {
+    GenerationJsonReader reader = new GenerationJsonReader(in);
+    String finalSentence;
+    String[] tokenArr;
+    String[] originArr;
+    byte[] origins = new byte[0];
+    int[] corpusCounts = new int[CORPORA.length + 1];
+    try {
+      // skip the warning (if there is one), so it's just the json:
+      if (reader.readPrefix().contains("Warning")) {
+        warning = true;
+      }
+      // {"tokens": ["hello", "world", "in", "the", "clear", "to", "a", "little",
+      // "<eos>"], "corpora": ["none", "none", "seuss", "seuss", "taylor",
+      // "shakespeare", "seuss", "taylor", "shakespeare"]}
+      List<String> tokens = null;
+      List<String> corpora = null;
+      StringBuilder sentence = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("tokens")) {
+          // construct the sentence and list of words
+          tokens = new ArrayList<String>();
+          sentence = new StringBuilder();
+          reader.beginArray();
+          while (reader.hasNext()) {
+            String token = reader.nextString(COMMON_TOKENS);
+            tokens.add(token);
+            // if not <eos>, add to sentence
+            if (!token.equals(GenerationTokenStream.END_OF_SENTENCE)) {
+              sentence.append(token).append(' ');
+            }
+          }
+          reader.endArray();
+        } else if (name.equals("warning")) {
+          if (reader.nextString().length() > 0) {
+            warning = true;
+          }
+        } else if (name.equals("corpora")) {
+          // construct the list of origin texts, and their codes and counts
+          corpora = new ArrayList<String>();
+          origins = new byte[16];
+          corpusCounts = new int[CORPORA.length + 1];
+          reader.beginArray();
+          while (reader.hasNext()) {
+            String corpus = reader.nextString(CORPORA);
+            if (corpora.size() == origins.length) {
+              origins = Arrays.copyOf(origins, origins.length * 2);
+            }
+            byte code = corpusCode(corpus);
+            origins[corpora.size()] = code;
+            corpusCounts[code]++;
+            corpora.add(corpus);
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (tokens == null) {
+        throw new JSONException("JSONObject[\"tokens\"] not found.");
+      }
+      if (corpora == null) {
+        throw new JSONException("JSONObject[\"corpora\"] not found.");
+      }
+      finalSentence = sentence.toString();
+      tokenArr = tokens.toArray(new String[tokens.size()]);
+      originArr = corpora.toArray(new String[corpora.size()]);
+      origins = Arrays.copyOf(origins, originArr.length);
+    } catch (JSONException e) {
+      finalSentence = e.toString();
+      tokenArr = new String[0];
+      originArr = new String[0];
+      origins = new byte[0];
+      corpusCounts = new int[CORPORA.length + 1];
+    }
+    if (warning) {
+      finalSentence += " | " + PERCENTAGES_WARNING;
+    }
+    return new MixedSentence(finalSentence, tokenArr, originArr, origins, corpusCounts, warning);
+  }
+
+  /**
+   * Decodes a TextMixer response as it is read from the stream, in the
+   * format the server sent it in.
+   *
+   * @param stream      the response stream (closed when done)
+   * @param contentType the response's Content-Type (COMPACT_TYPE for the
+   *                    compact format, anything else for json), or null
+   * @return the sentence, tokens and corpora
+   * @throws IOException if the stream can't be read, or isn't a valid compact
+   *                     response
+   */
+  public static MixedSentence readMixedSentence(InputStream stream, String contentType) throws IOException {
+    if (contentType != null && contentType.startsWith(COMPACT_TYPE)) {
+      return readCompactMixedSentence(stream);
+    }
+    return parseMixedSentence(stream);
+  }
+
+  /**
+   * Decodes a TextMixer response in the compact format (see above) as it is
+   * read from the stream.
+   *
+   * @param stream the response stream (closed when done)
+   * @return the sentence, tokens and corpora
+   * @throws IOException if the stream can't be read
+   *                     (MalformedResponseException if it isn't a compact
+   *                     response)
+   */
+  public static MixedSentence readCompactMixedSentence(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    try {
+      if (in.readUnsignedByte() != COMPACT_MAGIC_0 || in.readUnsignedByte() != COMPACT_MAGIC_1) {
+        throw new MalformedResponseException("Not a compact response");
+      }
+      int version = in.readUnsignedByte();
+      if (version != COMPACT_VERSION) {
+        throw new MalformedResponseException("Unsupported compact response version " + version);
+      }
+      boolean warning = readCompactString(in, null).length() > 0;
+      String[] vocabulary = readCompactTable(in, COMMON_TOKENS);
+      String[] labels = readCompactTable(in, CORPORA);
+      int count = readCompactCount(in);
+      String[] tokens = new String[count];
+      StringBuilder sentence = new StringBuilder();
+      for (int i = 0; i < count; i++) {
+        tokens[i] = vocabulary[readCompactIndex(in, vocabulary.length)];
+        if (!tokens[i].equals(GenerationTokenStream.END_OF_SENTENCE)) {
+          sentence.append(tokens[i]).append(' ');
+        }
+      }
+      String[] corpora = new String[count];
+      byte[] origins = new byte[count];
+      int[] corpusCounts = new int[CORPORA.length + 1];
+      for (int i = 0; i < count; i++) {
+        corpora[i] = labels[readCompactIndex(in, labels.length)];
+        origins[i] = corpusCode(corpora[i]);
+        corpusCounts[origins[i]]++;
+      }
+      if (warning) {
+        sentence.append(" | ").append(PERCENTAGES_WARNING);
+      }
+      return new MixedSentence(sentence.toString(), tokens, corpora, origins, corpusCounts, warning);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Encodes a TextMixer response in the compact format (see above), e.g., for
+   * a server or a test server.
+   */
+  public static void writeCompactMixedSentence(MixedSentence mixed, OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeByte(COMPACT_MAGIC_0);
+    out.writeByte(COMPACT_MAGIC_1);
+    out.writeByte(COMPACT_VERSION);
+    writeCompactString(out, mixed.warning ? PERCENTAGES_WARNING : "");
+    int[] tokenIndices = writeCompactTable(out, mixed.tokens);
+    int[] corpusIndices = writeCompactTable(out, mixed.corpora);
+    writeVarint(out, mixed.tokens.length);
+    for (int index : tokenIndices) {
+      writeVarint(out, index);
+    }
+    for (int index : corpusIndices) {
+      writeVarint(out, index);
+    }
+    out.flush();
+  }
+
+  // writes the distinct strings, in order of first appearance; returns each
+  // string's index in the table
+  private static int[] writeCompactTable(DataOutputStream out, String[] strings) throws IOException {
+    Map<String, Integer> table = new LinkedHashMap<String, Integer>();
+    int[] indices = new int[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      Integer index = table.get(strings[i]);
+      if (index == null) {
+        index = table.size();
+        table.put(strings[i], index);
+      }
+      indices[i] = index;
+    }
+    writeVarint(out, table.size());
+    for (String string : table.keySet()) {
+      writeCompactString(out, string);
+    }
+    return indices;
+  }
+
+  private static void writeCompactString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes("UTF-8");
+    writeVarint(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  // reads a table of strings, returning the matching constant for any that
+  // equals one of known
+  private static String[] readCompactTable(DataInputStream in, String[] known) throws IOException {
+    String[] table = new String[readCompactCount(in)];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = readCompactString(in, known);
+    }
+    return table;
+  }
+
+  private static String readCompactString(DataInputStream in, String[] known) throws IOException {
+    int length = readVarint(in);
+    if (length > COMPACT_MAX_STRING) {
+      throw new MalformedResponseException("Corrupt compact response: string of " + length + " bytes");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    String string = new String(bytes, "UTF-8");
+    if (known != null) {
+      for (String constant : known) {
+        if (constant.equals(string)) {
+          return constant;
+        }
+      }
+    }
+    return string;
+  }
+
+  private static int readCompactCount(DataInputStream in) throws IOException {
+    int count = readVarint(in);
+    if (count > COMPACT_MAX_COUNT) {
+      throw new MalformedResponseException("Corrupt compact response: " + count + " items");
+    }
+    return count;
+  }
+
+  private static int readCompactIndex(DataInputStream in, int size) throws IOException {
+    int index = readVarint(in);
+    if (index >= size) {
+      throw new MalformedResponseException("Corrupt compact response: index " + index + " of " + size);
+    }
+    return index;
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new MalformedResponseException("Corrupt compact response: varint too long");
+  }
+
+  /**
+   * Splits a batch response, {"results": [...]}, into the responses to each
+   * request in the batch, in the same format as the response to a single
+   * request. Anything the server put before the json (e.g., a warning) goes in
+   * front of each response.
+   *
+   * @param responseString the batch response body
+   * @param expected       the number of requests in the batch
+   * @return the responses, in the order of the requests
+   */
+  public static String[] splitBatchResponse(String responseString, int expected) throws JSONException {
+    int start = responseString.indexOf("{");
+    if (start < 0) {
+      throw new JSONException("No json in the batch response");
+    }
+    String prefix = responseString.substring(0, start);
+    JSONArray results = new JSONObject(responseString.substring(start)).getJSONArray("results");
+    if (results.length() != expected) {
+      throw new JSONException("Expected " + expected + " results in the batch response, got " + results.length());
+    }
+    String[] responses = new String[expected];
+    for (int i = 0; i < expected; i++) {
+      responses[i] = prefix + results.get(i).toString();
+    }
+    return responses;
+  }
+}
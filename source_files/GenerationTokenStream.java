@@ -0,0 +1,145 @@
+package com.google.appinventor.components.runtime;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.json.*;
+
+/**
+ * Decodes a streamed text generation response, one line at a time, and
+ * assembles the lines into the response the server would have sent without
+ * streaming, so that the final events are the same either way.
+ * <br>
+ * A streamed response is newline-delimited json: one line per token, e.g.,
+ * {"token": "hello", "corpus": "seuss"} (the corpus is only sent by the
+ * TextMixer server). Other lines are kept: a line starting with "{" that
+ * isn't a token (e.g., {"generated": "..."} or {"tokens": [...], ...}) is
+ * taken as the whole response, which is also what a server that doesn't
+ * stream sends; anything else (e.g., a warning) goes in front of the json, as
+ * it does without streaming.
+ */
+public final class GenerationTokenStream {
+
+  /**
+   * One streamed token.
+   */
+  public static final class Token {
+    public final String token;
+    // the corpus the token came from, or "" if the server didn't say
+    public final String corpus;
+
+    public Token(String token, String corpus) {
+      this.token = token;
+      this.corpus = corpus;
+    }
+  }
+
+  public static final String END_OF_SENTENCE = "<eos>";
+
+  private final StringBuilder prefix = new StringBuilder();
+  private final JSONArray tokens = new JSONArray();
+  private final JSONArray corpora = new JSONArray();
+  private final StringBuilder text = new StringBuilder();
+  // the whole response, if the server sent one
+  private String response;
+
+  /**
+   * Decodes one line of the stream.
+   *
+   * @param line a line of the response, without the line break
+   * @return the token on the line, or null if it isn't a token line
+   */
+  public Token accept(String line) {
+    String trimmed = line.trim();
+    if (trimmed.startsWith("{")) {
+      Token token = decodeToken(trimmed);
+      if (token != null) {
+        tokens.put(token.token);
+        corpora.put(token.corpus);
+        if (!token.token.equals(END_OF_SENTENCE)) {
+          if (text.length() > 0) {
+            text.append(' ');
+          }
+          text.append(token.token);
+        }
+        return token;
+      }
+      // not a token; kept as is
+      response = trimmed;
+    } else {
+      prefix.append(line);
+    }
+    return null;
+  }
+
+  // decodes a token line, or returns null if it isn't one
+  private static Token decodeToken(String json) {
+    GenerationJsonReader reader = new GenerationJsonReader(new StringReader(json));
+    String token = null;
+    String corpus = "";
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("token")) {
+          token = reader.nextString();
+        } else if (name.equals("corpus")) {
+          corpus = reader.nextString(GenerationResponseParser.CORPORA);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (JSONException e) {
+      return null;
+    } catch (IOException e) {
+      // can't happen: it's a StringReader
+      throw new IllegalStateException(e);
+    }
+    return token == null ? null : new Token(token, corpus);
+  }
+
+  /**
+   * Returns the number of tokens received so far.
+   */
+  public int tokenCount() {
+    return tokens.length();
+  }
+
+  /**
+   * Returns the response in the TextMixer server's format, e.g.,
+   * {"tokens": [...], "corpora": [...]}, with anything sent before the json
+   * (e.g., a warning) in front.
+   */
+  public String toMixedResponse() {
+    if (response != null) {
+      return prefix + response;
+    }
+    try {
+      JSONObject jsonObj = new JSONObject();
+      jsonObj.put("tokens", tokens);
+      jsonObj.put("corpora", corpora);
+      return prefix + jsonObj.toString();
+    } catch (JSONException e) {
+      // can't happen: the keys aren't null
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the response in the SentenceGenerator server's format, i.e.,
+   * {"generated": "..."}, with the tokens separated by spaces.
+   */
+  public String toGeneratedResponse() {
+    if (response != null) {
+      return prefix + response;
+    }
+    try {
+      JSONObject jsonObj = new JSONObject();
+      jsonObj.put("generated", text.toString());
+      return prefix + jsonObj.toString();
+    } catch (JSONException e) {
+      // can't happen: the key isn't null
+      throw new IllegalStateException(e);
+    }
+  }
+}
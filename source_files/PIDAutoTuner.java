@@ -0,0 +1,166 @@
+package com.PIDController;
+/*
+ * Author: Jessica Van Brummelen
+ * Email: jess.vanbrummelen AT gmail.com
+ */
+
+/**
+ * Relay-feedback (Astrom-Hagglund) auto-tuning experiment. While it runs, the
+ * controller output is switched between center + amplitude and center -
+ * amplitude whenever the error crosses the hysteresis band, which makes the
+ * system oscillate at its ultimate period. The ultimate gain and period are
+ * estimated online from the oscillation, using constant memory.
+ * <br>
+ * Time is measured in "steps": one step per calcOutput call, or (in
+ * time-scaled mode) one step per NominalPeriod. The resulting gains are
+ * therefore in the same per-step units that PIDController uses.
+ */
+final class PIDAutoTuner {
+
+	static final String ZIEGLER_NICHOLS = "ZieglerNichols";
+	static final String TYREUS_LUYBEN = "TyreusLuyben";
+	// Give up if the experiment hasn't finished after this many steps:
+	static final int MAX_STEPS = 100000;
+
+	private final double center;
+	private final double amplitude;
+	private final double hysteresis;
+	private final int cyclesWanted;
+	private final boolean tyreusLuyben;
+
+	private boolean relayHigh;
+	private boolean started;
+	// Steps since the experiment started:
+	private double steps;
+	// Step of the last low-to-high relay switch (start of a cycle):
+	private double cycleStart = -1;
+	// Extremes of the measured value during the current cycle:
+	private double peakMax;
+	private double peakMin;
+	// Number of complete cycles seen (the first one is not used):
+	private int cycles;
+	private double sumPeriod;
+	private double sumAmplitude;
+
+	/**
+	 * @param center:
+	 *            output around which the relay switches
+	 * @param amplitude:
+	 *            relay amplitude (the output is center +/- amplitude)
+	 * @param hysteresis:
+	 *            error band in which the relay doesn't switch (filters noise)
+	 * @param cycles:
+	 *            number of oscillation cycles to average
+	 * @param rule:
+	 *            ZIEGLER_NICHOLS or TYREUS_LUYBEN
+	 * @throws IllegalArgumentException
+	 *             if rule is neither
+	 */
+	PIDAutoTuner(double center, double amplitude, double hysteresis, int cycles, String rule) {
+		if (TYREUS_LUYBEN.equalsIgnoreCase(rule)) {
+			this.tyreusLuyben = true;
+		} else if (ZIEGLER_NICHOLS.equalsIgnoreCase(rule)) {
+			this.tyreusLuyben = false;
+		} else {
+			throw new IllegalArgumentException("The rule must be \"" + ZIEGLER_NICHOLS + "\" or \""
+					+ TYREUS_LUYBEN + "\", not \"" + rule + "\".");
+		}
+		this.center = center;
+		this.amplitude = Math.abs(amplitude);
+		this.hysteresis = Math.abs(hysteresis);
+		this.cyclesWanted = Math.max(cycles, 1);
+	}
+
+	/**
+	 * Advances the experiment by one sample and returns the relay output.
+	 *
+	 * @param measuredVal:
+	 *            current measured value
+	 * @param error:
+	 *            setpoint - measuredVal
+	 * @param elapsedSteps:
+	 *            steps since the previous sample
+	 * @return output
+	 */
+	double step(double measuredVal, double error, double elapsedSteps) {
+		if (!started) {
+			started = true;
+			relayHigh = error > 0;
+			peakMax = measuredVal;
+			peakMin = measuredVal;
+		} else {
+			steps += elapsedSteps;
+		}
+		if (measuredVal > peakMax) {
+			peakMax = measuredVal;
+		}
+		if (measuredVal < peakMin) {
+			peakMin = measuredVal;
+		}
+
+		if (!relayHigh && error > hysteresis) {
+			relayHigh = true;
+			if (cycleStart >= 0) {
+				// Skip the first cycle, which still contains the start-up transient.
+				if (cycles > 0) {
+					sumPeriod += steps - cycleStart;
+					sumAmplitude += (peakMax - peakMin) / 2;
+				}
+				cycles++;
+			}
+			cycleStart = steps;
+			peakMax = measuredVal;
+			peakMin = measuredVal;
+		} else if (relayHigh && error < -hysteresis) {
+			relayHigh = false;
+		}
+		return relayHigh ? center + amplitude : center - amplitude;
+	}
+
+	boolean isDone() {
+		return cycles > cyclesWanted;
+	}
+
+	boolean isTimedOut() {
+		return steps > MAX_STEPS;
+	}
+
+	/**
+	 * Returns the ultimate gain, Ku = 4d / (pi * sqrt(a^2 - e^2)), where d is
+	 * the relay amplitude, a the oscillation amplitude and e the hysteresis.
+	 */
+	double ultimateGain() {
+		double a = sumAmplitude / cyclesWanted;
+		double effective = a > hysteresis ? Math.sqrt(a * a - hysteresis * hysteresis) : a;
+		return 4 * amplitude / (Math.PI * effective);
+	}
+
+	/**
+	 * Returns the ultimate period, in steps.
+	 */
+	double ultimatePeriod() {
+		return sumPeriod / cyclesWanted;
+	}
+
+	/**
+	 * Returns {kp, ki, kd} in per-step units, from the Ziegler-Nichols or
+	 * Tyreus-Luyben tuning rules.
+	 */
+	double[] gains() {
+		double ku = ultimateGain();
+		double pu = ultimatePeriod();
+		double kp;
+		double ti;
+		double td;
+		if (tyreusLuyben) {
+			kp = ku / 2.2;
+			ti = 2.2 * pu;
+			td = pu / 6.3;
+		} else {
+			kp = 0.6 * ku;
+			ti = pu / 2;
+			td = pu / 8;
+		}
+		return new double[] { kp, kp / ti, kp * td };
+	}
+}
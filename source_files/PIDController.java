@@ -15,14 +15,19 @@ import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.util.MediaUtil;
+import com.google.appinventor.components.runtime.util.YailList;
 import com.google.appinventor.components.runtime.*;
 
+import android.os.Process;
 import android.util.Log;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
 @DesignerComponent(version = PIDController.VERSION, description = "An extension to control a system via a simple PID controller."
 		+ "This controller generates an output signal based on the setpoint, the measured signal, and controller gains.", category = ComponentCategory.EXTENSION, nonVisible = true, iconName = "images/extension.png")
 @SimpleObject(external = true)
-public class PIDController extends AndroidNonvisibleComponent implements Component {
+public class PIDController extends AndroidNonvisibleComponent implements Component, OnDestroyListener {
 
 	public static final int VERSION = 1;
 	public static final float DEFAULT_KP = 0f;
@@ -31,25 +36,63 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	public static final float DEFAULT_SETPOINT = 0f;
 	public static final float DEFAULT_OUTPUTMAX = 0f;
 	public static final float DEFAULT_OUTPUTMIN = 0f;
+	public static final float DEFAULT_LOOPRATE = 50f;
+	public static final boolean DEFAULT_TIMESCALED = false;
+	public static final float DEFAULT_NOMINALPERIOD = 0.02f;
+	public static final float DEFAULT_DERIVATIVEFILTER = 0f;
+	public static final int DEFAULT_TELEMETRYSIZE = 0;
+	public static final float DEFAULT_SETTLINGBAND = 0.02f;
+	public static final boolean DEFAULT_SCHEDULEONMEASUREDVALUE = true;
+	// A tick that starts more than this fraction of a period late counts as jitter:
+	private static final double JITTER_TOLERANCE = 0.1;
 	
 	private ComponentContainer container;
-	// Whether the controller is completing the first iteration:
-	private boolean FirstLoop = true;
-	// Controller gains (proportional, integral, derivative):
-	private double Kp;
-	private double Ki;
-	private double Kd;
-	// Controller target value:
-	private double Setpoint;
-	// Constraints on the output value:
-	private double OutputMax;
-	private double OutputMin;
-	// Error between the actual and measured values:
-	private double Error;
-	// Sum of the error to compute integral output value:
-	private double ErrorSum;
-	// Measured value from previous iteration:
-	private double PrevMeasuredVal;
+	/*
+	 * The control math lives in PIDCore, which has no App Inventor or Android
+	 * dependencies. This component adds the blocks, events and fixed-rate
+	 * loop on top of it.
+	 */
+	private final PIDCore core = new PIDCore();
+	// Fraction of the first error the error must stay within to be settled:
+	private double SettlingBand;
+
+	/*
+	 * Fixed-rate loop: when running, a dedicated thread calls calcOutput at
+	 * LoopRate Hz with the value returned by the sampler.
+	 */
+	// Rate of the fixed-rate loop in Hz:
+	private double LoopRate;
+	// Source of measured values for the fixed-rate loop:
+	private volatile Sampler sampler;
+	// Latest value from setMeasuredValue (used when no sampler is registered):
+	private volatile double SampledVal;
+	// Optional listener called on the loop thread with every output:
+	private volatile OutputListener outputListener;
+	private volatile Thread loopThread;
+	private volatile boolean loopRunning;
+	// Latest output of the fixed-rate loop, for the GotOutput event:
+	private volatile double LoopOutput;
+	// True while a GotOutput event is waiting to run on the UI thread:
+	private final AtomicBoolean outputPending = new AtomicBoolean(false);
+	private volatile int OverrunCount;
+	private volatile int JitterCount;
+	private volatile long MaxJitterNanos;
+
+	/**
+	 * Supplies measured values to the fixed-rate loop. Called on the loop
+	 * thread once per tick, so it must be fast and must not block.
+	 */
+	public interface Sampler {
+		double sample();
+	}
+
+	/**
+	 * Receives every output of the fixed-rate loop directly on the loop
+	 * thread, without going through the UI thread.
+	 */
+	public interface OutputListener {
+		void onOutput(double output);
+	}
 
 	/**
 	 * Creates a new PIDController without constraints on the output
@@ -74,6 +117,15 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 		Setpoint(DEFAULT_SETPOINT);
 		OutputMax(DEFAULT_OUTPUTMAX);
 		OutputMin(DEFAULT_OUTPUTMIN);
+		LoopRate(DEFAULT_LOOPRATE);
+		TimeScaled(DEFAULT_TIMESCALED);
+		NominalPeriod(DEFAULT_NOMINALPERIOD);
+		DerivativeFilter(DEFAULT_DERIVATIVEFILTER);
+		TelemetrySize(DEFAULT_TELEMETRYSIZE);
+		SettlingBand(DEFAULT_SETTLINGBAND);
+		ScheduleOnMeasuredValue(DEFAULT_SCHEDULEONMEASUREDVALUE);
+
+		form.registerForOnDestroy(this);
 	}
 	
 	/*
@@ -94,61 +146,49 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 			+ "the past error, etc.  Calculating this output is the main function of "
 			+ "the controller.")
 	public double calcOutput(double measuredVal) {
-		// Calculate the difference between the setpoint and the measured value
-		Error = calcError(Setpoint, measuredVal);
-
-		/*
-		 * If the controller has just started or been reset, ensure that the
-		 * prevMeasuredVal and prevOutput variables have reasonable values.
-		 */
-		if (FirstLoop) {
-			PrevMeasuredVal = measuredVal;
-			// prevOutput = kp * error;
-			FirstLoop = false;
-		}
-
-		// Calculate the p, i, and d terms and add them to get the output
-		double proportionalVal = calcProportionalVal(Error, Kp);
-		double integralVal = calcIntegralVal(ErrorSum, Ki);
-		double derivativeVal = calcDerivativeVal(measuredVal, PrevMeasuredVal, Kd);
-
-		// Get the output by summing
-		double output = proportionalVal + integralVal + derivativeVal;
-
-		/*
-		 * If the output is constrained (i.e., maxOutput != minOutput), then
-		 * constrain the output.
-		 */
-		if (isOutputConstrained()) {
-			/*
-			 * Ensure output isn't larger than the max value allowed or smaller
-			 * than the min value allowed.
-			 */
-			if (output > OutputMax) {
-				output = OutputMax;
-			}
-			if (output < OutputMin) {
-				output = OutputMin;
-			}
-		}
+		return core.calcOutput(measuredVal);
+	}
+	
+	/**
+	 * Calculates the outputs for a whole batch of measured values in one pass.
+	 * The result is the same as calling calcOutput once per measured value (in
+	 * order), including the ErrorSum, PrevMeasuredVal and FirstLoop state that
+	 * is left behind. Whether the output is constrained is decided once for the
+	 * whole batch, and the loop does not allocate. <br>
+	 * While auto-tuning or using a gain schedule, the values are simply passed
+	 * to calcOutput one at a time. <br>
+	 * In time-scaled mode the samples are assumed to be NominalPeriod apart.
+	 * 
+	 * @param measuredVals:
+	 *            the measured values, oldest first
+	 * @param outputs:
+	 *            array the outputs are written into (at least as long as
+	 *            measuredVals)
+	 */
+	public void calcOutputs(double[] measuredVals, double[] outputs) {
+		core.calcOutputs(measuredVals, outputs);
+	}
 
-		/*
-		 * If the output is larger than output max or less than outputMin (and
-		 * the output is constrained) then reset the errorSum to a reasonable
-		 * level.
-		 */
-		if (isOutputConstrained() &&  (output >= OutputMax || output <= OutputMin)) {
-			//!(output > outputMin && output < outputMax)){
-			// Reset errorSum to reasonable level (just the error).
-			ErrorSum = Error;
-		} else {
-			ErrorSum += Error;
+	/**
+	 * Calculates the outputs for a list of measured values. This is the same
+	 * as calling calcOutput on each item of the list in order.
+	 * 
+	 * @param measuredVals
+	 * @return list of outputs
+	 */
+	@SimpleFunction(description = "Calculate the outputs from the controller for a whole "
+			+ "list of measured values (oldest first). The result is the same as calling "
+			+ "calcOutput on each value in order, but is much faster for long lists, "
+			+ "e.g., when replaying recorded sensor logs.")
+	public YailList calcOutputList(YailList measuredVals) {
+		double[] values = toDoubles(measuredVals);
+		double[] outputs = new double[values.length];
+		calcOutputs(values, outputs);
+		Object[] result = new Object[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			result[i] = outputs[i];
 		}
-
-		// Update the prev. values for next iteration and return the output.
-		PrevMeasuredVal = measuredVal;
-		// prevOutput = output;
-		return output;
+		return YailList.makeList(result);
 	}
 	
 	/**
@@ -158,9 +198,302 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleFunction(description = "Reset the PID Controller. This sets the error and errorSum "
 					+ "to zero, the number of loops to zero (i.e., firstLoop = true).")
 	public void resetController() {
-		this.Error = 0;
-		this.ErrorSum = 0;
-		this.FirstLoop = true;
+		core.reset();
+	}
+	
+	/**
+	 * Starts a relay-feedback auto-tuning experiment. Until it finishes,
+	 * calcOutput switches the output between two levels to make the system
+	 * oscillate, and measures the ultimate gain and period of the
+	 * oscillation. When enough cycles have been measured, the new gains are
+	 * set and AutoTuneComplete is raised.
+	 * 
+	 * @param relayAmplitude:
+	 *            how far the output is switched above and below the center
+	 *            (if zero, half of the OutputMin to OutputMax range is used)
+	 * @param hysteresis:
+	 *            error band in which the output isn't switched (filters noise)
+	 * @param cycles:
+	 *            number of oscillation cycles to measure
+	 * @param rule:
+	 *            "ZieglerNichols" or "TyreusLuyben"
+	 */
+	@SimpleFunction(description = "Start tuning Kp, Ki and Kd automatically. Keep calling calcOutput "
+			+ "(or use startLoop) as usual: the output is switched between two levels to make the "
+			+ "system oscillate, and when the given number of cycles has been measured, the new "
+			+ "gains are set and AutoTuneComplete is raised. The output is switched by relayAmplitude "
+			+ "around the middle of OutputMin and OutputMax (or around zero if the output is not "
+			+ "constrained); if relayAmplitude is zero, half of the output range is used. "
+			+ "The rule is \"ZieglerNichols\" or \"TyreusLuyben\" (less overshoot).")
+	public void autoTune(double relayAmplitude, double hysteresis, int cycles, String rule) {
+		try {
+			core.startAutoTune(relayAmplitude, hysteresis, cycles, rule, autoTuneListener);
+		} catch (IllegalArgumentException e) {
+			Log.e("PIDController", e.getMessage());
+			AutoTuneFailed(e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the auto-tuning experiment (if one is running) without changing
+	 * the gains.
+	 */
+	@SimpleFunction(description = "Stop auto-tuning without changing the gains.")
+	public void cancelAutoTune() {
+		core.cancelAutoTune();
+	}
+
+	/**
+	 * Indicates that auto-tuning finished and the new gains have been set.
+	 * The ultimate period is in calls to calcOutput (or in NominalPeriods when
+	 * TimeScaled is true).
+	 */
+	@SimpleEvent(description = "Auto-tuning finished and the new gains have been set. The ultimate "
+			+ "period is measured in calls to calcOutput (or in NominalPeriods if TimeScaled is true).")
+	public void AutoTuneComplete(double kp, double ki, double kd, double ultimateGain, double ultimatePeriod) {
+		EventDispatcher.dispatchEvent(this, "AutoTuneComplete", kp, ki, kd, ultimateGain, ultimatePeriod);
+	}
+
+	/**
+	 * Indicates that auto-tuning couldn't be completed.
+	 * 
+	 * @param message
+	 */
+	@SimpleEvent(description = "Auto-tuning could not be completed. The gains have not been changed.")
+	public void AutoTuneFailed(String message) {
+		EventDispatcher.dispatchEvent(this, "AutoTuneFailed", message);
+	}
+	
+	/**
+	 * Sets a gain schedule: Kp, Ki and Kd are then interpolated from the given
+	 * lists according to the scheduling variable (the measured value, or the
+	 * value given to setSchedulingValue), instead of using the Kp, Ki and Kd
+	 * properties.
+	 * 
+	 * @param breakpoints:
+	 *            values of the scheduling variable, in increasing order
+	 * @param kps:
+	 *            proportional gain at each breakpoint
+	 * @param kis:
+	 *            integral gain at each breakpoint
+	 * @param kds:
+	 *            derivative gain at each breakpoint
+	 */
+	@SimpleFunction(description = "Use different gains across the operating range. breakpoints is a "
+			+ "list of values of the scheduling variable in increasing order, and kps, kis and kds give "
+			+ "the gains at each breakpoint. Between breakpoints the gains are interpolated; outside "
+			+ "them the first or last gains are used. The scheduling variable is the measured value, "
+			+ "or the value given to setSchedulingValue if ScheduleOnMeasuredValue is false.")
+	public void setGainSchedule(YailList breakpoints, YailList kps, YailList kis, YailList kds) {
+		setGainSchedule(toDoubles(breakpoints), toDoubles(kps), toDoubles(kis), toDoubles(kds));
+	}
+
+	/**
+	 * Sets a gain schedule (see setGainSchedule(YailList, ...)). The arrays
+	 * are copied. If they are invalid, an error is logged and the previous
+	 * schedule is kept.
+	 */
+	public void setGainSchedule(double[] breakpoints, double[] kps, double[] kis, double[] kds) {
+		try {
+			core.setGainSchedule(breakpoints, kps, kis, kds);
+		} catch (IllegalArgumentException e) {
+			Log.e("PIDController", e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the gain schedule, going back to the Kp, Ki and Kd properties.
+	 */
+	@SimpleFunction(description = "Stop using the gain schedule and go back to Kp, Ki and Kd.")
+	public void clearGainSchedule() {
+		core.clearGainSchedule();
+	}
+
+	/**
+	 * Sets the scheduling variable used to look up gains in the gain schedule
+	 * when ScheduleOnMeasuredValue is false.
+	 * 
+	 * @param schedulingValue
+	 */
+	@SimpleFunction(description = "Set the value used to look up the gains in the gain schedule, "
+			+ "when ScheduleOnMeasuredValue is false (e.g., the speed or load of the system).")
+	public void setSchedulingValue(double schedulingValue) {
+		core.setSchedulingValue(schedulingValue);
+	}
+	
+	/**
+	 * Returns the most recent telemetry samples, oldest first. Each sample is
+	 * a list of: time (ms, relative to the first sample returned), setpoint,
+	 * measured value, error, proportional value, integral value, derivative
+	 * value, output and the time since the previous sample (ms).
+	 * 
+	 * @param count:
+	 *            maximum number of samples to return
+	 * @return list of samples
+	 */
+	@SimpleFunction(description = "Get up to count of the most recent samples recorded while "
+			+ "TelemetrySize is greater than zero, oldest first. Each sample is a list of: time (ms), "
+			+ "setpoint, measured value, error, proportional value, integral value, derivative value, "
+			+ "output, and time since the previous sample (ms).")
+	public YailList getTelemetry(int count) {
+		PIDTelemetry currentTelemetry = core.getTelemetry();
+		if (currentTelemetry == null) {
+			return YailList.makeList(new Object[0]);
+		}
+		double[][] rows = currentTelemetry.snapshot(count);
+		Object[] samples = new Object[rows.length];
+		for (int k = 0; k < rows.length; k++) {
+			Object[] sample = new Object[rows[k].length];
+			for (int f = 0; f < sample.length; f++) {
+				sample[f] = rows[k][f];
+			}
+			samples[k] = YailList.makeList(sample);
+		}
+		return YailList.makeList(samples);
+	}
+
+	/**
+	 * Returns statistics over the telemetry samples currently recorded, as a
+	 * list of (name, value) pairs.
+	 * 
+	 * @return list of pairs
+	 */
+	@SimpleFunction(description = "Get statistics over the samples recorded while TelemetrySize is "
+			+ "greater than zero, as a list of pairs: Samples, RMSError, Overshoot, OvershootPercent, "
+			+ "SettlingTime (ms, or -1 if not settled within SettlingBand), MeanInterval (ms) and "
+			+ "P99Interval (ms, the 99th percentile of the time between samples).")
+	public YailList getTelemetryStats() {
+		PIDTelemetry currentTelemetry = core.getTelemetry();
+		PIDTelemetry.Stats stats = currentTelemetry == null ? new PIDTelemetry.Stats()
+				: currentTelemetry.stats(SettlingBand);
+		return YailList.makeList(new Object[] {
+				pair("Samples", stats.samples),
+				pair("RMSError", stats.rmsError),
+				pair("Overshoot", stats.overshoot),
+				pair("OvershootPercent", stats.overshootPercent),
+				pair("SettlingTime", stats.settlingTime),
+				pair("MeanInterval", stats.meanInterval),
+				pair("P99Interval", stats.p99Interval) });
+	}
+
+	/**
+	 * Removes all recorded telemetry samples.
+	 */
+	@SimpleFunction(description = "Remove all recorded telemetry samples.")
+	public void clearTelemetry() {
+		PIDTelemetry currentTelemetry = core.getTelemetry();
+		if (currentTelemetry != null) {
+			currentTelemetry.clear();
+		}
+	}
+	
+	/**
+	 * Starts the fixed-rate loop. A dedicated high priority thread calls
+	 * calcOutput LoopRate times per second, taking the measured value from the
+	 * registered sampler (or the latest value given to setMeasuredValue), and
+	 * reports each output through the GotOutput event.
+	 */
+	@SimpleFunction(description = "Start running the controller on its own at LoopRate times per second. "
+			+ "Each tick uses the latest value given to setMeasuredValue and reports the output with "
+			+ "the GotOutput event. This does not depend on a Clock component or on the screen being idle.")
+	public synchronized void startLoop() {
+		if (loopRunning) {
+			return;
+		}
+		OverrunCount = 0;
+		JitterCount = 0;
+		MaxJitterNanos = 0;
+		loopRunning = true;
+		loopThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runLoop();
+			}
+		}, "PIDController loop");
+		loopThread.start();
+	}
+
+	/**
+	 * Stops the fixed-rate loop (if it is running) and waits for the loop
+	 * thread to finish its current tick.
+	 */
+	@SimpleFunction(description = "Stop the loop started with startLoop.")
+	public synchronized void stopLoop() {
+		Thread thread = loopThread;
+		loopRunning = false;
+		loopThread = null;
+		if (thread != null && thread != Thread.currentThread()) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Sets the measured value that the fixed-rate loop will use on its next
+	 * tick. This is ignored if a sampler has been registered.
+	 * 
+	 * @param measuredVal
+	 */
+	@SimpleFunction(description = "Set the measured value used by the loop started with startLoop. "
+			+ "Call this whenever a new sensor reading is available.")
+	public void setMeasuredValue(double measuredVal) {
+		this.SampledVal = measuredVal;
+	}
+
+	/**
+	 * Registers the sampler the fixed-rate loop pulls measured values from.
+	 * Pass null to go back to the value given to setMeasuredValue.
+	 * 
+	 * @param sampler
+	 */
+	public void setSampler(Sampler sampler) {
+		this.sampler = sampler;
+	}
+
+	/**
+	 * Registers a listener that receives every output of the fixed-rate loop
+	 * on the loop thread. The GotOutput event is still raised.
+	 * 
+	 * @param listener
+	 */
+	public void setOutputListener(OutputListener listener) {
+		this.outputListener = listener;
+	}
+
+	/**
+	 * Indicates that the fixed-rate loop calculated a new output. If the UI
+	 * thread is busy, outputs are coalesced and only the latest is reported.
+	 * 
+	 * @param output
+	 */
+	@SimpleEvent(description = "The loop started with startLoop calculated a new output. "
+			+ "If the app is busy, only the most recent output is reported.")
+	public void GotOutput(double output) {
+		EventDispatcher.dispatchEvent(this, "GotOutput", output);
+	}
+
+	@Override
+	public void onDestroy() {
+		stopLoop();
+	}
+	
+	/**
+	 * Sets all three gains at once, so a calculation on another thread sees
+	 * either all of the old gains or all of the new ones. Negative gains are
+	 * reset to positive values.
+	 * 
+	 * @param kp
+	 * @param ki
+	 * @param kd
+	 */
+	@SimpleFunction(description = "Set the proportional, integral and derivative gains together. "
+			+ "Negative gains are reset to positive values.")
+	public void setGains(double kp, double ki, double kd) {
+		core.setGains(kp, ki, kd);
 	}
 	
 	/**
@@ -174,16 +507,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 			+ "output is constrained by outputMax and outputMin. If outputMax and outputMin are "
 			+ "equal, then it is assumed that the output is unconstrained (returns false).")
 	public boolean isOutputConstrained() {
-		boolean constrained = false;
-		/*
-		 * if the difference between outputMax and outputMin is greater than
-		 * 0.01% of outputMax, then outputMax and outputMin are considered
-		 * different, and the output is constrained.
-		 */
-		if (Math.abs(OutputMax - OutputMin) > Math.abs(0.0001 * OutputMax)) {
-			constrained = true;
-		}
-		return constrained;
+		return core.isOutputConstrained();
 	}
 	
 	/*
@@ -191,91 +515,153 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	 */
 	 
 	/**
-	 * Tests whether the outputMin value is less than or equal to the outputMax
-	 * value. It uses the instance variables outputMin and outputMax from this
-	 * object. If outputMin is greater than outputMax, then an error message is
-	 * generated.
-	 * 
-	 * @return correct: if min < max, then correct = true
-	 * 
-	 * TODO: unclear if this actually works or not... need to test!
-	 * --> unsure if the Log.e and/or runtimeexception is correct...
-	 */
-	private boolean testOutputMinMax() {
-		boolean correct = true;
-		if (this.OutputMin > this.OutputMax) {
-			Log.e("PIDController", "OutputMin is greater than OutputMax. "
-					+ "Resetting OutputMin and OutputMax to zero. "
-					+ "To avoid this error, if upper bound is greater than zero, set OutputMax first."
-					+ "If lower bound is less than zero, set OutputMin first.");
-			this.OutputMax = 0;
-			this.OutputMin = 0;
-			correct = false;
-			new RuntimeException().printStackTrace();
-		}
-		return correct;
+	 * Logs the error for an outputMin value that is greater than the
+	 * outputMax value (in which case both have been reset to zero).
+	 */
+	private void logOutputMinMaxError() {
+		Log.e("PIDController", "OutputMin is greater than OutputMax. "
+				+ "Resetting OutputMin and OutputMax to zero. "
+				+ "To avoid this error, if upper bound is greater than zero, set OutputMax first."
+				+ "If lower bound is less than zero, set OutputMin first.");
 	}
 	
 	/**
-	 * Returns the error based on the provided actual value (measuredValue) and
-	 * the provided setpoint. Current implementation just subtracts the two
-	 * values: setpoint - measuredValue. <br>
-	 * Note that this does NOT set the error instance variable.
-	 * 
-	 * @param measuredValue:
-	 *            the actual value (often read by a sensor)
-	 * @param setpoint:
-	 *            the setpoint determined by the user or external source
-	 * @return error
+	 * Body of the fixed-rate loop thread. Ticks are scheduled against absolute
+	 * deadlines so that a late tick doesn't push back every following tick. A
+	 * tick that starts a whole period late is counted as an overrun and the
+	 * missed ticks are skipped; one that starts more than JITTER_TOLERANCE of a
+	 * period late is counted as jitter. If a tick throws (e.g., the sampler),
+	 * the error is logged and the loop stops, so startLoop can start it again.
 	 */
-	private double calcError(double setpoint, double measuredValue) {
-		return setpoint - measuredValue;
+	private void runLoop() {
+		try {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+			final long period = (long) (1e9 / LoopRate);
+			final long jitterTolerance = (long) (period * JITTER_TOLERANCE);
+			long deadline = System.nanoTime() + period;
+			while (loopRunning) {
+				long now = System.nanoTime();
+				while (now < deadline && loopRunning) {
+					LockSupport.parkNanos(deadline - now);
+					now = System.nanoTime();
+				}
+				if (!loopRunning) {
+					break;
+				}
+
+				long lateness = now - deadline;
+				if (lateness > MaxJitterNanos) {
+					MaxJitterNanos = lateness;
+				}
+				if (lateness >= period) {
+					OverrunCount++;
+					// Skip the missed ticks rather than running them back to back.
+					deadline += (lateness / period) * period;
+				} else if (lateness > jitterTolerance) {
+					JitterCount++;
+				}
+				deadline += period;
+
+				Sampler currentSampler = sampler;
+				double measuredVal = currentSampler != null ? currentSampler.sample() : SampledVal;
+				double output = calcOutput(measuredVal);
+
+				OutputListener listener = outputListener;
+				if (listener != null) {
+					listener.onOutput(output);
+				}
+				LoopOutput = output;
+				// Only post to the UI thread if the previous output has been delivered.
+				if (outputPending.compareAndSet(false, true)) {
+					form.runOnUiThread(dispatchOutput);
+				}
+			}
+		} catch (RuntimeException e) {
+			// e.g., from the sampler or the output listener
+			Log.e("PIDController", "The loop stopped because of an error.", e);
+		} finally {
+			if (loopRunning) {
+				// the loop ended on its own: let LoopRunning and startLoop know
+				synchronized (this) {
+					if (loopThread == Thread.currentThread()) {
+						loopRunning = false;
+						loopThread = null;
+					}
+				}
+			}
+		}
 	}
-	
+
 	/**
-	 * Returns the "proportional value" based on the current error and provided
-	 * proportional gain. This proportional value is summed with the integral
-	 * value and derivative value to calculate the output.
-	 * 
-	 * @param error
-	 * @param kp
-	 * @return proportional value
+	 * Raises GotOutput with the latest loop output. Reused for every tick so
+	 * that the loop doesn't allocate.
 	 */
-	private double calcProportionalVal(double error, double kp) {
-		return kp * error;
-	}
-	
+	private final Runnable dispatchOutput = new Runnable() {
+		@Override
+		public void run() {
+			outputPending.set(false);
+			GotOutput(LoopOutput);
+		}
+	};
+
+	/**
+	 * Reports the result of auto-tuning on the UI thread (calcOutput may be
+	 * running on the fixed-rate loop thread).
+	 */
+	private final PIDCore.AutoTuneListener autoTuneListener = new PIDCore.AutoTuneListener() {
+		@Override
+		public void onAutoTuneComplete(final double kp, final double ki, final double kd,
+				final double ultimateGain, final double ultimatePeriod) {
+			form.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					AutoTuneComplete(kp, ki, kd, ultimateGain, ultimatePeriod);
+				}
+			});
+		}
+
+		@Override
+		public void onAutoTuneFailed(final String message) {
+			form.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					AutoTuneFailed(message);
+				}
+			});
+		}
+	};
+
 	/**
-	 * Returns the "integral value" based on the current error sum and provided
-	 * integral gain. This integral value is summed with the proportional value
-	 * and derivative value to calculate the output.
+	 * Converts a YailList of numbers into a double array.
 	 * 
-	 * @param errorSum:
-	 *            sum of the error up until this point.
-	 * @param ki:
-	 *            integral gain.
-	 * @return: integral value
+	 * @param list
+	 * @return values
 	 */
-	private double calcIntegralVal(double errorSum, double ki) {
-		return ki * errorSum;
+	private static double[] toDoubles(YailList list) {
+		Object[] items = list.toArray();
+		double[] values = new double[items.length];
+		for (int i = 0; i < items.length; i++) {
+			values[i] = toDouble(items[i]);
+		}
+		return values;
 	}
-	
+
+	private static YailList pair(String name, Object value) {
+		return YailList.makeList(new Object[] { name, value });
+	}
+
 	/**
-	 * Returns the "derivative value" based on the current measured/actual
-	 * value, the previous measured/actual value, and the provided derivative
-	 * gain. This derivative value is summed with the proportional value and
-	 * integral value to calculate the output.
+	 * Converts an item from a YailList (a number or a numeric string) into a
+	 * double.
 	 * 
-	 * @param measuredValue:
-	 *            current actual measured value.
-	 * @param prevMeasuredVal:
-	 *            previous actual measured value.
-	 * @param kd:
-	 *            derivative gain.
-	 * @return: derivative value
+	 * @param item
+	 * @return value
 	 */
-	private double calcDerivativeVal(double measuredValue, double prevMeasuredValue, double kd) {
-		return -1 * kd * (measuredValue - prevMeasuredValue);
+	private static double toDouble(Object item) {
+		if (item instanceof Number) {
+			return ((Number) item).doubleValue();
+		}
+		return Double.parseDouble(item.toString().trim());
 	}
 	
 	/*
@@ -284,28 +670,94 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	// Property Getters
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double Kp() {
-		return Kp;
+		return core.getKp();
 	}
 
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double Ki() {
-		return Ki;
+		return core.getKi();
 	}
 
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double Kd() {
-		return Kd;
+		return core.getKd();
 	}
 
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double Setpoint() {
-		return Setpoint;
+		return core.getSetpoint();
 	}
 	
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Get "
 			+ "the current error between the measured value and the setpoint.")
 	public double Error(){
-		return Error;
+		return core.getError();
+	}
+	
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public double LoopRate() {
+		return LoopRate;
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Get whether the loop "
+			+ "started with startLoop is running. It stops on its own if a tick fails.")
+	public boolean LoopRunning() {
+		return loopRunning;
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Get the number of "
+			+ "ticks of the loop started with startLoop that were at least a whole period late.")
+	public int OverrunCount() {
+		return OverrunCount;
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Get the number of "
+			+ "ticks of the loop started with startLoop that started noticeably late "
+			+ "(more than a tenth of a period), but less than a whole period late.")
+	public int JitterCount() {
+		return JitterCount;
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Get the largest "
+			+ "delay (in milliseconds) of a tick of the loop started with startLoop.")
+	public double MaxJitter() {
+		return MaxJitterNanos / 1e6;
+	}
+	
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public boolean TimeScaled() {
+		return core.isTimeScaled();
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public double NominalPeriod() {
+		return core.getNominalPeriod();
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public double DerivativeFilter() {
+		return core.getDerivativeFilter();
+	}
+	
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "Returns true while "
+			+ "auto-tuning is in progress.")
+	public boolean IsAutoTuning() {
+		return core.isAutoTuning();
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public boolean ScheduleOnMeasuredValue() {
+		return core.isScheduleOnMeasuredValue();
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public int TelemetrySize() {
+		return core.getTelemetrySize();
+	}
+
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public double SettlingBand() {
+		return SettlingBand;
 	}
 	
 	/**
@@ -318,7 +770,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	 */
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double OutputMax() {
-		return OutputMax;
+		return core.getOutputMax();
 	}
 	
 	/**
@@ -331,7 +783,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	 */
 	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
 	public double OutputMin() {
-		return OutputMin;
+		return core.getOutputMin();
 	}
 
 	// Property Setters
@@ -347,7 +799,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleProperty(description = "Set the proportional gain, Kp." +
 			"Note that if the parameter kp is negative, it will be reset to a positive value.")
 	public void Kp(double kp) {
-		this.Kp = Math.abs(kp);
+		core.setKp(kp);
 	}
 
 	/**
@@ -361,7 +813,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleProperty(description = "Set the integral gain, Ki." +
 			"Note that if the parameter ki is negative, it will be reset to a positive value.")
 	public void Ki(double ki) {
-		this.Ki = Math.abs(ki);
+		core.setKi(ki);
 	}
 	
 	/**
@@ -375,7 +827,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleProperty(description = "Set the derivative gain, Kd." +
 			"Note that if the parameter kd is negative, it will be reset to a positive value.")
 	public void Kd(double kd) {
-		this.Kd = Math.abs(kd);
+		core.setKd(kd);
 	}
 	
 	/**
@@ -387,7 +839,7 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 			+ "")
 	@SimpleProperty(description = "Set the setpoint or 'target value' of the system.")
 	public void Setpoint(double setpoint) {
-		this.Setpoint = setpoint;
+		core.setSetpoint(setpoint);
 	}
 	
 	/**
@@ -403,8 +855,9 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleProperty(description = "Set the maximum value for the output that will be returned by the PID."
 			+ "\n If outputMax and outputMin are equal, then the output is assumed to be unconstrained.")
 	public void OutputMax(double outputMax) {
-		this.OutputMax = outputMax;
-		testOutputMinMax();
+		if (!core.setOutputMax(outputMax)) {
+			logOutputMinMaxError();
+		}
 	}
 	
 	/**
@@ -420,7 +873,122 @@ public class PIDController extends AndroidNonvisibleComponent implements Compone
 	@SimpleProperty(description = "Set the minimum value for the output that will be returned by the PID."
 			+ "\n If outputMax and outputMin are equal, then the output is assumed to be unconstrained.")
 	public void OutputMin(double outputMin) {
-		this.OutputMin = outputMin;
-		testOutputMinMax();
+		if (!core.setOutputMin(outputMin)) {
+			logOutputMinMaxError();
+		}
+	}
+	
+	/**
+	 * Sets the rate (in ticks per second) of the loop started with startLoop.
+	 * If the loop is already running, it is restarted at the new rate.
+	 * 
+	 * @param loopRate
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_FLOAT, defaultValue = PIDController.DEFAULT_LOOPRATE
+			+ "")
+	@SimpleProperty(description = "Set the number of times per second the loop started with "
+			+ "startLoop calculates a new output.")
+	public void LoopRate(double loopRate) {
+		if (loopRate <= 0) {
+			Log.e("PIDController", "LoopRate must be greater than zero. Using " + DEFAULT_LOOPRATE + " instead.");
+			loopRate = DEFAULT_LOOPRATE;
+		}
+		this.LoopRate = loopRate;
+		if (loopRunning) {
+			stopLoop();
+			startLoop();
+		}
+	}
+	
+	/**
+	 * Turns time-scaled mode on or off. In time-scaled mode each call to
+	 * calcOutput is timestamped, and the integral and derivative terms are
+	 * scaled by the real time since the previous call.
+	 * 
+	 * @param timeScaled
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = PIDController.DEFAULT_TIMESCALED
+			+ "")
+	@SimpleProperty(description = "If true, the integral and derivative terms are scaled by the real "
+			+ "time between calls to calcOutput, so the controller stays stable when calls are late "
+			+ "or when it is run at a slower rate. The gains are tuned for calls NominalPeriod seconds apart.")
+	public void TimeScaled(boolean timeScaled) {
+		core.setTimeScaled(timeScaled);
+	}
+
+	/**
+	 * Sets the expected time between calls to calcOutput (in seconds), used in
+	 * time-scaled mode.
+	 * 
+	 * @param nominalPeriod
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_FLOAT, defaultValue = PIDController.DEFAULT_NOMINALPERIOD
+			+ "")
+	@SimpleProperty(description = "Set the expected time (in seconds) between calls to calcOutput. "
+			+ "Only used when TimeScaled is true.")
+	public void NominalPeriod(double nominalPeriod) {
+		if (nominalPeriod <= 0) {
+			Log.e("PIDController", "NominalPeriod must be greater than zero. Using " + DEFAULT_NOMINALPERIOD + " instead.");
+			nominalPeriod = DEFAULT_NOMINALPERIOD;
+		}
+		core.setNominalPeriod(nominalPeriod);
+	}
+
+	/**
+	 * Sets the time constant (in seconds) of the low-pass filter on the
+	 * derivative term, used in time-scaled mode. Zero turns the filter off.
+	 * 
+	 * @param derivativeFilter
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_FLOAT, defaultValue = PIDController.DEFAULT_DERIVATIVEFILTER
+			+ "")
+	@SimpleProperty(description = "Set the time constant (in seconds) of a low-pass filter on the "
+			+ "derivative term, which smooths out noisy measurements. Zero turns the filter off. "
+			+ "Only used when TimeScaled is true.")
+	public void DerivativeFilter(double derivativeFilter) {
+		core.setDerivativeFilter(derivativeFilter);
+	}
+	
+	/**
+	 * Sets how many of the most recent samples are recorded for tuning. Zero
+	 * switches recording off. Changing the size clears the recorded samples.
+	 * 
+	 * @param telemetrySize
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = PIDController.DEFAULT_TELEMETRYSIZE
+			+ "")
+	@SimpleProperty(description = "Set how many of the most recent samples (error, P/I/D values, "
+			+ "output and timing) are recorded for tuning. Zero switches recording off.")
+	public void TelemetrySize(int telemetrySize) {
+		core.setTelemetrySize(telemetrySize);
+	}
+
+	/**
+	 * Sets the fraction of the first recorded error that the error must stay
+	 * within for the loop to count as settled.
+	 * 
+	 * @param settlingBand
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_FLOAT, defaultValue = PIDController.DEFAULT_SETTLINGBAND
+			+ "")
+	@SimpleProperty(description = "Set the fraction of the first recorded error (e.g., 0.02 for 2%) that "
+			+ "the error must stay within to count as settled in getTelemetryStats.")
+	public void SettlingBand(double settlingBand) {
+		this.SettlingBand = Math.abs(settlingBand);
+	}
+
+	/**
+	 * Sets whether the measured value (true) or the value given to
+	 * setSchedulingValue (false) is used to look up gains in the gain
+	 * schedule.
+	 * 
+	 * @param scheduleOnMeasuredValue
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = PIDController.DEFAULT_SCHEDULEONMEASUREDVALUE
+			+ "")
+	@SimpleProperty(description = "If true, the gain schedule is looked up with the measured value. "
+			+ "If false, it is looked up with the value given to setSchedulingValue.")
+	public void ScheduleOnMeasuredValue(boolean scheduleOnMeasuredValue) {
+		core.setScheduleOnMeasuredValue(scheduleOnMeasuredValue);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,386 @@
+package com.PIDController;
+/*
+ * Author: Jessica Van Brummelen
+ * Email: jess.vanbrummelen AT gmail.com
+ */
+
+import com.google.appinventor.components.annotations.DesignerComponent;
+import com.google.appinventor.components.annotations.DesignerProperty;
+import com.google.appinventor.components.annotations.PropertyCategory;
+import com.google.appinventor.components.annotations.SimpleFunction;
+import com.google.appinventor.components.annotations.SimpleObject;
+import com.google.appinventor.components.annotations.SimpleProperty;
+import com.google.appinventor.components.common.ComponentCategory;
+import com.google.appinventor.components.common.PropertyTypeConstants;
+import com.google.appinventor.components.runtime.util.YailList;
+import com.google.appinventor.components.runtime.*;
+
+import android.util.Log;
+
+@DesignerComponent(version = PIDControllerBank.VERSION, description = "An extension to control many systems at once "
+		+ "with a bank of independent PID controllers. Each loop has its own gains, setpoint and output limits, "
+		+ "and behaves exactly like a single PIDController. Loops are numbered from 1 to LoopCount.", category = ComponentCategory.EXTENSION, nonVisible = true, iconName = "images/extension.png")
+@SimpleObject(external = true)
+public class PIDControllerBank extends AndroidNonvisibleComponent implements Component {
+
+	public static final int VERSION = 1;
+	public static final int DEFAULT_LOOPCOUNT = 1;
+
+	private ComponentContainer container;
+	private int LoopCount;
+	/*
+	 * The state of every loop is held in parallel arrays indexed by loop id
+	 * (0-based internally), so that one tick walks each array sequentially.
+	 */
+	// Whether each loop is completing its first iteration:
+	private boolean[] FirstLoop;
+	// Controller gains (proportional, integral, derivative):
+	private double[] Kp;
+	private double[] Ki;
+	private double[] Kd;
+	// Controller target values:
+	private double[] Setpoint;
+	// Constraints on the output values:
+	private double[] OutputMax;
+	private double[] OutputMin;
+	// Cached result of isOutputConstrained for each loop:
+	private boolean[] Constrained;
+	// Error between the actual and measured values:
+	private double[] Error;
+	// Sum of the error to compute integral output values:
+	private double[] ErrorSum;
+	// Measured values from previous iteration:
+	private double[] PrevMeasuredVal;
+
+	/**
+	 * Creates a new PIDControllerBank with a single unconstrained loop.
+	 */
+	public PIDControllerBank(ComponentContainer container) {
+		super(container.$form());
+		this.container = container;
+
+		LoopCount(DEFAULT_LOOPCOUNT);
+	}
+
+	/*
+	 * ******** PID Methods (Public) ********
+	 */
+	/**
+	 * Calculates the outputs of every loop in one pass. measuredVals[i] is the
+	 * measured value for loop i (0-based) and outputs[i] receives its output.
+	 * Each loop's math is identical to PIDController.calcOutput. This method
+	 * does not allocate.
+	 *
+	 * @param measuredVals:
+	 *            one measured value per loop
+	 * @param outputs:
+	 *            array the outputs are written into
+	 */
+	public void calcOutputs(double[] measuredVals, double[] outputs) {
+		final int n = LoopCount;
+		if (measuredVals.length < n || outputs.length < n) {
+			throw new IllegalArgumentException("Expected " + n + " measured values and outputs.");
+		}
+		final boolean[] firstLoop = FirstLoop;
+		final double[] kp = Kp;
+		final double[] ki = Ki;
+		final double[] kd = Kd;
+		final double[] setpoint = Setpoint;
+		final double[] outputMax = OutputMax;
+		final double[] outputMin = OutputMin;
+		final boolean[] constrained = Constrained;
+		final double[] errors = Error;
+		final double[] errorSum = ErrorSum;
+		final double[] prevMeasuredVal = PrevMeasuredVal;
+
+		for (int i = 0; i < n; i++) {
+			double measuredVal = measuredVals[i];
+			double error = setpoint[i] - measuredVal;
+			if (firstLoop[i]) {
+				prevMeasuredVal[i] = measuredVal;
+				firstLoop[i] = false;
+			}
+			double output = kp[i] * error + ki[i] * errorSum[i] - kd[i] * (measuredVal - prevMeasuredVal[i]);
+			if (constrained[i]) {
+				double max = outputMax[i];
+				double min = outputMin[i];
+				if (output > max) {
+					output = max;
+				}
+				if (output < min) {
+					output = min;
+				}
+				// Anti-windup: reset errorSum to just the error when saturated.
+				if (output >= max || output <= min) {
+					errorSum[i] = error;
+				} else {
+					errorSum[i] += error;
+				}
+			} else {
+				errorSum[i] += error;
+			}
+			errors[i] = error;
+			prevMeasuredVal[i] = measuredVal;
+			outputs[i] = output;
+		}
+	}
+
+	/**
+	 * Calculates the outputs of every loop for one tick.
+	 *
+	 * @param measuredVals:
+	 *            list with one measured value per loop
+	 * @return list of outputs, one per loop, or an empty list if the number
+	 *         of measured values isn't LoopCount
+	 */
+	@SimpleFunction(description = "Calculate the outputs of every loop for one tick. "
+			+ "The list of measured values must contain one value per loop (in loop order), "
+			+ "and a list with one output per loop is returned. If it doesn't, no loop is "
+			+ "updated and an empty list is returned.")
+	public YailList calcOutputList(YailList measuredVals) {
+		Object[] items = measuredVals.toArray();
+		if (items.length != LoopCount) {
+			// the values can't be matched to the loops, so no loop is touched
+			Log.e("PIDControllerBank", "Expected " + LoopCount + " measured values but got " + items.length
+					+ ". No outputs were calculated.");
+			return YailList.makeList(new Object[0]);
+		}
+		double[] values = new double[LoopCount];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = toDouble(items[i]);
+		}
+		double[] outputs = new double[LoopCount];
+		calcOutputs(values, outputs);
+		Object[] result = new Object[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			result[i] = outputs[i];
+		}
+		return YailList.makeList(result);
+	}
+
+	/**
+	 * Calculates the output of a single loop, exactly like
+	 * PIDController.calcOutput.
+	 *
+	 * @param loop:
+	 *            loop number (1 to LoopCount)
+	 * @param measuredVal
+	 * @return output, or 0 if there is no such loop
+	 */
+	@SimpleFunction(description = "Calculate the output of a single loop (1 to LoopCount) "
+			+ "from its current measured value.")
+	public double calcOutput(int loop, double measuredVal) {
+		int i = index(loop);
+		if (i < 0) {
+			return 0;
+		}
+		double error = Setpoint[i] - measuredVal;
+		if (FirstLoop[i]) {
+			PrevMeasuredVal[i] = measuredVal;
+			FirstLoop[i] = false;
+		}
+		double output = Kp[i] * error + Ki[i] * ErrorSum[i] - Kd[i] * (measuredVal - PrevMeasuredVal[i]);
+		if (Constrained[i]) {
+			if (output > OutputMax[i]) {
+				output = OutputMax[i];
+			}
+			if (output < OutputMin[i]) {
+				output = OutputMin[i];
+			}
+		}
+		if (Constrained[i] && (output >= OutputMax[i] || output <= OutputMin[i])) {
+			ErrorSum[i] = error;
+		} else {
+			ErrorSum[i] += error;
+		}
+		Error[i] = error;
+		PrevMeasuredVal[i] = measuredVal;
+		return output;
+	}
+
+	/**
+	 * Resets a single loop. This sets its error and errorSum to zero and
+	 * firstLoop to true.
+	 *
+	 * @param loop:
+	 *            loop number (1 to LoopCount)
+	 */
+	@SimpleFunction(description = "Reset a single loop (1 to LoopCount). This sets its error and "
+			+ "errorSum to zero, the number of loops to zero (i.e., firstLoop = true).")
+	public void resetController(int loop) {
+		int i = index(loop);
+		if (i < 0) {
+			return;
+		}
+		Error[i] = 0;
+		ErrorSum[i] = 0;
+		FirstLoop[i] = true;
+	}
+
+	/**
+	 * Resets every loop in the bank.
+	 */
+	@SimpleFunction(description = "Reset every loop in the bank.")
+	public void resetAll() {
+		for (int i = 0; i < LoopCount; i++) {
+			Error[i] = 0;
+			ErrorSum[i] = 0;
+			FirstLoop[i] = true;
+		}
+	}
+
+	/**
+	 * Sets the gains of a single loop. Negative gains are reset to positive
+	 * values, as in PIDController.
+	 */
+	@SimpleFunction(description = "Set the proportional, integral and derivative gains of a "
+			+ "single loop (1 to LoopCount). Negative gains are reset to positive values.")
+	public void setGains(int loop, double kp, double ki, double kd) {
+		int i = index(loop);
+		if (i < 0) {
+			return;
+		}
+		Kp[i] = Math.abs(kp);
+		Ki[i] = Math.abs(ki);
+		Kd[i] = Math.abs(kd);
+	}
+
+	/**
+	 * Sets the setpoint (or "target") of a single loop.
+	 */
+	@SimpleFunction(description = "Set the setpoint or 'target value' of a single loop (1 to LoopCount).")
+	public void setSetpoint(int loop, double setpoint) {
+		int i = index(loop);
+		if (i < 0) {
+			return;
+		}
+		Setpoint[i] = setpoint;
+	}
+
+	/**
+	 * Sets the output limits of a single loop. If outputMax and outputMin are
+	 * equal, then the output of the loop is assumed to be unconstrained.
+	 */
+	@SimpleFunction(description = "Set the minimum and maximum output of a single loop (1 to LoopCount). "
+			+ "If outputMax and outputMin are equal, then the output is assumed to be unconstrained.")
+	public void setOutputLimits(int loop, double outputMin, double outputMax) {
+		int i = index(loop);
+		if (i < 0) {
+			return;
+		}
+		if (outputMin > outputMax) {
+			Log.e("PIDControllerBank", "OutputMin is greater than OutputMax for loop " + loop
+					+ ". Resetting OutputMin and OutputMax to zero.");
+			outputMin = 0;
+			outputMax = 0;
+		}
+		OutputMin[i] = outputMin;
+		OutputMax[i] = outputMax;
+		// Same test as PIDController.isOutputConstrained.
+		Constrained[i] = Math.abs(outputMax - outputMin) > Math.abs(0.0001 * outputMax);
+	}
+
+	@SimpleFunction(description = "Get the current error of a single loop (1 to LoopCount).")
+	public double getError(int loop) {
+		int i = index(loop);
+		return i < 0 ? 0 : Error[i];
+	}
+
+	@SimpleFunction(description = "Get the setpoint of a single loop (1 to LoopCount).")
+	public double getSetpoint(int loop) {
+		int i = index(loop);
+		return i < 0 ? 0 : Setpoint[i];
+	}
+
+	/*
+	 * ******** Helper Methods (Private) ********
+	 */
+
+	/**
+	 * Converts a 1-based loop number into an array index. An invalid loop
+	 * number is logged, and the caller does nothing (or returns zero).
+	 *
+	 * @param loop
+	 * @return index, or -1 if there is no such loop
+	 */
+	private int index(int loop) {
+		if (loop < 1 || loop > LoopCount) {
+			Log.e("PIDControllerBank", "Loop " + loop + " is not between 1 and " + LoopCount
+					+ ". The call was ignored.");
+			return -1;
+		}
+		return loop - 1;
+	}
+
+	/**
+	 * Converts an item from a YailList (a number or a numeric string) into a
+	 * double.
+	 *
+	 * @param item
+	 * @return value
+	 */
+	private static double toDouble(Object item) {
+		if (item instanceof Number) {
+			return ((Number) item).doubleValue();
+		}
+		return Double.parseDouble(item.toString().trim());
+	}
+
+	/*
+	 * ******** Getters and Setters ********
+	 */
+	@SimpleProperty(category = PropertyCategory.BEHAVIOR)
+	public int LoopCount() {
+		return LoopCount;
+	}
+
+	/**
+	 * Sets the number of loops in the bank. Existing loops keep their
+	 * settings and state; new loops start with zero gains and no output
+	 * limits.
+	 *
+	 * @param loopCount
+	 */
+	@DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = PIDControllerBank.DEFAULT_LOOPCOUNT
+			+ "")
+	@SimpleProperty(description = "Set the number of independent loops in the bank. "
+			+ "Existing loops keep their settings; new loops start with zero gains.")
+	public void LoopCount(int loopCount) {
+		if (loopCount < 0) {
+			loopCount = 0;
+		}
+		FirstLoop = resize(FirstLoop, loopCount, true);
+		Kp = resize(Kp, loopCount);
+		Ki = resize(Ki, loopCount);
+		Kd = resize(Kd, loopCount);
+		Setpoint = resize(Setpoint, loopCount);
+		OutputMax = resize(OutputMax, loopCount);
+		OutputMin = resize(OutputMin, loopCount);
+		Constrained = resize(Constrained, loopCount, false);
+		Error = resize(Error, loopCount);
+		ErrorSum = resize(ErrorSum, loopCount);
+		PrevMeasuredVal = resize(PrevMeasuredVal, loopCount);
+		LoopCount = loopCount;
+	}
+
+	private static double[] resize(double[] old, int length) {
+		double[] resized = new double[length];
+		if (old != null) {
+			System.arraycopy(old, 0, resized, 0, Math.min(old.length, length));
+		}
+		return resized;
+	}
+
+	private static boolean[] resize(boolean[] old, int length, boolean fill) {
+		boolean[] resized = new boolean[length];
+		int copied = 0;
+		if (old != null) {
+			copied = Math.min(old.length, length);
+			System.arraycopy(old, 0, resized, 0, copied);
+		}
+		for (int i = copied; i < length; i++) {
+			resized[i] = fill;
+		}
+		return resized;
+	}
+}
@@ -0,0 +1,865 @@
+package com.PIDController;
+/*
+ * Author: Jessica Van Brummelen
+ * Email: jess.vanbrummelen AT gmail.com
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The control math of the PIDController extension, in plain Java with no App
+ * Inventor or Android dependencies, so that it can be simulated, tested and
+ * benchmarked on a desktop JVM. PIDController delegates all of its
+ * calculations to a PIDCore.
+ * <br>
+ * The gains, setpoint and output limits may be changed from any thread. The
+ * calcOutput methods must only be called from one thread at a time, since
+ * that thread owns the error sum and previous measured value. reset,
+ * cancelAutoTune and setTimeScaled may be called from any thread: they post a
+ * request that the calculating thread carries out at the start of its next
+ * calculation, so a reset is never lost or half applied in the middle of one.
+ */
+public final class PIDCore {
+
+	/**
+	 * Receives the result of an auto-tuning experiment, on the thread that
+	 * called calcOutput.
+	 */
+	public interface AutoTuneListener {
+		void onAutoTuneComplete(double kp, double ki, double kd, double ultimateGain, double ultimatePeriod);
+
+		void onAutoTuneFailed(String message);
+	}
+
+	/**
+	 * Immutable snapshot of the controller gains (proportional, integral,
+	 * derivative), the target value and the constraints on the output value.
+	 */
+	private static final class Settings {
+		final double kp;
+		final double ki;
+		final double kd;
+		final double setpoint;
+		final double outputMax;
+		final double outputMin;
+		// See isOutputConstrained.
+		final boolean constrained;
+
+		Settings(double kp, double ki, double kd, double setpoint, double outputMax, double outputMin) {
+			this.kp = kp;
+			this.ki = ki;
+			this.kd = kd;
+			this.setpoint = setpoint;
+			this.outputMax = outputMax;
+			this.outputMin = outputMin;
+			/*
+			 * if the difference between outputMax and outputMin is greater than
+			 * 0.01% of outputMax, then outputMax and outputMin are considered
+			 * different, and the output is constrained.
+			 */
+			this.constrained = Math.abs(outputMax - outputMin) > Math.abs(0.0001 * outputMax);
+		}
+
+		Settings withGains(double kp, double ki, double kd) {
+			return new Settings(kp, ki, kd, setpoint, outputMax, outputMin);
+		}
+
+		Settings withSetpoint(double setpoint) {
+			return new Settings(kp, ki, kd, setpoint, outputMax, outputMin);
+		}
+
+		Settings withOutputLimits(double outputMax, double outputMin) {
+			return new Settings(kp, ki, kd, setpoint, outputMax, outputMin);
+		}
+	}
+
+	// Whether the controller is completing the first iteration:
+	private boolean FirstLoop = true;
+	/*
+	 * Requests for the calculating thread, posted from any thread (see
+	 * applyRequests): RESET_REQUESTED clears the error sum, and both start
+	 * over from the next measured value, as on the first iteration.
+	 */
+	private static final int RESET_REQUESTED = 1;
+	private static final int RESTART_REQUESTED = 2;
+	private final AtomicInteger requests = new AtomicInteger();
+	/*
+	 * Controller gains, setpoint and output constraints. These are published
+	 * as one immutable snapshot so they can be set from any thread while
+	 * another thread calls calcOutput: each calculation reads a single
+	 * consistent snapshot without locking, and setters never block it.
+	 */
+	private final AtomicReference<Settings> settings = new AtomicReference<Settings>(
+			new Settings(0, 0, 0, 0, 0, 0));
+	// Error between the actual and measured values:
+	private volatile double Error;
+	// Sum of the error to compute integral output value:
+	private double ErrorSum;
+	// Measured value from previous iteration:
+	private double PrevMeasuredVal;
+
+	/*
+	 * Time-scaled mode: the integral and derivative terms are scaled by the
+	 * real time between calls relative to NominalPeriod, so the gains keep the
+	 * meaning they have when calls arrive exactly NominalPeriod apart.
+	 */
+	private volatile boolean TimeScaled;
+	// Expected time between calls, in seconds:
+	private volatile double NominalPeriod = 0.02;
+	// Time constant of the first-order derivative filter, in seconds (0 = off):
+	private volatile double DerivativeFilter;
+	// Monotonic timestamp of the previous call, in nanoseconds:
+	private long PrevTimeNanos;
+	// Filtered derivative value from the previous iteration:
+	private double FilteredDerivativeVal;
+
+	// Recent samples for tuning (null when telemetry is switched off):
+	private volatile PIDTelemetry telemetry;
+
+	// Relay auto-tuning experiment in progress (null when not tuning):
+	private volatile PIDAutoTuner tuner;
+	private volatile AutoTuneListener autoTuneListener;
+	// Monotonic timestamp of the previous auto-tuning step, in nanoseconds:
+	private long TunerPrevTimeNanos;
+
+	// Gain schedule that replaces Kp, Ki and Kd (null when not scheduling):
+	private volatile PIDGainSchedule gainSchedule;
+	// Whether the measured value (rather than SchedulingValue) selects the gains:
+	private volatile boolean ScheduleOnMeasuredValue = true;
+	// Scheduling variable given to setSchedulingValue:
+	private volatile double SchedulingValue;
+	// Segment of the gain schedule used by the previous calculation:
+	private int ScheduleSegment;
+	// Gains interpolated from the schedule for the current calculation:
+	private double ScheduledKp;
+	private double ScheduledKi;
+	private double ScheduledKd;
+
+	/*
+	 * ******** PID Methods (Public) ********
+	 */
+	/**
+	 * Calculates the output from the controller that should be sent to the
+	 * system based on the current measured value from the system. In
+	 * time-scaled mode, the time since the previous call is measured with
+	 * System.nanoTime.
+	 *
+	 * @param measuredVal
+	 * @return output
+	 */
+	public double calcOutput(double measuredVal) {
+		applyRequests();
+		PIDAutoTuner currentTuner = tuner;
+		if (currentTuner != null) {
+			return calcAutoTuneOutput(currentTuner, measuredVal);
+		}
+		if (TimeScaled) {
+			long now = System.nanoTime();
+			double dt = FirstLoop ? NominalPeriod : (now - PrevTimeNanos) / 1e9;
+			PrevTimeNanos = now;
+			return calcOutput(measuredVal, dt);
+		}
+
+		// Read one consistent snapshot of the settings for this calculation
+		Settings current = settings.get();
+
+		// Calculate the difference between the setpoint and the measured value
+		double error = calcError(current.setpoint, measuredVal);
+		Error = error;
+
+		/*
+		 * If the controller has just started or been reset, ensure that the
+		 * prevMeasuredVal and prevOutput variables have reasonable values.
+		 */
+		if (FirstLoop) {
+			PrevMeasuredVal = measuredVal;
+			// prevOutput = kp * error;
+			FirstLoop = false;
+		}
+
+		// Use the gains from the gain schedule, if there is one
+		double kp = current.kp;
+		double ki = current.ki;
+		double kd = current.kd;
+		PIDGainSchedule schedule = gainSchedule;
+		if (schedule != null) {
+			calcScheduledGains(schedule, measuredVal);
+			kp = ScheduledKp;
+			ki = ScheduledKi;
+			kd = ScheduledKd;
+		}
+
+		// Calculate the p, i, and d terms and add them to get the output
+		double proportionalVal = calcProportionalVal(error, kp);
+		double integralVal = calcIntegralVal(ErrorSum, ki);
+		double derivativeVal = calcDerivativeVal(measuredVal, PrevMeasuredVal, kd);
+
+		// Get the output by summing
+		double output = proportionalVal + integralVal + derivativeVal;
+
+		/*
+		 * If the output is constrained (i.e., maxOutput != minOutput), then
+		 * constrain the output.
+		 */
+		if (current.constrained) {
+			/*
+			 * Ensure output isn't larger than the max value allowed or smaller
+			 * than the min value allowed.
+			 */
+			if (output > current.outputMax) {
+				output = current.outputMax;
+			}
+			if (output < current.outputMin) {
+				output = current.outputMin;
+			}
+		}
+
+		/*
+		 * If the output is larger than output max or less than outputMin (and
+		 * the output is constrained) then reset the errorSum to a reasonable
+		 * level.
+		 */
+		if (current.constrained &&  (output >= current.outputMax || output <= current.outputMin)) {
+			//!(output > outputMin && output < outputMax)){
+			// Reset errorSum to reasonable level (just the error).
+			ErrorSum = error;
+		} else {
+			ErrorSum += error;
+		}
+
+		PIDTelemetry currentTelemetry = telemetry;
+		if (currentTelemetry != null) {
+			currentTelemetry.record(current.setpoint, measuredVal, error, proportionalVal, integralVal,
+					derivativeVal, output);
+		}
+
+		// Update the prev. values for next iteration and return the output.
+		PrevMeasuredVal = measuredVal;
+		// prevOutput = output;
+		return output;
+	}
+
+	/**
+	 * Calculates the output in time-scaled mode, given the time since the
+	 * previous call (whether or not time-scaled mode is switched on). The
+	 * error added to ErrorSum and the derivative are scaled by
+	 * dt / NominalPeriod, and the derivative term is passed through a
+	 * first-order low-pass filter with time constant DerivativeFilter. When dt
+	 * equals NominalPeriod and the filter is off, this gives the same result
+	 * as the untimed calculation. This is also useful for simulations, which
+	 * have their own clock.
+	 *
+	 * @param measuredVal:
+	 *            current actual measured value.
+	 * @param dt:
+	 *            seconds since the previous call.
+	 * @return output
+	 */
+	public double calcOutput(double measuredVal, double dt) {
+		applyRequests();
+		Settings current = settings.get();
+		double error = calcError(current.setpoint, measuredVal);
+		Error = error;
+		if (FirstLoop) {
+			PrevMeasuredVal = measuredVal;
+			FilteredDerivativeVal = 0;
+			FirstLoop = false;
+		}
+		final double nominalPeriod = NominalPeriod;
+		// Guard against a clock that didn't advance.
+		if (dt <= 0) {
+			dt = nominalPeriod;
+		}
+		double scale = dt / nominalPeriod;
+
+		double kp = current.kp;
+		double ki = current.ki;
+		double kd = current.kd;
+		PIDGainSchedule schedule = gainSchedule;
+		if (schedule != null) {
+			calcScheduledGains(schedule, measuredVal);
+			kp = ScheduledKp;
+			ki = ScheduledKi;
+			kd = ScheduledKd;
+		}
+
+		double proportionalVal = calcProportionalVal(error, kp);
+		double integralVal = calcIntegralVal(ErrorSum, ki);
+		double derivativeVal = calcDerivativeVal(measuredVal, PrevMeasuredVal, kd) / scale;
+		FilteredDerivativeVal += (dt / (DerivativeFilter + dt)) * (derivativeVal - FilteredDerivativeVal);
+
+		double output = proportionalVal + integralVal + FilteredDerivativeVal;
+		if (current.constrained) {
+			if (output > current.outputMax) {
+				output = current.outputMax;
+			}
+			if (output < current.outputMin) {
+				output = current.outputMin;
+			}
+		}
+		if (current.constrained && (output >= current.outputMax || output <= current.outputMin)) {
+			ErrorSum = error * scale;
+		} else {
+			ErrorSum += error * scale;
+		}
+
+		PIDTelemetry currentTelemetry = telemetry;
+		if (currentTelemetry != null) {
+			currentTelemetry.record(current.setpoint, measuredVal, error, proportionalVal, integralVal,
+					FilteredDerivativeVal, output);
+		}
+
+		PrevMeasuredVal = measuredVal;
+		return output;
+	}
+
+	/**
+	 * Calculates the outputs for a whole batch of measured values in one pass.
+	 * The result is the same as calling calcOutput once per measured value (in
+	 * order), including the ErrorSum, PrevMeasuredVal and FirstLoop state that
+	 * is left behind. Whether the output is constrained is decided once for the
+	 * whole batch, and the loop does not allocate. <br>
+	 * While auto-tuning or using a gain schedule, the values are simply passed
+	 * to calcOutput one at a time. <br>
+	 * In time-scaled mode the samples are assumed to be NominalPeriod apart.
+	 *
+	 * @param measuredVals:
+	 *            the measured values, oldest first
+	 * @param outputs:
+	 *            array the outputs are written into (at least as long as
+	 *            measuredVals)
+	 */
+	public void calcOutputs(double[] measuredVals, double[] outputs) {
+		int n = measuredVals.length;
+		if (outputs.length < n) {
+			throw new IllegalArgumentException("outputs must be at least as long as measuredVals");
+		}
+		if (n == 0) {
+			return;
+		}
+		applyRequests();
+		if (tuner != null || gainSchedule != null) {
+			for (int i = 0; i < n; i++) {
+				outputs[i] = calcOutput(measuredVals[i]);
+			}
+			return;
+		}
+		if (TimeScaled) {
+			final double nominalPeriod = NominalPeriod;
+			for (int i = 0; i < n; i++) {
+				outputs[i] = calcOutput(measuredVals[i], nominalPeriod);
+			}
+			PrevTimeNanos = System.nanoTime();
+			return;
+		}
+
+		// Copy the state into locals so the loop doesn't touch the fields.
+		final Settings current = settings.get();
+		final double kp = current.kp;
+		final double ki = current.ki;
+		final double kd = current.kd;
+		final double setpoint = current.setpoint;
+		final double outputMax = current.outputMax;
+		final double outputMin = current.outputMin;
+		final boolean constrained = current.constrained;
+		double error = Error;
+		double errorSum = ErrorSum;
+		double prevMeasuredVal = FirstLoop ? measuredVals[0] : PrevMeasuredVal;
+		final PIDTelemetry currentTelemetry = telemetry;
+
+		for (int i = 0; i < n; i++) {
+			double measuredVal = measuredVals[i];
+			error = setpoint - measuredVal;
+			double proportionalVal = kp * error;
+			double integralVal = ki * errorSum;
+			double derivativeVal = -kd * (measuredVal - prevMeasuredVal);
+			double output = proportionalVal + integralVal + derivativeVal;
+			if (constrained) {
+				if (output > outputMax) {
+					output = outputMax;
+				}
+				if (output < outputMin) {
+					output = outputMin;
+				}
+				// Anti-windup: reset errorSum to just the error when saturated.
+				if (output >= outputMax || output <= outputMin) {
+					errorSum = error;
+				} else {
+					errorSum += error;
+				}
+			} else {
+				errorSum += error;
+			}
+			if (currentTelemetry != null) {
+				currentTelemetry.record(setpoint, measuredVal, error, proportionalVal, integralVal,
+						derivativeVal, output);
+			}
+			prevMeasuredVal = measuredVal;
+			outputs[i] = output;
+		}
+
+		Error = error;
+		ErrorSum = errorSum;
+		PrevMeasuredVal = prevMeasuredVal;
+		FirstLoop = false;
+	}
+
+	/**
+	 * Resets the controller. This sets the error and errorSum to zero, the
+	 * number of loops to zero (i.e., firstLoop = true). The reset is carried
+	 * out by the calculating thread, at the start of the next calculation.
+	 */
+	public void reset() {
+		post(RESET_REQUESTED);
+	}
+
+	/**
+	 * Starts a relay-feedback auto-tuning experiment (see PIDAutoTuner). The
+	 * relay switches around the middle of the output limits, or around zero if
+	 * the output is not constrained. When the experiment finishes, the new
+	 * gains are set, the controller is reset and the listener is called.
+	 *
+	 * @param relayAmplitude:
+	 *            how far the output is switched above and below the center
+	 *            (if zero, half of the output range is used)
+	 * @param hysteresis:
+	 *            error band in which the output isn't switched
+	 * @param cycles:
+	 *            number of oscillation cycles to measure
+	 * @param rule:
+	 *            PIDAutoTuner.ZIEGLER_NICHOLS or PIDAutoTuner.TYREUS_LUYBEN
+	 * @param listener:
+	 *            receives the result (may be null)
+	 * @throws IllegalArgumentException
+	 *             if relayAmplitude is zero and the output is not constrained,
+	 *             or rule is not one of the above
+	 */
+	public void startAutoTune(double relayAmplitude, double hysteresis, int cycles, String rule,
+			AutoTuneListener listener) {
+		Settings current = settings.get();
+		double center = current.constrained ? (current.outputMax + current.outputMin) / 2 : 0;
+		double amplitude = Math.abs(relayAmplitude);
+		if (amplitude == 0) {
+			if (!current.constrained) {
+				throw new IllegalArgumentException(
+						"relayAmplitude must be greater than zero when the output is not constrained.");
+			}
+			amplitude = (current.outputMax - current.outputMin) / 2;
+		}
+		PIDAutoTuner newTuner = new PIDAutoTuner(center, amplitude, hysteresis, cycles, rule);
+		TunerPrevTimeNanos = System.nanoTime();
+		autoTuneListener = listener;
+		tuner = newTuner;
+	}
+
+	/**
+	 * Stops the auto-tuning experiment (if one is running) without changing
+	 * the gains.
+	 */
+	public void cancelAutoTune() {
+		if (tuner != null) {
+			// posted first, so the next calculation without the tuner starts from a reset
+			reset();
+			tuner = null;
+		}
+	}
+
+	public boolean isAutoTuning() {
+		return tuner != null;
+	}
+
+	/**
+	 * Sets a gain schedule: Kp, Ki and Kd are then interpolated from the
+	 * given arrays according to the scheduling variable. The arrays are
+	 * copied.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the schedule is invalid (see PIDGainSchedule)
+	 */
+	public void setGainSchedule(double[] breakpoints, double[] kps, double[] kis, double[] kds) {
+		gainSchedule = new PIDGainSchedule(breakpoints, kps, kis, kds);
+	}
+
+	public void clearGainSchedule() {
+		gainSchedule = null;
+	}
+
+	public void setSchedulingValue(double schedulingValue) {
+		this.SchedulingValue = schedulingValue;
+	}
+
+	public boolean isScheduleOnMeasuredValue() {
+		return ScheduleOnMeasuredValue;
+	}
+
+	public void setScheduleOnMeasuredValue(boolean scheduleOnMeasuredValue) {
+		this.ScheduleOnMeasuredValue = scheduleOnMeasuredValue;
+	}
+
+	/**
+	 * Returns the telemetry buffer, or null if telemetry is switched off.
+	 */
+	PIDTelemetry getTelemetry() {
+		return telemetry;
+	}
+
+	/**
+	 * Sets how many of the most recent samples are recorded. Zero switches
+	 * recording off.
+	 */
+	public void setTelemetrySize(int telemetrySize) {
+		this.telemetry = telemetrySize > 0 ? new PIDTelemetry(telemetrySize) : null;
+	}
+
+	public int getTelemetrySize() {
+		PIDTelemetry currentTelemetry = telemetry;
+		return currentTelemetry == null ? 0 : currentTelemetry.capacity();
+	}
+
+	/**
+	 * Returns true if the output is constrained by outputMax and outputMin. If
+	 * outputMax and outputMin are equal, then it is assumed that the output is
+	 * unconstrained (returns false).
+	 *
+	 * @return constrained
+	 */
+	public boolean isOutputConstrained() {
+		return settings.get().constrained;
+	}
+
+	/*
+	 * ******** Helper Methods (Private) ********
+	 */
+
+	/**
+	 * Calculates the output while auto-tuning. The relay output is limited to
+	 * OutputMin and OutputMax, as usual. When the experiment finishes (or
+	 * times out), the gains are set, the controller is reset and the listener
+	 * is called.
+	 *
+	 * @param currentTuner
+	 * @param measuredVal
+	 * @return output
+	 */
+	private void post(int request) {
+		int current;
+		do {
+			current = requests.get();
+		} while (!requests.compareAndSet(current, current | request));
+	}
+
+	/**
+	 * Carries out the requests posted by reset and setTimeScaled. Called on
+	 * the calculating thread before it touches the state; costs one volatile
+	 * read when there are none.
+	 */
+	private void applyRequests() {
+		if (requests.get() == 0) {
+			return;
+		}
+		int pending = requests.getAndSet(0);
+		if ((pending & RESET_REQUESTED) != 0) {
+			resetState();
+		}
+		FirstLoop = true;
+	}
+
+	// resets the controller, on the calculating thread
+	private void resetState() {
+		this.Error = 0;
+		this.ErrorSum = 0;
+		this.FirstLoop = true;
+	}
+
+	private double calcAutoTuneOutput(PIDAutoTuner currentTuner, double measuredVal) {
+		Settings current = settings.get();
+		double error = calcError(current.setpoint, measuredVal);
+		Error = error;
+		double elapsedSteps = 1;
+		if (TimeScaled) {
+			long now = System.nanoTime();
+			elapsedSteps = (now - TunerPrevTimeNanos) / 1e9 / NominalPeriod;
+			TunerPrevTimeNanos = now;
+		}
+		double output = currentTuner.step(measuredVal, error, elapsedSteps);
+		if (current.constrained) {
+			if (output > current.outputMax) {
+				output = current.outputMax;
+			}
+			if (output < current.outputMin) {
+				output = current.outputMin;
+			}
+		}
+
+		if (currentTuner.isDone()) {
+			tuner = null;
+			double[] gains = currentTuner.gains();
+			setGains(gains[0], gains[1], gains[2]);
+			resetState();
+			AutoTuneListener listener = autoTuneListener;
+			if (listener != null) {
+				listener.onAutoTuneComplete(gains[0], gains[1], gains[2], currentTuner.ultimateGain(),
+						currentTuner.ultimatePeriod());
+			}
+		} else if (currentTuner.isTimedOut()) {
+			tuner = null;
+			resetState();
+			AutoTuneListener listener = autoTuneListener;
+			if (listener != null) {
+				listener.onAutoTuneFailed("The system did not oscillate within " + PIDAutoTuner.MAX_STEPS
+						+ " steps. Try a larger relayAmplitude or a smaller hysteresis.");
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Interpolates the gains from the gain schedule into ScheduledKp,
+	 * ScheduledKi and ScheduledKd, without allocating.
+	 *
+	 * @param schedule
+	 * @param measuredVal
+	 */
+	private void calcScheduledGains(PIDGainSchedule schedule, double measuredVal) {
+		double x = ScheduleOnMeasuredValue ? measuredVal : SchedulingValue;
+		int segment = schedule.segment(x, ScheduleSegment);
+		double fraction = schedule.fraction(segment, x);
+		ScheduleSegment = segment;
+		ScheduledKp = schedule.kp(segment, fraction);
+		ScheduledKi = schedule.ki(segment, fraction);
+		ScheduledKd = schedule.kd(segment, fraction);
+	}
+
+	/**
+	 * Returns the error based on the provided actual value (measuredValue) and
+	 * the provided setpoint. Current implementation just subtracts the two
+	 * values: setpoint - measuredValue. <br>
+	 * Note that this does NOT set the error instance variable.
+	 *
+	 * @param measuredValue:
+	 *            the actual value (often read by a sensor)
+	 * @param setpoint:
+	 *            the setpoint determined by the user or external source
+	 * @return error
+	 */
+	private double calcError(double setpoint, double measuredValue) {
+		return setpoint - measuredValue;
+	}
+
+	/**
+	 * Returns the "proportional value" based on the current error and provided
+	 * proportional gain. This proportional value is summed with the integral
+	 * value and derivative value to calculate the output.
+	 *
+	 * @param error
+	 * @param kp
+	 * @return proportional value
+	 */
+	private double calcProportionalVal(double error, double kp) {
+		return kp * error;
+	}
+
+	/**
+	 * Returns the "integral value" based on the current error sum and provided
+	 * integral gain. This integral value is summed with the proportional value
+	 * and derivative value to calculate the output.
+	 *
+	 * @param errorSum:
+	 *            sum of the error up until this point.
+	 * @param ki:
+	 *            integral gain.
+	 * @return: integral value
+	 */
+	private double calcIntegralVal(double errorSum, double ki) {
+		return ki * errorSum;
+	}
+
+	/**
+	 * Returns the "derivative value" based on the current measured/actual
+	 * value, the previous measured/actual value, and the provided derivative
+	 * gain. This derivative value is summed with the proportional value and
+	 * integral value to calculate the output.
+	 *
+	 * @param measuredValue:
+	 *            current actual measured value.
+	 * @param prevMeasuredVal:
+	 *            previous actual measured value.
+	 * @param kd:
+	 *            derivative gain.
+	 * @return: derivative value
+	 */
+	private double calcDerivativeVal(double measuredValue, double prevMeasuredValue, double kd) {
+		return -1 * kd * (measuredValue - prevMeasuredValue);
+	}
+
+	/*
+	 * ******** Getters and Setters ********
+	 */
+	public double getKp() {
+		return settings.get().kp;
+	}
+
+	public double getKi() {
+		return settings.get().ki;
+	}
+
+	public double getKd() {
+		return settings.get().kd;
+	}
+
+	public double getSetpoint() {
+		return settings.get().setpoint;
+	}
+
+	public double getOutputMax() {
+		return settings.get().outputMax;
+	}
+
+	public double getOutputMin() {
+		return settings.get().outputMin;
+	}
+
+	public double getError() {
+		return Error;
+	}
+
+	public boolean isTimeScaled() {
+		return TimeScaled;
+	}
+
+	public double getNominalPeriod() {
+		return NominalPeriod;
+	}
+
+	public double getDerivativeFilter() {
+		return DerivativeFilter;
+	}
+
+	/**
+	 * Sets the proportional gain. Negative values are reset to positive ones.
+	 */
+	public void setKp(double kp) {
+		kp = Math.abs(kp);
+		Settings current;
+		do {
+			current = settings.get();
+		} while (!settings.compareAndSet(current, current.withGains(kp, current.ki, current.kd)));
+	}
+
+	/**
+	 * Sets the integral gain. Negative values are reset to positive ones.
+	 */
+	public void setKi(double ki) {
+		ki = Math.abs(ki);
+		Settings current;
+		do {
+			current = settings.get();
+		} while (!settings.compareAndSet(current, current.withGains(current.kp, ki, current.kd)));
+	}
+
+	/**
+	 * Sets the derivative gain. Negative values are reset to positive ones.
+	 */
+	public void setKd(double kd) {
+		kd = Math.abs(kd);
+		Settings current;
+		do {
+			current = settings.get();
+		} while (!settings.compareAndSet(current, current.withGains(current.kp, current.ki, kd)));
+	}
+
+	/**
+	 * Sets all three gains at once, so a calculation on another thread sees
+	 * either all of the old gains or all of the new ones. Negative gains are
+	 * reset to positive values.
+	 */
+	public void setGains(double kp, double ki, double kd) {
+		kp = Math.abs(kp);
+		ki = Math.abs(ki);
+		kd = Math.abs(kd);
+		Settings current;
+		do {
+			current = settings.get();
+		} while (!settings.compareAndSet(current, current.withGains(kp, ki, kd)));
+	}
+
+	public void setSetpoint(double setpoint) {
+		Settings current;
+		do {
+			current = settings.get();
+		} while (!settings.compareAndSet(current, current.withSetpoint(setpoint)));
+	}
+
+	/**
+	 * Sets the maximum value for the output. If the current outputMin is
+	 * greater than outputMax, both are reset to zero (unconstrained) and false
+	 * is returned.
+	 *
+	 * @param outputMax
+	 * @return correct: if min <= max, then correct = true
+	 */
+	public boolean setOutputMax(double outputMax) {
+		Settings current;
+		Settings updated;
+		boolean correct;
+		do {
+			current = settings.get();
+			correct = current.outputMin <= outputMax;
+			updated = correct ? current.withOutputLimits(outputMax, current.outputMin) : current.withOutputLimits(0, 0);
+		} while (!settings.compareAndSet(current, updated));
+		return correct;
+	}
+
+	/**
+	 * Sets the minimum value for the output. If outputMin is greater than the
+	 * current outputMax, both are reset to zero (unconstrained) and false is
+	 * returned.
+	 *
+	 * @param outputMin
+	 * @return correct: if min <= max, then correct = true
+	 */
+	public boolean setOutputMin(double outputMin) {
+		Settings current;
+		Settings updated;
+		boolean correct;
+		do {
+			current = settings.get();
+			correct = outputMin <= current.outputMax;
+			updated = correct ? current.withOutputLimits(current.outputMax, outputMin) : current.withOutputLimits(0, 0);
+		} while (!settings.compareAndSet(current, updated));
+		return correct;
+	}
+
+	/**
+	 * Turns time-scaled mode on or off. Turning it on restarts timing from
+	 * the next call.
+	 */
+	public void setTimeScaled(boolean timeScaled) {
+		if (timeScaled && !this.TimeScaled) {
+			post(RESTART_REQUESTED);
+		}
+		this.TimeScaled = timeScaled;
+	}
+
+	/**
+	 * Sets the expected time between calls, in seconds.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if nominalPeriod is not greater than zero
+	 */
+	public void setNominalPeriod(double nominalPeriod) {
+		if (!(nominalPeriod > 0)) {
+			throw new IllegalArgumentException("NominalPeriod must be greater than zero.");
+		}
+		this.NominalPeriod = nominalPeriod;
+	}
+
+	/**
+	 * Sets the time constant (in seconds) of the derivative filter. Zero turns
+	 * the filter off.
+	 */
+	public void setDerivativeFilter(double derivativeFilter) {
+		this.DerivativeFilter = Math.abs(derivativeFilter);
+	}
+}
@@ -0,0 +1,130 @@
+package com.PIDController;
+/*
+ * Author: Jessica Van Brummelen
+ * Email: jess.vanbrummelen AT gmail.com
+ */
+
+/**
+ * Immutable gain schedule: breakpoints of a scheduling variable (sorted in
+ * increasing order) mapped to gain sets, held in parallel primitive arrays.
+ * Gains between two breakpoints are linearly interpolated; outside the
+ * breakpoints the first or last gain set is used.
+ */
+final class PIDGainSchedule {
+
+	private final double[] breakpoints;
+	private final double[] kp;
+	private final double[] ki;
+	private final double[] kd;
+
+	/**
+	 * Creates a gain schedule. The arrays are copied.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the arrays are empty, have different lengths, or the
+	 *             breakpoints are not strictly increasing
+	 */
+	PIDGainSchedule(double[] breakpoints, double[] kp, double[] ki, double[] kd) {
+		int n = breakpoints.length;
+		if (n == 0 || kp.length != n || ki.length != n || kd.length != n) {
+			throw new IllegalArgumentException("The gain schedule needs the same number (at least one) "
+					+ "of breakpoints, Kp, Ki and Kd values.");
+		}
+		for (int i = 1; i < n; i++) {
+			if (!(breakpoints[i] > breakpoints[i - 1])) {
+				throw new IllegalArgumentException("The breakpoints of the gain schedule must be in increasing order.");
+			}
+		}
+		this.breakpoints = breakpoints.clone();
+		this.kp = abs(kp);
+		this.ki = abs(ki);
+		this.kd = abs(kd);
+	}
+
+	int size() {
+		return breakpoints.length;
+	}
+
+	/**
+	 * Returns the segment i such that breakpoints[i] <= x < breakpoints[i + 1]
+	 * (0 if x is below the first breakpoint, size() - 1 if it is at or above
+	 * the last one). The segment found by the previous lookup is tried first,
+	 * since the scheduling variable usually changes slowly; otherwise a binary
+	 * search is used.
+	 *
+	 * @param x:
+	 *            value of the scheduling variable
+	 * @param hint:
+	 *            segment returned by the previous lookup
+	 * @return segment
+	 */
+	int segment(double x, int hint) {
+		final double[] b = breakpoints;
+		final int last = b.length - 1;
+		if (hint >= 0 && hint < last && b[hint] <= x && x < b[hint + 1]) {
+			return hint;
+		}
+		if (x < b[0]) {
+			return 0;
+		}
+		if (x >= b[last]) {
+			return last;
+		}
+		int low = 0;
+		int high = last;
+		// Invariant: b[low] <= x < b[high]
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (b[mid] <= x) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns how far x is from breakpoints[segment] towards
+	 * breakpoints[segment + 1], between 0 and 1.
+	 */
+	double fraction(int segment, double x) {
+		final double[] b = breakpoints;
+		if (segment >= b.length - 1 || x <= b[segment]) {
+			return 0;
+		}
+		double t = (x - b[segment]) / (b[segment + 1] - b[segment]);
+		return t > 1 ? 1 : t;
+	}
+
+	double kp(int segment, double fraction) {
+		return interpolate(kp, segment, fraction);
+	}
+
+	double ki(int segment, double fraction) {
+		return interpolate(ki, segment, fraction);
+	}
+
+	double kd(int segment, double fraction) {
+		return interpolate(kd, segment, fraction);
+	}
+
+	private static double interpolate(double[] values, int segment, double fraction) {
+		if (fraction == 0) {
+			return values[segment];
+		}
+		return values[segment] + fraction * (values[segment + 1] - values[segment]);
+	}
+
+	/**
+	 * Copies the gains, resetting negative gains to positive values as the
+	 * PIDController setters do.
+	 */
+	private static double[] abs(double[] gains) {
+		double[] copy = new double[gains.length];
+		for (int i = 0; i < gains.length; i++) {
+			copy[i] = Math.abs(gains[i]);
+		}
+		return copy;
+	}
+}
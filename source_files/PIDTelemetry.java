@@ -0,0 +1,203 @@
+package com.PIDController;
+/*
+ * Author: Jessica Van Brummelen
+ * Email: jess.vanbrummelen AT gmail.com
+ */
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring buffer of PID samples, stored in parallel primitive arrays
+ * so that recording a sample never allocates. When the buffer is full, the
+ * oldest sample is overwritten.
+ */
+final class PIDTelemetry {
+
+	// Fields of a single sample (see record):
+	static final int TIME = 0;
+	static final int SETPOINT = 1;
+	static final int MEASURED = 2;
+	static final int ERROR = 3;
+	static final int PROPORTIONAL = 4;
+	static final int INTEGRAL = 5;
+	static final int DERIVATIVE = 6;
+	static final int OUTPUT = 7;
+	static final int INTERVAL = 8;
+	static final int FIELDS = 9;
+
+	private final int capacity;
+	// Time of each sample, in nanoseconds:
+	private final long[] timeNanos;
+	// Time since the previous sample, in nanoseconds (0 for the first one):
+	private final long[] intervalNanos;
+	private final double[] setpoint;
+	private final double[] measured;
+	private final double[] error;
+	private final double[] proportional;
+	private final double[] integral;
+	private final double[] derivative;
+	private final double[] output;
+	// Total number of samples recorded; the next sample goes in count % capacity.
+	private volatile long count;
+
+	PIDTelemetry(int capacity) {
+		this.capacity = capacity;
+		timeNanos = new long[capacity];
+		intervalNanos = new long[capacity];
+		setpoint = new double[capacity];
+		measured = new double[capacity];
+		error = new double[capacity];
+		proportional = new double[capacity];
+		integral = new double[capacity];
+		derivative = new double[capacity];
+		output = new double[capacity];
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of samples currently held (at most capacity).
+	 */
+	int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Records one sample. This must only be called from one thread at a time
+	 * (the thread that calls calcOutput).
+	 */
+	void record(double setpointVal, double measuredVal, double errorVal, double proportionalVal,
+			double integralVal, double derivativeVal, double outputVal) {
+		long now = System.nanoTime();
+		long n = count;
+		int i = (int) (n % capacity);
+		timeNanos[i] = now;
+		intervalNanos[i] = n == 0 ? 0 : now - timeNanos[(int) ((n - 1) % capacity)];
+		setpoint[i] = setpointVal;
+		measured[i] = measuredVal;
+		error[i] = errorVal;
+		proportional[i] = proportionalVal;
+		integral[i] = integralVal;
+		derivative[i] = derivativeVal;
+		output[i] = outputVal;
+		// Publish the sample.
+		count = n + 1;
+	}
+
+	/**
+	 * Copies up to max of the most recent samples (oldest first) into a new
+	 * array of rows, each with FIELDS values. Times are in milliseconds
+	 * relative to the oldest returned sample.
+	 */
+	double[][] snapshot(int max) {
+		long n = count;
+		int size = (int) Math.min(Math.min(n, capacity), Math.max(max, 0));
+		double[][] rows = new double[size][];
+		long first = n - size;
+		long startNanos = size > 0 ? timeNanos[(int) (first % capacity)] : 0;
+		for (int k = 0; k < size; k++) {
+			int i = (int) ((first + k) % capacity);
+			double[] row = new double[FIELDS];
+			row[TIME] = (timeNanos[i] - startNanos) / 1e6;
+			row[SETPOINT] = setpoint[i];
+			row[MEASURED] = measured[i];
+			row[ERROR] = error[i];
+			row[PROPORTIONAL] = proportional[i];
+			row[INTEGRAL] = integral[i];
+			row[DERIVATIVE] = derivative[i];
+			row[OUTPUT] = output[i];
+			row[INTERVAL] = k == 0 ? 0 : intervalNanos[i] / 1e6;
+			rows[k] = row;
+		}
+		return rows;
+	}
+
+	/**
+	 * Statistics over the samples currently in the buffer.
+	 */
+	static final class Stats {
+		int samples;
+		// Root mean square of the error:
+		double rmsError;
+		// How far the measured value went past the setpoint, in the opposite
+		// direction to the first error (0 if it never did):
+		double overshoot;
+		// Overshoot as a percentage of the first error:
+		double overshootPercent;
+		// Milliseconds from the first sample until the error stayed within the
+		// settling band (-1 if it has not settled yet):
+		double settlingTime = -1;
+		// 99th percentile of the time between samples, in milliseconds:
+		double p99Interval;
+		// Mean time between samples, in milliseconds:
+		double meanInterval;
+	}
+
+	/**
+	 * Calculates statistics over the samples currently in the buffer.
+	 *
+	 * @param settlingBand:
+	 *            fraction of the first error that the error must stay within
+	 *            to count as settled (e.g., 0.02 for 2%)
+	 */
+	Stats stats(double settlingBand) {
+		Stats stats = new Stats();
+		long n = count;
+		int size = (int) Math.min(n, capacity);
+		stats.samples = size;
+		if (size == 0) {
+			return stats;
+		}
+		long first = n - size;
+		int firstIndex = (int) (first % capacity);
+		double initialError = error[firstIndex];
+		double direction = Math.signum(initialError);
+		double band = Math.abs(initialError) * settlingBand;
+		long startNanos = timeNanos[firstIndex];
+
+		double sumSquares = 0;
+		double overshoot = 0;
+		int lastOutsideBand = -1;
+		long[] intervals = new long[size - 1];
+		for (int k = 0; k < size; k++) {
+			int i = (int) ((first + k) % capacity);
+			double e = error[i];
+			sumSquares += e * e;
+			// Past the setpoint means the error has the opposite sign.
+			double past = -e * direction;
+			if (past > overshoot) {
+				overshoot = past;
+			}
+			if (Math.abs(e) > band) {
+				lastOutsideBand = k;
+			}
+			if (k > 0) {
+				intervals[k - 1] = intervalNanos[i];
+			}
+		}
+		stats.rmsError = Math.sqrt(sumSquares / size);
+		stats.overshoot = overshoot;
+		stats.overshootPercent = initialError == 0 ? 0 : 100 * overshoot / Math.abs(initialError);
+		if (lastOutsideBand < size - 1) {
+			int settled = (int) ((first + lastOutsideBand + 1) % capacity);
+			stats.settlingTime = (timeNanos[settled] - startNanos) / 1e6;
+		}
+		if (intervals.length > 0) {
+			Arrays.sort(intervals);
+			long total = 0;
+			for (int k = 0; k < intervals.length; k++) {
+				total += intervals[k];
+			}
+			int p99 = (int) Math.ceil(0.99 * intervals.length) - 1;
+			stats.p99Interval = intervals[Math.max(p99, 0)] / 1e6;
+			stats.meanInterval = total / (double) intervals.length / 1e6;
+		}
+		return stats;
+	}
+}
@@ -8,34 +8,61 @@ import com.google.appinventor.components.annotations.SimpleEvent;
 import com.google.appinventor.components.annotations.SimpleFunction;
 import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
+import com.google.appinventor.components.annotations.UsesPermissions;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.util.MediaUtil;
+import com.google.appinventor.components.runtime.util.YailList;
 import com.google.appinventor.components.runtime.*;
-import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.annotations.SimpleEvent;
 import java.net.*;
 import java.io.*;
 import org.json.*;
 
-import android.app.Activity;
 import android.util.Log;
 
 @DesignerComponent(version = SentenceGenerator.VERSION, description = "Generates text using input seed text.", category = ComponentCategory.EXTENSION, nonVisible = true, iconName = "appengine/src/com/google/appinventor/images/TODO.png")
 @SimpleObject(external = true)
-public class SentenceGenerator extends AndroidNonvisibleComponent implements Component {
+@UsesPermissions(permissionNames = "android.permission.ACCESS_NETWORK_STATE")
+public class SentenceGenerator extends AndroidNonvisibleComponent implements Component, OnDestroyListener {
   public static final int VERSION = 1;
   private ComponentContainer container;
   private final boolean DEBUG = true;
   private final String LOG_TAG = "SentenceGenerator";
-  private final String baseURLString = "http://appinventor-alexa.csail.mit.edu:1234/";
-  private final Activity activity; // for running on ui thread
 
   // example variable for extension
   private String exampleVar;
 
+  // the requests (policy, cache, streaming, prefetching, batches, timeouts and
+  // metrics), shared with TextMixer's code
+  private final GenerationRequests<DecodedText> requests;
+
+  // the model the server generates text with
+  private volatile String model = DEFAULT_MODEL;
+
+  // request policies:
+  public static final String POLICY_PARALLEL = GenerationRequests.POLICY_PARALLEL;
+  public static final String POLICY_LATEST_WINS = GenerationRequests.POLICY_LATEST_WINS;
+  public static final String POLICY_QUEUE = GenerationRequests.POLICY_QUEUE;
+
   // defaults:
   public static final String DEFAULT_EXAMPLE_VAR_VALUE = "default";
+  public static final String DEFAULT_SERVER_URLS = "http://appinventor-alexa.csail.mit.edu:1234/";
+  public static final String DEFAULT_LOAD_BALANCING = GenerationRequests.DEFAULT_LOAD_BALANCING;
+  public static final String DEFAULT_MODEL = "drSeuss_20";
+  public static final String DEFAULT_REQUEST_POLICY = GenerationRequests.DEFAULT_REQUEST_POLICY;
+  public static final boolean DEFAULT_STREAMING = GenerationRequests.DEFAULT_STREAMING;
+  public static final boolean DEFAULT_PREFETCH = GenerationRequests.DEFAULT_PREFETCH;
+  public static final int DEFAULT_PREFETCH_SIZE = GenerationRequests.DEFAULT_PREFETCH_SIZE;
+  public static final int DEFAULT_BATCH_SIZE = GenerationRequests.DEFAULT_BATCH_SIZE;
+  public static final int DEFAULT_BATCH_CONCURRENCY = GenerationRequests.DEFAULT_BATCH_CONCURRENCY;
+  public static final boolean DEFAULT_CACHE_ENABLED = GenerationRequests.DEFAULT_CACHE_ENABLED;
+  public static final int DEFAULT_CONNECT_TIMEOUT = GenerationRequests.DEFAULT_CONNECT_TIMEOUT;
+  public static final int DEFAULT_READ_TIMEOUT = GenerationRequests.DEFAULT_READ_TIMEOUT;
+  public static final int DEFAULT_TOTAL_TIMEOUT = GenerationRequests.DEFAULT_TOTAL_TIMEOUT;
+  public static final int DEFAULT_MAX_RETRIES = GenerationRequests.DEFAULT_MAX_RETRIES;
+  public static final boolean DEFAULT_ADAPTIVE_TIMEOUTS = GenerationRequests.DEFAULT_ADAPTIVE_TIMEOUTS;
+  public static final int DEFAULT_METRICS_INTERVAL = GenerationRequests.DEFAULT_METRICS_INTERVAL;
 
   /**
    * Constructor creates a new extension object with default values.
@@ -43,65 +70,234 @@ public class SentenceGenerator extends AndroidNonvisibleComponent implements Com
   public SentenceGenerator(ComponentContainer container) {
     super(container.$form());
     this.container = container;
-    activity = container.$context();
+    requests = new GenerationRequests<DecodedText>(container.$context(), LOG_TAG, DEFAULT_SERVER_URLS,
+        new Responses());
+    form.registerForOnDestroy(this);
   }
 
   @SimpleFunction
-  public void StartTextGeneration(final String seedText, final int outputLength) {
-    // From Web.java:
-    AsynchUtil.runAsynchronously(new Runnable() {
+  public void StartTextGeneration(String seedText, int outputLength) {
+    requests.start(seedText, textParameters(model, outputLength));
+  }
+
+  // the parameters of a request: the model and the length of the text
+  private GenerationRequests.Parameters textParameters(final String requestModel, final int outputLength) {
+    return new GenerationRequests.Parameters() {
+      @Override
+      public String url(String server, String seed) {
+        // From MediaStore.java:
+        return server + "?inputText=" + seed + "&model=" + requestModel + "&outputLength=" + outputLength;
+      }
+
+      @Override
+      public JSONObject batchItem(String seed) throws JSONException {
+        JSONObject item = new JSONObject();
+        item.put("inputText", seed);
+        item.put("model", requestModel);
+        item.put("outputLength", outputLength);
+        return item;
+      }
+
       @Override
-      public void run() {
-        try {
-          // From MediaStore.java:
-          String url = baseURLString + "?inputText=" + seedText + "&model=drSeuss_20" + "&outputLength=" + outputLength;
-          URL obj = new URL(url);
-          HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-
-          // optional default is GET
-          con.setRequestMethod("GET");
-
-          // add request header
-          String USER_AGENT = "AppInventor";
-          con.setRequestProperty("User-Agent", USER_AGENT);
-          con.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
-
-          con.setConnectTimeout(300000); // 5 min
-          con.setReadTimeout(300000);
-
-          // get and build sentence from response
-          BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-          StringBuilder response = new StringBuilder();
-          String inputLine;
-          while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
-          }
-          in.close();
-
-          String tempResponseString = response.toString();
-          try {
-            JSONObject jsonObj = new JSONObject(tempResponseString);
-            tempResponseString = jsonObj.getString("generated");
-          } catch (JSONException e) {
-            tempResponseString = e.toString();
-          }
-          final String responseString = tempResponseString;
-
-          // send sentence to GotGeneratedText:
-          // Dispatch the event.
-          activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-              GotGeneratedText(responseString);
-            }
-          });
-        } catch (Exception e) {
-          Log.e(LOG_TAG, "ERROR_UNABLE_TO_GET", e);
-          e.printStackTrace();
-          WebServiceError(e.toString());
+      public String cacheKey(String seed) {
+        return requests.cacheKey(requestModel, seed, outputLength);
+      }
+    };
+  }
+
+  /**
+   * Generate text for many seeds, with the same output length. The seeds are
+   * sent to the server in batches (BatchSize seeds per request,
+   * BatchConcurrency requests at once), and GotBatchText is raised for each
+   * seed as its batch completes.
+   *
+   * @param seedTexts
+   * @param outputLength
+   */
+  @SimpleFunction(description = "Generates text for each seed in the list, sending them to the server in "
+      + "batches. GotBatchText (or BatchGenerationError) is raised for each seed, with its index in the "
+      + "list, as its batch completes, then BatchGenerationComplete.")
+  public void StartBatchTextGeneration(YailList seedTexts, int outputLength) {
+    requests.startBatch(seedTexts.toStringArray(), textParameters(model, outputLength));
+  }
+
+  // a response decoded (on a worker thread), ready for the events
+  private static final class DecodedText {
+    final String text;
+    // the words, for the GotTokens raised before GotGeneratedText (or none)
+    final String[] words;
+
+    DecodedText(String text, String[] words) {
+      this.text = text;
+      this.words = words;
+    }
+  }
+
+  // reads and decodes the responses, and raises the events with them
+  private final class Responses implements GenerationRequests.Extension<DecodedText> {
+    @Override
+    public Object get(String url, GenerationHttpClient.Call call, GenerationHttpClient.Options options)
+        throws IOException {
+      return GenerationHttpClient.getInstance().get(url, call, options);
+    }
+
+    @Override
+    public String streamedResponse(GenerationTokenStream stream) {
+      return stream.toGeneratedResponse();
+    }
+
+    @Override
+    public String cacheable(Object response) {
+      try {
+        GenerationResponseParser.parseGeneratedText((String) response);
+        return (String) response;
+      } catch (JSONException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public DecodedText decode(Object response, boolean withTokens) {
+      String text;
+      String[] words = new String[0];
+      try {
+        text = GenerationResponseParser.parseGeneratedText((String) response);
+        if (withTokens) {
+          words = text.trim().split("\\s+");
+        }
+      } catch (JSONException e) {
+        text = e.toString();
+      }
+      return new DecodedText(text, words);
+    }
+
+    @Override
+    public DecodedText decodeBatchResult(String response) {
+      return decode(response, false);
+    }
+
+    @Override
+    public void raiseResponse(DecodedText decoded, boolean withTokens) {
+      for (String word : decoded.words) {
+        if (word.length() > 0) {
+          GotToken(word);
         }
       }
-    });
+      // send sentence to GotGeneratedText:
+      // Dispatch the event.
+      GotGeneratedText(decoded.text);
+    }
+
+    @Override
+    public void raiseToken(GenerationTokenStream.Token token) {
+      GotToken(token.token);
+    }
+
+    @Override
+    public void raiseBatchResult(int index, DecodedText decoded) {
+      GotBatchText(index, decoded.text);
+    }
+
+    @Override
+    public void raiseBatchError(int index, String message) {
+      BatchGenerationError(index, message);
+    }
+
+    @Override
+    public void raiseBatchComplete() {
+      BatchGenerationComplete();
+    }
+
+    @Override
+    public void raiseError(String message) {
+      WebServiceError(message);
+    }
+
+    @Override
+    public void raiseRejected(long id, String message) {
+      RequestRejected(id, message);
+    }
+
+    @Override
+    public void raiseMetrics(YailList metrics) {
+      GotMetrics(metrics);
+    }
+  }
+
+  /**
+   * Returns the metrics of this extension's requests as a list of (name,
+   * value) pairs.
+   */
+  @SimpleFunction(description = "Returns the metrics of this extension's requests, as a list of pairs: the "
+      + "counts Requests, Successes, Errors, Timeouts, Rejected, CacheHits, PrefetchHits and BytesReceived, "
+      + "then, for each phase of a request (Queue, Connect, Server, Transfer, Decode, UiThread and "
+      + "Total), the number of times it was timed (e.g., ServerCount) and its 50th, 95th and 99th percentile "
+      + "durations in milliseconds (e.g., ServerP95).")
+  public YailList GetMetrics() {
+    return requests.metricsList();
+  }
+
+  /**
+   * Sets every count and timing of GetMetrics back to zero.
+   */
+  @SimpleFunction(description = "Sets every count and timing of GetMetrics back to zero.")
+  public void ResetMetrics() {
+    requests.resetMetrics();
+  }
+
+  /**
+   * Cancels a request made by StartTextGeneration or StartBatchTextGeneration.
+   * Its server request is stopped (unless an identical request is waiting for
+   * it), and it raises no more events.
+   *
+   * @param id the request's id, from LastRequestId right after it was made
+   * @return true if the request was cancelled, false if it had already
+   *         finished
+   */
+  @SimpleFunction(description = "Cancels the request (or batch) with the given id, as given by "
+      + "LastRequestId right after it was made. It raises no more events. Returns false if the "
+      + "request had already finished.")
+  public boolean CancelRequest(long id) {
+    return requests.cancel(id);
+  }
+
+  /**
+   * Cancels every request (and batch) that hasn't finished.
+   */
+  @SimpleFunction(description = "Cancels every request and batch that hasn't finished. They raise "
+      + "no more events.")
+  public void CancelAllRequests() {
+    requests.cancelAll();
+  }
+
+  /**
+   * Returns the id of the latest request (or batch), for CancelRequest.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The id of the latest request or "
+      + "batch, which can be passed to CancelRequest.")
+  public long LastRequestId() {
+    return requests.getLastRequestId();
+  }
+
+  /**
+   * Removes every cached response (of both this extension and TextMixer).
+   */
+  @SimpleFunction(description = "Removes every cached response, in memory and on disk. "
+      + "The cache is shared with the TextMixer extension.")
+  public void ClearCache() {
+    GenerationResponseCache.getInstance().clear();
+  }
+
+  /**
+   * In streaming mode, indicates that the next token (word) of the text being
+   * generated by StartTextGeneration has arrived. GotGeneratedText is still
+   * raised with the whole text at the end.
+   *
+   * @param token the token that arrived.
+   */
+  @SimpleEvent
+  public void GotToken(String token) {
+    EventDispatcher.dispatchEvent(this, "GotToken", token);
   }
 
   /**
@@ -114,6 +310,39 @@ public class SentenceGenerator extends AndroidNonvisibleComponent implements Com
     EventDispatcher.dispatchEvent(this, "GotGeneratedText", sentence);
   }
 
+  /**
+   * Indicates that the text for one seed of a StartBatchTextGeneration has
+   * arrived.
+   *
+   * @param index the index of the seed in the list (starting at 1).
+   * @param text  the generated text.
+   */
+  @SimpleEvent
+  public void GotBatchText(int index, String text) {
+    EventDispatcher.dispatchEvent(this, "GotBatchText", index, text);
+  }
+
+  /**
+   * Indicates that the sentence for one seed of a StartBatchTextGeneration
+   * couldn't be generated.
+   *
+   * @param index   the index of the seed in the list (starting at 1).
+   * @param message the error message.
+   */
+  @SimpleEvent
+  public void BatchGenerationError(int index, String message) {
+    EventDispatcher.dispatchEvent(this, "BatchGenerationError", index, message);
+  }
+
+  /**
+   * Indicates that every seed of a StartBatchTextGeneration has had its
+   * GotBatchText or BatchGenerationError.
+   */
+  @SimpleEvent
+  public void BatchGenerationComplete() {
+    EventDispatcher.dispatchEvent(this, "BatchGenerationComplete");
+  }
+
   /**
    * Indicates that the communication with the Web service signaled an error
    *
@@ -123,4 +352,558 @@ public class SentenceGenerator extends AndroidNonvisibleComponent implements Com
   public void WebServiceError(String message) {
     EventDispatcher.dispatchEvent(this, "WebServiceError", message);
   }
-}
\ No newline at end of file
+
+  /**
+   * Indicates that a request (or batch) was turned away because too many
+   * requests were waiting to be sent (see MaxQueuedRequests and
+   * SaturationPolicy). It raises no other events.
+   *
+   * @param id      the request's id, as given by LastRequestId
+   * @param message why it was turned away
+   */
+  @SimpleEvent
+  public void RequestRejected(long id, String message) {
+    EventDispatcher.dispatchEvent(this, "RequestRejected", id, message);
+  }
+
+  /**
+   * Raised every MetricsInterval milliseconds with the metrics of this
+   * extension's requests.
+   *
+   * @param metrics the metrics, as returned by GetMetrics
+   */
+  @SimpleEvent
+  public void GotMetrics(YailList metrics) {
+    EventDispatcher.dispatchEvent(this, "GotMetrics", metrics);
+  }
+
+  /**
+   * Returns whether responses are cached.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean CacheEnabled() {
+    return requests.isCacheEnabled();
+  }
+
+  /**
+   * Turns the response cache on or off for this extension. When on, repeating
+   * a request (same seed text, output length, Model and ServerURLs) gives the
+   * stored response right away, without contacting the server.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_CACHE_ENABLED + "")
+  @SimpleProperty(description = "If true, responses are cached, and repeating a request (same seed text, "
+      + "output length, Model and ServerURLs) raises GotGeneratedText right away, without contacting the server.")
+  public void CacheEnabled(boolean enabled) {
+    requests.setCacheEnabled(enabled);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int CacheMaxEntries() {
+    return GenerationResponseCache.getInstance().getMaxEntries();
+  }
+
+  /**
+   * Sets the maximum number of responses kept in memory. The cache is shared
+   * with TextMixer.
+   *
+   * @param maxEntries
+   */
+  @SimpleProperty(description = "The maximum number of responses kept in memory (shared with TextMixer). "
+      + "The least recently used response is removed first.")
+  public void CacheMaxEntries(int maxEntries) {
+    GenerationResponseCache.getInstance().setMaxEntries(maxEntries);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public long CacheMaxBytes() {
+    return GenerationResponseCache.getInstance().getMaxBytes();
+  }
+
+  /**
+   * Sets the maximum total size of the cached responses, in bytes, in memory
+   * and on disk. The cache is shared with TextMixer.
+   *
+   * @param maxBytes
+   */
+  @SimpleProperty(description = "The maximum total size, in bytes, of the responses kept in memory, "
+      + "and of those kept on disk (shared with TextMixer).")
+  public void CacheMaxBytes(long maxBytes) {
+    GenerationResponseCache.getInstance().setMaxBytes(maxBytes);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public double CacheTimeToLive() {
+    return GenerationResponseCache.getInstance().getTimeToLive();
+  }
+
+  /**
+   * Sets how long (in seconds) a cached response is used for; 0 means until it
+   * is removed to make room. The cache is shared with TextMixer.
+   *
+   * @param seconds
+   */
+  @SimpleProperty(description = "How long, in seconds, a cached response is used for (shared with "
+      + "TextMixer). 0 means until it is removed to make room.")
+  public void CacheTimeToLive(double seconds) {
+    GenerationResponseCache.getInstance().setTimeToLive(seconds);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean DiskCache() {
+    return requests.isDiskCache();
+  }
+
+  /**
+   * Turns the on-disk tier of the cache on or off. When on, responses are also
+   * stored in the app's cache directory, so they survive the app restarting.
+   * The cache is shared with TextMixer.
+   *
+   * @param enabled
+   */
+  @SimpleProperty(description = "If true, cached responses are also stored in the app's cache "
+      + "directory, so they are kept when the app restarts (shared with TextMixer).")
+  public void DiskCache(boolean enabled) {
+    requests.setDiskCache(enabled);
+  }
+
+  /**
+   * Returns whether responses are streamed.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean Streaming() {
+    return requests.isStreaming();
+  }
+
+  /**
+   * Turns streaming on or off. In streaming mode, the server is asked to send
+   * the text one token at a time, and GotToken is raised as each one arrives,
+   * so the first words can be shown before the whole text is generated.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_STREAMING + "")
+  @SimpleProperty(description = "If true, the text is received one token at a time, and GotToken is raised "
+      + "as each one arrives. GotGeneratedText is still raised with the whole text at the end.")
+  public void Streaming(boolean enabled) {
+    requests.setStreaming(enabled);
+  }
+
+  /**
+   * Returns whether texts are generated ahead of time.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean Prefetch() {
+    return requests.isPrefetch();
+  }
+
+  /**
+   * Turns prefetching on or off. When on, PrefetchSize texts for the latest
+   * request's seed, model and length are generated in the background, so that
+   * repeating the request raises GotGeneratedText right away (with a new text
+   * each time) while another one is generated. They are thrown away when the
+   * seed, model or length change. On a metered network (e.g., mobile data), a
+   * text is only generated while no other request is being sent.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_PREFETCH + "")
+  @SimpleProperty(description = "If true, texts for the latest seed, model and output length are generated "
+      + "in the background (PrefetchSize of them), so repeating the request raises GotGeneratedText right "
+      + "away, with a new text each time. On a metered network, they are only generated while no other "
+      + "request is being sent.")
+  public void Prefetch(boolean enabled) {
+    requests.setPrefetch(enabled);
+  }
+
+  /**
+   * Returns the number of texts generated ahead of time.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int PrefetchSize() {
+    return requests.getPrefetchSize();
+  }
+
+  /**
+   * Sets the number of texts generated ahead of time, when Prefetch is on.
+   *
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_PREFETCH_SIZE + "")
+  @SimpleProperty(description = "The number of texts generated ahead of time when Prefetch is on.")
+  public void PrefetchSize(int size) {
+    requests.setPrefetchSize(size);
+  }
+
+  /**
+   * Returns the number of texts ready to be handed out.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of texts generated "
+      + "ahead of time that are ready to be handed out.")
+  public int PrefetchedCount() {
+    return requests.getPrefetchedCount();
+  }
+
+  /**
+   * Returns what happens to a request when another is made before it
+   * finishes.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String RequestPolicy() {
+    return requests.getRequestPolicy();
+  }
+
+  /**
+   * Sets what happens to a request when another (with different parameters) is
+   * made before it finishes. Identical requests that are in flight at the same
+   * time are always merged into one server request.
+   * <ul>
+   * <li>Parallel: both run, and both raise their events.</li>
+   * <li>LatestWins: only the newest request raises its events; older ones are
+   * cancelled.</li>
+   * <li>Queue: the new request is sent when the one before it finishes.</li>
+   * </ul>
+   *
+   * @param policy
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_REQUEST_POLICY)
+  @SimpleProperty(description = "What happens to a request when another is made before it finishes: "
+      + "Parallel (both run), LatestWins (older ones are cancelled) or Queue (the new one "
+      + "waits for the one before). Identical requests are always merged into one.")
+  public void RequestPolicy(String policy) {
+    requests.setRequestPolicy(policy);
+  }
+
+  /**
+   * Returns the maximum number of seeds sent in one batch request.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int BatchSize() {
+    return requests.getBatchSize();
+  }
+
+  /**
+   * Sets the maximum number of seeds StartBatchTextGeneration sends in one
+   * request.
+   *
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_BATCH_SIZE + "")
+  @SimpleProperty(description = "The maximum number of seeds StartBatchTextGeneration sends to the "
+      + "server in one request.")
+  public void BatchSize(int size) {
+    requests.setBatchSize(size);
+  }
+
+  /**
+   * Returns the maximum number of batch requests sent at once.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int BatchConcurrency() {
+    return requests.getBatchConcurrency();
+  }
+
+  /**
+   * Sets the maximum number of requests StartBatchTextGeneration has in
+   * flight at once.
+   *
+   * @param concurrency
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_BATCH_CONCURRENCY + "")
+  @SimpleProperty(description = "The maximum number of batch requests StartBatchTextGeneration has "
+      + "in flight at once.")
+  public void BatchConcurrency(int concurrency) {
+    requests.setBatchConcurrency(concurrency);
+  }
+
+  /**
+   * Returns the longest wait, in milliseconds, to connect to the server.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int ConnectTimeout() {
+    return requests.getConnectTimeout();
+  }
+
+  /**
+   * Sets the longest wait, in milliseconds, to connect to the server. 0 means
+   * no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_CONNECT_TIMEOUT + "")
+  @SimpleProperty(description = "The longest wait, in milliseconds, to connect to the server. "
+      + "0 means no limit.")
+  public void ConnectTimeout(int timeout) {
+    requests.setConnectTimeout(timeout);
+  }
+
+  /**
+   * Returns the longest wait, in milliseconds, for the server's response.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int ReadTimeout() {
+    return requests.getReadTimeout();
+  }
+
+  /**
+   * Sets the longest wait, in milliseconds, for the server's response (or, in
+   * streaming mode, for its next token). With AdaptiveTimeouts, this is the
+   * upper bound. 0 means no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_READ_TIMEOUT + "")
+  @SimpleProperty(description = "The longest wait, in milliseconds, for the server's response (in "
+      + "streaming mode, for the next token). 0 means no limit.")
+  public void ReadTimeout(int timeout) {
+    requests.setReadTimeout(timeout);
+  }
+
+  /**
+   * Returns the longest time, in milliseconds, a request can take.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int TotalTimeout() {
+    return requests.getTotalTimeout();
+  }
+
+  /**
+   * Sets the longest time, in milliseconds, a request can take, retries
+   * included, before WebServiceError is raised. 0 means no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_TOTAL_TIMEOUT + "")
+  @SimpleProperty(description = "The longest time, in milliseconds, a request can take, retries "
+      + "included. 0 means no limit.")
+  public void TotalTimeout(int timeout) {
+    requests.setTotalTimeout(timeout);
+  }
+
+  /**
+   * Returns the number of times a failed request is retried.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxRetries() {
+    return requests.getMaxRetries();
+  }
+
+  /**
+   * Sets the number of times a request that fails (because the server can't
+   * be reached, times out or has an error) is retried. Each retry waits a
+   * random time, up to twice as long as the one before. Batch requests to the
+   * server's batch endpoint aren't retried.
+   *
+   * @param retries
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_MAX_RETRIES + "")
+  @SimpleProperty(description = "The number of times a request that fails (e.g., because the server "
+      + "can't be reached) is retried, each after a longer wait.")
+  public void MaxRetries(int retries) {
+    requests.setMaxRetries(retries);
+  }
+
+  /**
+   * Returns whether the read timeout adapts to the server's latency.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean AdaptiveTimeouts() {
+    return requests.isAdaptiveTimeouts();
+  }
+
+  /**
+   * Turns adaptive timeouts on or off. When on, once enough requests have
+   * succeeded, the read timeout is a few times the time the server usually
+   * takes (its 95th percentile), so a request to a server that has stopped
+   * responding fails (and is retried) sooner. ReadTimeout is the upper bound.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_ADAPTIVE_TIMEOUTS + "")
+  @SimpleProperty(description = "If true, the read timeout follows how long the server usually takes, "
+      + "so a request to a server that has stopped responding fails sooner. ReadTimeout is the upper "
+      + "bound.")
+  public void AdaptiveTimeouts(boolean enabled) {
+    requests.setAdaptiveTimeouts(enabled);
+  }
+
+  /**
+   * Returns the base URLs of the servers requests are sent to.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String ServerURLs() {
+    return requests.getServerURLs();
+  }
+
+  /**
+   * Sets the servers requests are sent to: one or more base URLs, separated by
+   * commas (e.g., to spread requests over several servers, or to use a local
+   * test server). LoadBalancing picks the server for each request.
+   *
+   * @param urls
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_SERVER_URLS)
+  @SimpleProperty(description = "The base URLs of the servers requests are sent to, separated by commas. "
+      + "LoadBalancing picks the server for each request.")
+  public void ServerURLs(String urls) {
+    requests.setServerURLs(urls);
+  }
+
+  /**
+   * Returns how the server for each request is picked.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String LoadBalancing() {
+    return requests.getLoadBalancing();
+  }
+
+  /**
+   * Sets how the server for each request is picked, when ServerURLs has more
+   * than one. Servers that have failed since they last answered are avoided
+   * either way.
+   * <ul>
+   * <li>RoundRobin: each server in turn.</li>
+   * <li>LeastLatency: the server that has been answering fastest.</li>
+   * </ul>
+   *
+   * @param balancing
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_LOAD_BALANCING)
+  @SimpleProperty(description = "How the server for each request is picked, when there are several: "
+      + "RoundRobin (each in turn) or LeastLatency (the one that has been answering fastest).")
+  public void LoadBalancing(String balancing) {
+    requests.setLoadBalancing(balancing);
+  }
+
+  /**
+   * Returns the model the server generates text with.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String Model() {
+    return model;
+  }
+
+  /**
+   * Sets the model the server generates text with (sent as the model
+   * parameter of each request).
+   *
+   * @param model
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_MODEL)
+  @SimpleProperty(description = "The model the server generates text with, e.g., drSeuss_20.")
+  public void Model(String model) {
+    if (model.trim().length() == 0) {
+      Log.e(LOG_TAG, "Model can't be empty. Using " + DEFAULT_MODEL + " instead.");
+      model = DEFAULT_MODEL;
+    }
+    this.model = model.trim();
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxParallelRequests() {
+    return GenerationExecutor.getInstance().getMaxParallel();
+  }
+
+  /**
+   * Sets the maximum number of requests (of both this extension and
+   * TextMixer) sent at once; the others wait their turn, interactive
+   * requests before batches.
+   *
+   * @param maxParallel
+   */
+  @SimpleProperty(description = "The maximum number of requests sent at once (shared with "
+      + "TextMixer). The others wait their turn, StartTextGeneration requests before batches.")
+  public void MaxParallelRequests(int maxParallel) {
+    requests.setMaxParallelRequests(maxParallel);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxQueuedRequests() {
+    return GenerationExecutor.getInstance().getMaxQueued();
+  }
+
+  /**
+   * Sets the maximum number of requests (of both this extension and
+   * TextMixer) waiting to be sent. When there are more,
+   * SaturationPolicy decides which is turned away, raising RequestRejected.
+   *
+   * @param maxQueued
+   */
+  @SimpleProperty(description = "The maximum number of requests waiting to be sent (shared with "
+      + "TextMixer). When there are more, one is turned away (see SaturationPolicy) and "
+      + "RequestRejected is raised.")
+  public void MaxQueuedRequests(int maxQueued) {
+    requests.setMaxQueuedRequests(maxQueued);
+  }
+
+  /**
+   * Returns which request is turned away when too many are waiting.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String SaturationPolicy() {
+    return GenerationExecutor.getInstance().getSaturationPolicy();
+  }
+
+  /**
+   * Sets which request is turned away when MaxQueuedRequests are already
+   * waiting (shared with TextMixer).
+   * <ul>
+   * <li>RejectNew: the new request.</li>
+   * <li>DropOldest: the oldest waiting request of the lowest priority
+   * (batches before interactive requests), unless the new request is a batch
+   * and only interactive requests are waiting.</li>
+   * </ul>
+   *
+   * @param policy
+   */
+  @SimpleProperty(description = "Which request is turned away when too many are waiting (shared with "
+      + "TextMixer): RejectNew (the new one) or DropOldest (the oldest waiting one, batches first).")
+  public void SaturationPolicy(String policy) {
+    requests.setSaturationPolicy(policy);
+  }
+
+  /**
+   * Returns how often, in milliseconds, GotMetrics is raised.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MetricsInterval() {
+    return requests.getMetricsInterval();
+  }
+
+  /**
+   * Sets how often, in milliseconds, GotMetrics is raised. 0 means never.
+   *
+   * @param interval
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_METRICS_INTERVAL + "")
+  @SimpleProperty(description = "How often, in milliseconds, GotMetrics is raised with the metrics of this "
+      + "extension's requests. 0 means never.")
+  public void MetricsInterval(int interval) {
+    requests.setMetricsInterval(interval);
+  }
+
+  @Override
+  public void onDestroy() {
+    // stops GotMetrics, so the handler doesn't keep the destroyed form alive
+    requests.onDestroy();
+  }
+
+  /**
+   * Returns the number of requests waiting to be sent.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of requests (of both "
+      + "this extension and TextMixer) waiting to be sent.")
+  public int QueueDepth() {
+    return GenerationExecutor.getInstance().getQueued();
+  }
+
+  /**
+   * Returns the number of requests being sent.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of requests (of both "
+      + "this extension and TextMixer) being sent.")
+  public int ActiveRequests() {
+    return GenerationExecutor.getInstance().getActive();
+  }
+}
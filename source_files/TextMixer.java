@@ -8,35 +8,78 @@ import com.google.appinventor.components.annotations.SimpleEvent;
 import com.google.appinventor.components.annotations.SimpleFunction;
 import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
+import com.google.appinventor.components.annotations.UsesPermissions;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 import com.google.appinventor.components.runtime.util.YailList;
 import com.google.appinventor.components.runtime.*;
-import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.annotations.SimpleEvent;
 import java.net.*;
 import java.io.*;
 import org.json.*;
 
-import android.app.Activity;
 import android.util.Log;
 
 @DesignerComponent(version = TextMixer.VERSION, description = "Generates text using a seed sentence input and mixing text generation based on Dr. Seuss, Shakespeare, and Taylor Swift.", category = ComponentCategory.EXTENSION, nonVisible = true, iconName = "appengine/src/com/google/appinventor/images/TODO.png")
 @SimpleObject(external = true)
-public class TextMixer extends AndroidNonvisibleComponent implements Component {
+@UsesPermissions(permissionNames = "android.permission.ACCESS_NETWORK_STATE")
+public class TextMixer extends AndroidNonvisibleComponent implements Component, OnDestroyListener {
   public static final int VERSION = 1;
   private ComponentContainer container;
   private final boolean DEBUG = true;
   private final String LOG_TAG = "TextMixer";
-  private final String baseURLString = "http://appinventor-alexa.csail.mit.edu:3000/";
-  private final Activity activity; // for running on ui thread
 
   // example variable for extension
   private String exampleVar;
 
+  // the requests (policy, cache, streaming, prefetching, batches, timeouts and
+  // metrics), shared with SentenceGenerator's code
+  private final GenerationRequests<DecodedSentence> requests;
+
+  // where sentences are generated: on the servers or on the device
+  private volatile String engine = DEFAULT_ENGINE;
+  // the on-device engine's model files, and the engine itself (loaded when first used)
+  private volatile String localModels = DEFAULT_LOCAL_MODELS;
+  private GenerationNgramMixer localMixer; // guarded by this
+  private String localMixerModels; // the files localMixer was loaded from, guarded by this
+
+  // whether GotSentenceOrigins is raised, with the origins in compact form
+  private volatile boolean compactOrigins = DEFAULT_COMPACT_ORIGINS;
+
+  // whether the compact binary response format is asked for (json otherwise)
+  private volatile boolean compactResponses = DEFAULT_COMPACT_RESPONSES;
+
+  // request policies:
+  public static final String POLICY_PARALLEL = GenerationRequests.POLICY_PARALLEL;
+  public static final String POLICY_LATEST_WINS = GenerationRequests.POLICY_LATEST_WINS;
+  public static final String POLICY_QUEUE = GenerationRequests.POLICY_QUEUE;
+
+  // engines:
+  public static final String ENGINE_SERVER = "Server";
+  public static final String ENGINE_LOCAL = "Local";
+
   // defaults:
   public static final String DEFAULT_EXAMPLE_VAR_VALUE = "default";
+  public static final String DEFAULT_SERVER_URLS = "http://appinventor-alexa.csail.mit.edu:3000/";
+  public static final String DEFAULT_LOAD_BALANCING = GenerationRequests.DEFAULT_LOAD_BALANCING;
+  public static final String DEFAULT_ENGINE = ENGINE_SERVER;
+  public static final String DEFAULT_LOCAL_MODELS = "seuss.ngram, taylor.ngram, shakespeare.ngram";
+  public static final String DEFAULT_REQUEST_POLICY = GenerationRequests.DEFAULT_REQUEST_POLICY;
+  public static final boolean DEFAULT_STREAMING = GenerationRequests.DEFAULT_STREAMING;
+  public static final boolean DEFAULT_COMPACT_ORIGINS = false;
+  public static final boolean DEFAULT_COMPACT_RESPONSES = true;
+  public static final boolean DEFAULT_PREFETCH = GenerationRequests.DEFAULT_PREFETCH;
+  public static final int DEFAULT_PREFETCH_SIZE = GenerationRequests.DEFAULT_PREFETCH_SIZE;
+  public static final int DEFAULT_BATCH_SIZE = GenerationRequests.DEFAULT_BATCH_SIZE;
+  public static final int DEFAULT_BATCH_CONCURRENCY = GenerationRequests.DEFAULT_BATCH_CONCURRENCY;
+  public static final boolean DEFAULT_CACHE_ENABLED = GenerationRequests.DEFAULT_CACHE_ENABLED;
+  public static final int DEFAULT_CONNECT_TIMEOUT = GenerationRequests.DEFAULT_CONNECT_TIMEOUT;
+  public static final int DEFAULT_READ_TIMEOUT = GenerationRequests.DEFAULT_READ_TIMEOUT;
+  public static final int DEFAULT_TOTAL_TIMEOUT = GenerationRequests.DEFAULT_TOTAL_TIMEOUT;
+  public static final int DEFAULT_MAX_RETRIES = GenerationRequests.DEFAULT_MAX_RETRIES;
+  public static final boolean DEFAULT_ADAPTIVE_TIMEOUTS = GenerationRequests.DEFAULT_ADAPTIVE_TIMEOUTS;
+  public static final int DEFAULT_METRICS_INTERVAL = GenerationRequests.DEFAULT_METRICS_INTERVAL;
 
   /**
    * Constructor creates a new extension object with default values.
@@ -44,7 +87,9 @@ public class TextMixer extends AndroidNonvisibleComponent implements Component {
   public TextMixer(ComponentContainer container) {
     super(container.$form());
     this.container = container;
-    activity = container.$context();
+    requests = new GenerationRequests<DecodedSentence>(container.$context(), LOG_TAG, DEFAULT_SERVER_URLS,
+        new Responses());
+    form.registerForOnDestroy(this);
   }
 
   /**
@@ -56,101 +101,337 @@ public class TextMixer extends AndroidNonvisibleComponent implements Component {
    * @param shakespearePercentage
    */
   @SimpleFunction
-  public void StartSentenceGeneration(final String seedSentence, final float drSeussPercentage,
+  public void StartSentenceGeneration(String seedSentence, float drSeussPercentage, float taylorSwiftPercentage,
+      float shakespearePercentage) {
+    if (engine.equals(ENGINE_LOCAL)) {
+      // takes milliseconds, so it isn't cached, merged or queued
+      requests.startLocal(seedSentence, localGenerator(drSeussPercentage, taylorSwiftPercentage,
+          shakespearePercentage));
+    } else {
+      requests.start(seedSentence, mixParameters(drSeussPercentage, taylorSwiftPercentage, shakespearePercentage));
+    }
+  }
+
+  // the parameters of a server request: the percentages of each text
+  private GenerationRequests.Parameters mixParameters(final float drSeussPercentage,
       final float taylorSwiftPercentage, final float shakespearePercentage) {
-    // From Web.java:
-    AsynchUtil.runAsynchronously(new Runnable() {
+    return new GenerationRequests.Parameters() {
+      @Override
+      public String url(String server, String seed) throws IOException {
+        // From MediaStore.java:
+        String encodedSeed = java.net.URLEncoder.encode(seed, "UTF-8").replaceAll("\\+", "%20"); // Unclear if
+        // this is
+        // necessary
+        // e.g.,
+        // http://appinventor-alexa.csail.mit.edu:3000/?sent=hello%20world&swift=.1&shakes=.1&seuss=.8
+        return server + "?sent=" + encodedSeed + "&seuss=" + drSeussPercentage + "&swift=" + taylorSwiftPercentage
+            + "&shakes=" + shakespearePercentage;
+      }
+
       @Override
-      public void run() {
-        try {
-          // From MediaStore.java:
-          String encodedSeed = java.net.URLEncoder.encode(seedSentence, "UTF-8").replaceAll("\\+", "%20"); // Unclear if
-          // this is
-          // necessary
-          // e.g.,
-          // http://appinventor-alexa.csail.mit.edu:3000/?sent=hello%20world&swift=.1&shakes=.1&seuss=.8
-          String url = baseURLString + "?sent=" + encodedSeed + "&seuss=" + drSeussPercentage + "&swift="
-              + taylorSwiftPercentage + "&shakes=" + shakespearePercentage;
-          URL obj = new URL(url);
-          HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-
-          // optional default is GET
-          con.setRequestMethod("GET");
-
-          // add request header
-          String USER_AGENT = "AppInventor";
-          con.setRequestProperty("User-Agent", USER_AGENT);
-          con.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
-
-          con.setConnectTimeout(300000); // 5 min
-          con.setReadTimeout(300000);
-
-          // get and build sentence from response
-          BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-          StringBuilder response = new StringBuilder();
-          String inputLine;
-          while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
+      public JSONObject batchItem(String seed) throws JSONException {
+        JSONObject item = new JSONObject();
+        item.put("sent", seed);
+        item.put("seuss", (double) drSeussPercentage);
+        item.put("swift", (double) taylorSwiftPercentage);
+        item.put("shakes", (double) shakespearePercentage);
+        return item;
+      }
+
+      @Override
+      public String cacheKey(String seed) {
+        return requests.cacheKey(seed, drSeussPercentage, taylorSwiftPercentage, shakespearePercentage);
+      }
+    };
+  }
+
+  // generates sentences with the given percentages on the device
+  private GenerationRequests.Generator localGenerator(final float drSeussPercentage,
+      final float taylorSwiftPercentage, final float shakespearePercentage) {
+    return new GenerationRequests.Generator() {
+      @Override
+      public String generate(String seed) throws IOException {
+        return localMixer().generate(seed, drSeussPercentage, taylorSwiftPercentage, shakespearePercentage);
+      }
+    };
+  }
+
+  // the on-device engine, loading its models the first time (or after
+  // LocalModels changes)
+  private synchronized GenerationNgramMixer localMixer() throws IOException {
+    String models = localModels;
+    if (localMixer == null || !models.equals(localMixerModels)) {
+      String[] files = models.split(",");
+      localMixer = new GenerationNgramMixer(loadModel(files[0].trim()), loadModel(files[1].trim()),
+          loadModel(files[2].trim()));
+      localMixerModels = models;
+    }
+    return localMixer;
+  }
+
+  // loads a model file: memory-mapped if it's a file on the device, otherwise
+  // read from the app's assets
+  private GenerationNgramModel loadModel(String path) throws IOException {
+    File file = new File(path);
+    if (file.isAbsolute() && file.isFile()) {
+      return GenerationNgramModel.open(file);
+    }
+    return GenerationNgramModel.read(MediaUtil.openMedia(form, path));
+  }
+
+  /**
+   * Generate text for many seed sentences, with the same percentages. The
+   * seeds are sent to the server in batches (BatchSize seeds per request,
+   * BatchConcurrency requests at once), and GotBatchSentence is raised for
+   * each seed as its batch completes.
+   *
+   * @param seedSentences
+   * @param drSeussPercentage
+   * @param taylorSwiftPercentage
+   * @param shakespearePercentage
+   */
+  @SimpleFunction(description = "Generates a sentence for each seed sentence in the list, sending them to "
+      + "the server in batches. GotBatchSentence (or BatchGenerationError) is raised for each seed, "
+      + "with its index in the list, as its batch completes, then BatchGenerationComplete.")
+  public void StartBatchSentenceGeneration(YailList seedSentences, float drSeussPercentage,
+      float taylorSwiftPercentage, float shakespearePercentage) {
+    if (engine.equals(ENGINE_LOCAL)) {
+      requests.startLocalBatch(seedSentences.toStringArray(), localGenerator(drSeussPercentage,
+          taylorSwiftPercentage, shakespearePercentage));
+    } else {
+      requests.startBatch(seedSentences.toStringArray(), mixParameters(drSeussPercentage, taylorSwiftPercentage,
+          shakespearePercentage));
+    }
+  }
+
+  // decodes a response from the stream, in whichever format the server sent
+  private static final GenerationHttpClient.ResponseReader<GenerationResponseParser.MixedSentence> MIXED_SENTENCE_READER =
+      new GenerationHttpClient.ResponseReader<GenerationResponseParser.MixedSentence>() {
+        @Override
+        public GenerationResponseParser.MixedSentence read(InputStream stream, String contentType)
+            throws IOException {
+          return GenerationResponseParser.readMixedSentence(stream, contentType);
+        }
+      };
+
+  // a response decoded (on a worker thread), ready for the events
+  private static final class DecodedSentence {
+    final GenerationResponseParser.MixedSentence mixed;
+    final YailList wordList;
+    final YailList originList;
+    // for GotSentenceOrigins (null unless compact origins were asked for)
+    final YailList originCodes;
+    final YailList originRuns;
+    final YailList originPercentages;
+
+    DecodedSentence(String responseString, boolean compact) {
+      this(GenerationResponseParser.parseMixedSentence(responseString), compact);
+    }
+
+    DecodedSentence(GenerationResponseParser.MixedSentence mixed, boolean compact) {
+      this.mixed = mixed;
+      wordList = YailList.makeList(mixed.tokens);
+      originList = YailList.makeList(mixed.corpora);
+      if (!compact) {
+        originCodes = null;
+        originRuns = null;
+        originPercentages = null;
+        return;
+      }
+      Object[] codes = new Object[mixed.origins.length];
+      for (int i = 0; i < codes.length; i++) {
+        codes[i] = (int) mixed.origins[i];
+      }
+      originCodes = YailList.makeList(codes);
+      // [first word, last word, corpus] (App Inventor list indices start at 1)
+      int[][] runs = mixed.originRuns();
+      Object[] runList = new Object[runs.length];
+      for (int i = 0; i < runs.length; i++) {
+        runList[i] = YailList.makeList(new Object[] { runs[i][0] + 1, runs[i][1] + 1,
+            mixed.corpora[runs[i][0]] });
+      }
+      originRuns = YailList.makeList(runList);
+      // [corpus, percentage] pairs, for the lookup in pairs block
+      Object[] percentages = new Object[GenerationResponseParser.CORPORA.length];
+      for (int i = 0; i < percentages.length; i++) {
+        percentages[i] = YailList.makeList(new Object[] { GenerationResponseParser.CORPORA[i],
+            mixed.percentage(i + 1) });
+      }
+      originPercentages = YailList.makeList(percentages);
+    }
+  }
+
+  // reads and decodes the responses, and raises the events with them
+  private final class Responses implements GenerationRequests.Extension<DecodedSentence> {
+    @Override
+    public Object get(String url, GenerationHttpClient.Call call, GenerationHttpClient.Options options)
+        throws IOException {
+      // decoded as it arrives, in the compact format if the server has it
+      return GenerationHttpClient.getInstance().get(url, call, options,
+          compactResponses ? GenerationResponseParser.ACCEPT_COMPACT : null, MIXED_SENTENCE_READER);
+    }
+
+    @Override
+    public String streamedResponse(GenerationTokenStream stream) {
+      return stream.toMixedResponse();
+    }
+
+    @Override
+    public String cacheable(Object response) {
+      if (response instanceof String) {
+        String json = (String) response;
+        return GenerationResponseParser.parseMixedSentence(json).tokens.length > 0 ? json : null;
+      }
+      // the cache keeps json, so a decoded response is only encoded again for it
+      GenerationResponseParser.MixedSentence mixed = (GenerationResponseParser.MixedSentence) response;
+      return mixed.tokens.length > 0 ? mixed.toJson() : null;
+    }
+
+    @Override
+    public DecodedSentence decode(Object response, boolean withTokens) {
+      return response instanceof String
+          ? new DecodedSentence((String) response, compactOrigins)
+          : new DecodedSentence((GenerationResponseParser.MixedSentence) response, compactOrigins);
+    }
+
+    @Override
+    public DecodedSentence decodeBatchResult(String response) {
+      return new DecodedSentence(response, false);
+    }
+
+    @Override
+    public void raiseResponse(DecodedSentence decoded, boolean withTokens) {
+      GenerationResponseParser.MixedSentence mixed = decoded.mixed;
+      if (withTokens) {
+        for (int i = 0; i < mixed.tokens.length; i++) {
+          if (!mixed.tokens[i].equals(GenerationTokenStream.END_OF_SENTENCE)) {
+            GotToken(mixed.tokens[i], i < mixed.corpora.length ? mixed.corpora[i] : "");
           }
-          in.close();
-
-          final String responseString = response.toString();
-
-          // send everything to GotGeneratedSentence and GotGeneratedSentenceAndTexts:
-          activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-              // chop off the warning (if there is one), so it's just the json:
-              String finalSentence = responseString.substring(responseString.indexOf("{"));
-              YailList wordList = new YailList();
-              YailList originList = new YailList();
-              try {
-                JSONObject jsonObj = new JSONObject(finalSentence.toString());
-                // {"tokens": ["hello", "world", "in", "the", "clear", "to", "a", "little",
-                // "<eos>"], "corpora": ["none", "none", "seuss", "seuss", "taylor",
-                // "shakespeare", "seuss", "taylor", "shakespeare"]}
-
-                // construct the sentence and list of words
-                finalSentence = "";
-                JSONArray tokenJsonArr = jsonObj.getJSONArray("tokens");
-                String[] tokenArr = new String[tokenJsonArr.length()];
-                for (int i = 0; i < tokenJsonArr.length(); i++) {
-                  tokenArr[i] = tokenJsonArr.getString(i);
-                  // if not <eos>, add to sentence
-                  if (!tokenJsonArr.getString(i).equals("<eos>")) {
-                    finalSentence += tokenJsonArr.getString(i);
-                    finalSentence += " ";
-                  }
-                }
-                wordList = YailList.makeList(tokenArr);
-
-                // construct the list of origin texts
-                JSONArray corporaJsonArr = jsonObj.getJSONArray("corpora");
-                String[] originArr = new String[corporaJsonArr.length()];
-                for (int i = 0; i < corporaJsonArr.length(); i++) {
-                  originArr[i] = corporaJsonArr.getString(i);
-                }
-                originList = YailList.makeList(originArr);
-              } catch (JSONException e) {
-                finalSentence = e.toString();
-              }
-              if (responseString.contains("Warning")) {
-                finalSentence += " | Warning: The percentages must add up to one.";
-              }
-
-              // Dispatch the events:
-              GotGeneratedSentence(finalSentence);
-              GotGeneratedSentenceAndTexts(wordList, originList);
-            }
-          });
-
-        } catch (Exception e) {
-          Log.e(LOG_TAG, "ERROR_UNABLE_TO_GET", e);
-          e.printStackTrace();
-          WebServiceError(e.toString());
         }
       }
-    });
+
+      // Dispatch the events:
+      GotGeneratedSentence(mixed.sentence);
+      GotGeneratedSentenceAndTexts(decoded.wordList, decoded.originList);
+      if (decoded.originCodes != null) {
+        GotSentenceOrigins(decoded.originCodes, decoded.originRuns, decoded.originPercentages);
+      }
+    }
+
+    @Override
+    public void raiseToken(GenerationTokenStream.Token token) {
+      GotToken(token.token, token.corpus);
+    }
+
+    @Override
+    public void raiseBatchResult(int index, DecodedSentence decoded) {
+      GotBatchSentence(index, decoded.mixed.sentence, decoded.wordList, decoded.originList);
+    }
+
+    @Override
+    public void raiseBatchError(int index, String message) {
+      BatchGenerationError(index, message);
+    }
+
+    @Override
+    public void raiseBatchComplete() {
+      BatchGenerationComplete();
+    }
+
+    @Override
+    public void raiseError(String message) {
+      WebServiceError(message);
+    }
+
+    @Override
+    public void raiseRejected(long id, String message) {
+      RequestRejected(id, message);
+    }
+
+    @Override
+    public void raiseMetrics(YailList metrics) {
+      GotMetrics(metrics);
+    }
+  }
+
+  /**
+   * Returns the metrics of this extension's requests as a list of (name,
+   * value) pairs.
+   */
+  @SimpleFunction(description = "Returns the metrics of this extension's requests, as a list of pairs: the "
+      + "counts Requests, Successes, Errors, Timeouts, Rejected, CacheHits, PrefetchHits and BytesReceived, "
+      + "then, for each phase of a request (Queue, Connect, Server, Transfer, Decode, UiThread and "
+      + "Total), the number of times it was timed (e.g., ServerCount) and its 50th, 95th and 99th percentile "
+      + "durations in milliseconds (e.g., ServerP95).")
+  public YailList GetMetrics() {
+    return requests.metricsList();
+  }
+
+  /**
+   * Sets every count and timing of GetMetrics back to zero.
+   */
+  @SimpleFunction(description = "Sets every count and timing of GetMetrics back to zero.")
+  public void ResetMetrics() {
+    requests.resetMetrics();
+  }
+
+  /**
+   * Cancels a request made by StartSentenceGeneration or StartBatchSentenceGeneration.
+   * Its server request is stopped (unless an identical request is waiting for
+   * it), and it raises no more events.
+   *
+   * @param id the request's id, from LastRequestId right after it was made
+   * @return true if the request was cancelled, false if it had already
+   *         finished
+   */
+  @SimpleFunction(description = "Cancels the request (or batch) with the given id, as given by "
+      + "LastRequestId right after it was made. It raises no more events. Returns false if the "
+      + "request had already finished.")
+  public boolean CancelRequest(long id) {
+    return requests.cancel(id);
+  }
+
+  /**
+   * Cancels every request (and batch) that hasn't finished.
+   */
+  @SimpleFunction(description = "Cancels every request and batch that hasn't finished. They raise "
+      + "no more events.")
+  public void CancelAllRequests() {
+    requests.cancelAll();
+  }
+
+  /**
+   * Returns the id of the latest request (or batch), for CancelRequest.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The id of the latest request or "
+      + "batch, which can be passed to CancelRequest.")
+  public long LastRequestId() {
+    return requests.getLastRequestId();
+  }
+
+  /**
+   * Removes every cached response (of both this extension and
+   * SentenceGenerator).
+   */
+  @SimpleFunction(description = "Removes every cached response, in memory and on disk. "
+      + "The cache is shared with the SentenceGenerator extension.")
+  public void ClearCache() {
+    GenerationResponseCache.getInstance().clear();
+  }
+
+  /**
+   * In streaming mode, indicates that the next token (word) of the sentence
+   * being generated by StartSentenceGeneration has arrived, with the text it
+   * came from. GotGeneratedSentence and GotGeneratedSentenceAndTexts are still
+   * raised with the whole sentence at the end.
+   *
+   * @param token  the token that arrived.
+   * @param corpus the text the token came from (e.g., seuss, shakespeare,
+   *               taylor, or none for words of the seed sentence).
+   */
+  @SimpleEvent
+  public void GotToken(String token, String corpus) {
+    EventDispatcher.dispatchEvent(this, "GotToken", token, corpus);
   }
 
   /**
@@ -177,6 +458,59 @@ public class TextMixer extends AndroidNonvisibleComponent implements Component {
     EventDispatcher.dispatchEvent(this, "GotGeneratedSentenceAndTexts", wordList, textOriginList);
   }
 
+  /**
+   * With CompactOrigins on, raised after GotGeneratedSentenceAndTexts with the
+   * texts the words came from in compact forms, worked out while decoding the
+   * response, so blocks don't have to go through the text origin list.
+   *
+   * @param originCodes       the code of each word's text: its index in
+   *                          CorpusLabels, or 0 for any other text.
+   * @param originRuns        the runs of consecutive words from the same text,
+   *                          each a list of the first word's index, the last
+   *                          word's index and the text.
+   * @param originPercentages a list of pairs of each text in CorpusLabels and
+   *                          the percentage of the words that came from it.
+   */
+  @SimpleEvent
+  public void GotSentenceOrigins(YailList originCodes, YailList originRuns, YailList originPercentages) {
+    EventDispatcher.dispatchEvent(this, "GotSentenceOrigins", originCodes, originRuns, originPercentages);
+  }
+
+  /**
+   * Indicates that the sentence for one seed of a StartBatchSentenceGeneration
+   * has arrived.
+   *
+   * @param index          the index of the seed in the list (starting at 1).
+   * @param sentence       the generated sentence.
+   * @param wordList       the list of words that were returned.
+   * @param textOriginList the list of texts where each word came from.
+   */
+  @SimpleEvent
+  public void GotBatchSentence(int index, String sentence, YailList wordList, YailList textOriginList) {
+    EventDispatcher.dispatchEvent(this, "GotBatchSentence", index, sentence, wordList, textOriginList);
+  }
+
+  /**
+   * Indicates that the sentence for one seed of a StartBatchSentenceGeneration
+   * couldn't be generated.
+   *
+   * @param index   the index of the seed in the list (starting at 1).
+   * @param message the error message.
+   */
+  @SimpleEvent
+  public void BatchGenerationError(int index, String message) {
+    EventDispatcher.dispatchEvent(this, "BatchGenerationError", index, message);
+  }
+
+  /**
+   * Indicates that every seed of a StartBatchSentenceGeneration has had its
+   * GotBatchSentence or BatchGenerationError.
+   */
+  @SimpleEvent
+  public void BatchGenerationComplete() {
+    EventDispatcher.dispatchEvent(this, "BatchGenerationComplete");
+  }
+
   /**
    * Indicates that the communication with the Web service signaled an error
    *
@@ -186,4 +520,659 @@ public class TextMixer extends AndroidNonvisibleComponent implements Component {
   public void WebServiceError(String message) {
     EventDispatcher.dispatchEvent(this, "WebServiceError", message);
   }
-}
\ No newline at end of file
+
+  /**
+   * Indicates that a request (or batch) was turned away because too many
+   * requests were waiting to be sent (see MaxQueuedRequests and
+   * SaturationPolicy). It raises no other events.
+   *
+   * @param id      the request's id, as given by LastRequestId
+   * @param message why it was turned away
+   */
+  @SimpleEvent
+  public void RequestRejected(long id, String message) {
+    EventDispatcher.dispatchEvent(this, "RequestRejected", id, message);
+  }
+
+  /**
+   * Raised every MetricsInterval milliseconds with the metrics of this
+   * extension's requests.
+   *
+   * @param metrics the metrics, as returned by GetMetrics
+   */
+  @SimpleEvent
+  public void GotMetrics(YailList metrics) {
+    EventDispatcher.dispatchEvent(this, "GotMetrics", metrics);
+  }
+
+  /**
+   * Returns whether responses are cached.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean CacheEnabled() {
+    return requests.isCacheEnabled();
+  }
+
+  /**
+   * Turns the response cache on or off for this extension. When on, repeating
+   * a request (same seed sentence, percentages and ServerURLs) gives the
+   * stored response right away, without contacting the server.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_CACHE_ENABLED + "")
+  @SimpleProperty(description = "If true, responses are cached, and repeating a request (same seed "
+      + "sentence, percentages and ServerURLs) raises GotGeneratedSentence right away, without contacting the server.")
+  public void CacheEnabled(boolean enabled) {
+    requests.setCacheEnabled(enabled);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int CacheMaxEntries() {
+    return GenerationResponseCache.getInstance().getMaxEntries();
+  }
+
+  /**
+   * Sets the maximum number of responses kept in memory. The cache is shared
+   * with SentenceGenerator.
+   *
+   * @param maxEntries
+   */
+  @SimpleProperty(description = "The maximum number of responses kept in memory (shared with SentenceGenerator). "
+      + "The least recently used response is removed first.")
+  public void CacheMaxEntries(int maxEntries) {
+    GenerationResponseCache.getInstance().setMaxEntries(maxEntries);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public long CacheMaxBytes() {
+    return GenerationResponseCache.getInstance().getMaxBytes();
+  }
+
+  /**
+   * Sets the maximum total size of the cached responses, in bytes, in memory
+   * and on disk. The cache is shared with SentenceGenerator.
+   *
+   * @param maxBytes
+   */
+  @SimpleProperty(description = "The maximum total size, in bytes, of the responses kept in memory, "
+      + "and of those kept on disk (shared with SentenceGenerator).")
+  public void CacheMaxBytes(long maxBytes) {
+    GenerationResponseCache.getInstance().setMaxBytes(maxBytes);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public double CacheTimeToLive() {
+    return GenerationResponseCache.getInstance().getTimeToLive();
+  }
+
+  /**
+   * Sets how long (in seconds) a cached response is used for; 0 means until it
+   * is removed to make room. The cache is shared with SentenceGenerator.
+   *
+   * @param seconds
+   */
+  @SimpleProperty(description = "How long, in seconds, a cached response is used for (shared with "
+      + "SentenceGenerator). 0 means until it is removed to make room.")
+  public void CacheTimeToLive(double seconds) {
+    GenerationResponseCache.getInstance().setTimeToLive(seconds);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean DiskCache() {
+    return requests.isDiskCache();
+  }
+
+  /**
+   * Turns the on-disk tier of the cache on or off. When on, responses are also
+   * stored in the app's cache directory, so they survive the app restarting.
+   * The cache is shared with SentenceGenerator.
+   *
+   * @param enabled
+   */
+  @SimpleProperty(description = "If true, cached responses are also stored in the app's cache "
+      + "directory, so they are kept when the app restarts (shared with SentenceGenerator).")
+  public void DiskCache(boolean enabled) {
+    requests.setDiskCache(enabled);
+  }
+
+  /**
+   * Returns whether responses are streamed.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean Streaming() {
+    return requests.isStreaming();
+  }
+
+  /**
+   * Turns streaming on or off. In streaming mode, the server is asked to send
+   * the sentence one token at a time, and GotToken is raised as each one
+   * arrives, so the first words can be shown before the whole sentence is
+   * generated.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_STREAMING + "")
+  @SimpleProperty(description = "If true, the sentence is received one token at a time, and GotToken is "
+      + "raised as each one arrives. GotGeneratedSentence and GotGeneratedSentenceAndTexts are still "
+      + "raised at the end.")
+  public void Streaming(boolean enabled) {
+    requests.setStreaming(enabled);
+  }
+
+  /**
+   * Returns whether GotSentenceOrigins is raised.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean CompactOrigins() {
+    return compactOrigins;
+  }
+
+  /**
+   * Turns compact origins on or off. When on, GotSentenceOrigins is raised
+   * after GotGeneratedSentenceAndTexts with a code for each word's text, the
+   * runs of words from the same text and the percentage of words from each
+   * text, so an app that colors words by text doesn't have to compare strings
+   * in blocks.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_COMPACT_ORIGINS + "")
+  @SimpleProperty(description = "If true, GotSentenceOrigins is raised after GotGeneratedSentenceAndTexts "
+      + "with a code for each word's text, the runs of words from the same text, and the percentage of "
+      + "words from each text.")
+  public void CompactOrigins(boolean enabled) {
+    compactOrigins = enabled;
+  }
+
+  /**
+   * Returns whether the compact response format is asked for.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean CompactResponses() {
+    return compactResponses;
+  }
+
+  /**
+   * Turns the compact response format on or off. When on, the server is asked
+   * for a binary encoding of the tokens and texts (each distinct word and text
+   * sent once), which is smaller and faster to decode than json; servers that
+   * don't have it send json, as when it is off. Responses are gzipped either
+   * way, if the server can.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_COMPACT_RESPONSES + "")
+  @SimpleProperty(description = "If true, the server is asked for its compact binary response format, "
+      + "which is smaller and faster to decode than json. Servers without it send json.")
+  public void CompactResponses(boolean enabled) {
+    compactResponses = enabled;
+  }
+
+  /**
+   * Returns whether sentences are generated ahead of time.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean Prefetch() {
+    return requests.isPrefetch();
+  }
+
+  /**
+   * Turns prefetching on or off. When on, PrefetchSize sentences for the
+   * latest request's seed and percentages are generated in the background, so
+   * that repeating the request raises GotGeneratedSentence right away (with a
+   * new sentence each time) while another one is generated. They are thrown
+   * away when the seed or percentages change. On a metered network (e.g.,
+   * mobile data), a sentence is only generated while no other request is
+   * being sent.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_PREFETCH + "")
+  @SimpleProperty(description = "If true, sentences for the latest seed sentence and percentages are "
+      + "generated in the background (PrefetchSize of them), so repeating the request raises "
+      + "GotGeneratedSentence right away, with a new sentence each time. On a metered network, they are "
+      + "only generated while no other request is being sent.")
+  public void Prefetch(boolean enabled) {
+    requests.setPrefetch(enabled);
+  }
+
+  /**
+   * Returns the number of sentences generated ahead of time.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int PrefetchSize() {
+    return requests.getPrefetchSize();
+  }
+
+  /**
+   * Sets the number of sentences generated ahead of time, when Prefetch is on.
+   *
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_PREFETCH_SIZE + "")
+  @SimpleProperty(description = "The number of sentences generated ahead of time when Prefetch is on.")
+  public void PrefetchSize(int size) {
+    requests.setPrefetchSize(size);
+  }
+
+  /**
+   * Returns the number of sentences ready to be handed out.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of sentences generated "
+      + "ahead of time that are ready to be handed out.")
+  public int PrefetchedCount() {
+    return requests.getPrefetchedCount();
+  }
+
+  /**
+   * Returns the texts the server mixes, in the order of their codes in
+   * GotSentenceOrigins.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The texts words can come from "
+      + "(seuss, taylor, shakespeare, or none for words of the seed sentence). A word's code in "
+      + "GotSentenceOrigins is the index of its text in this list.")
+  public YailList CorpusLabels() {
+    return YailList.makeList(GenerationResponseParser.CORPORA);
+  }
+
+  /**
+   * Returns what happens to a request when another is made before it
+   * finishes.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String RequestPolicy() {
+    return requests.getRequestPolicy();
+  }
+
+  /**
+   * Sets what happens to a request when another (with different parameters) is
+   * made before it finishes. Identical requests that are in flight at the same
+   * time are always merged into one server request.
+   * <ul>
+   * <li>Parallel: both run, and both raise their events.</li>
+   * <li>LatestWins: only the newest request raises its events; older ones are
+   * cancelled.</li>
+   * <li>Queue: the new request is sent when the one before it finishes.</li>
+   * </ul>
+   *
+   * @param policy
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_REQUEST_POLICY)
+  @SimpleProperty(description = "What happens to a request when another is made before it finishes: "
+      + "Parallel (both run), LatestWins (older ones are cancelled) or Queue (the new one "
+      + "waits for the one before). Identical requests are always merged into one.")
+  public void RequestPolicy(String policy) {
+    requests.setRequestPolicy(policy);
+  }
+
+  /**
+   * Returns the maximum number of seeds sent in one batch request.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int BatchSize() {
+    return requests.getBatchSize();
+  }
+
+  /**
+   * Sets the maximum number of seeds StartBatchSentenceGeneration sends in one
+   * request.
+   *
+   * @param size
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_BATCH_SIZE + "")
+  @SimpleProperty(description = "The maximum number of seeds StartBatchSentenceGeneration sends to the "
+      + "server in one request.")
+  public void BatchSize(int size) {
+    requests.setBatchSize(size);
+  }
+
+  /**
+   * Returns the maximum number of batch requests sent at once.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int BatchConcurrency() {
+    return requests.getBatchConcurrency();
+  }
+
+  /**
+   * Sets the maximum number of requests StartBatchSentenceGeneration has in
+   * flight at once.
+   *
+   * @param concurrency
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_BATCH_CONCURRENCY + "")
+  @SimpleProperty(description = "The maximum number of batch requests StartBatchSentenceGeneration has "
+      + "in flight at once.")
+  public void BatchConcurrency(int concurrency) {
+    requests.setBatchConcurrency(concurrency);
+  }
+
+  /**
+   * Returns the longest wait, in milliseconds, to connect to the server.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int ConnectTimeout() {
+    return requests.getConnectTimeout();
+  }
+
+  /**
+   * Sets the longest wait, in milliseconds, to connect to the server. 0 means
+   * no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_CONNECT_TIMEOUT + "")
+  @SimpleProperty(description = "The longest wait, in milliseconds, to connect to the server. "
+      + "0 means no limit.")
+  public void ConnectTimeout(int timeout) {
+    requests.setConnectTimeout(timeout);
+  }
+
+  /**
+   * Returns the longest wait, in milliseconds, for the server's response.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int ReadTimeout() {
+    return requests.getReadTimeout();
+  }
+
+  /**
+   * Sets the longest wait, in milliseconds, for the server's response (or, in
+   * streaming mode, for its next token). With AdaptiveTimeouts, this is the
+   * upper bound. 0 means no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_READ_TIMEOUT + "")
+  @SimpleProperty(description = "The longest wait, in milliseconds, for the server's response (in "
+      + "streaming mode, for the next token). 0 means no limit.")
+  public void ReadTimeout(int timeout) {
+    requests.setReadTimeout(timeout);
+  }
+
+  /**
+   * Returns the longest time, in milliseconds, a request can take.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int TotalTimeout() {
+    return requests.getTotalTimeout();
+  }
+
+  /**
+   * Sets the longest time, in milliseconds, a request can take, retries
+   * included, before WebServiceError is raised. 0 means no limit.
+   *
+   * @param timeout
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_TOTAL_TIMEOUT + "")
+  @SimpleProperty(description = "The longest time, in milliseconds, a request can take, retries "
+      + "included. 0 means no limit.")
+  public void TotalTimeout(int timeout) {
+    requests.setTotalTimeout(timeout);
+  }
+
+  /**
+   * Returns the number of times a failed request is retried.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxRetries() {
+    return requests.getMaxRetries();
+  }
+
+  /**
+   * Sets the number of times a request that fails (because the server can't
+   * be reached, times out or has an error) is retried. Each retry waits a
+   * random time, up to twice as long as the one before. Batch requests to the
+   * server's batch endpoint aren't retried.
+   *
+   * @param retries
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_MAX_RETRIES + "")
+  @SimpleProperty(description = "The number of times a request that fails (e.g., because the server "
+      + "can't be reached) is retried, each after a longer wait.")
+  public void MaxRetries(int retries) {
+    requests.setMaxRetries(retries);
+  }
+
+  /**
+   * Returns whether the read timeout adapts to the server's latency.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public boolean AdaptiveTimeouts() {
+    return requests.isAdaptiveTimeouts();
+  }
+
+  /**
+   * Turns adaptive timeouts on or off. When on, once enough requests have
+   * succeeded, the read timeout is a few times the time the server usually
+   * takes (its 95th percentile), so a request to a server that has stopped
+   * responding fails (and is retried) sooner. ReadTimeout is the upper bound.
+   *
+   * @param enabled
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN, defaultValue = DEFAULT_ADAPTIVE_TIMEOUTS + "")
+  @SimpleProperty(description = "If true, the read timeout follows how long the server usually takes, "
+      + "so a request to a server that has stopped responding fails sooner. ReadTimeout is the upper "
+      + "bound.")
+  public void AdaptiveTimeouts(boolean enabled) {
+    requests.setAdaptiveTimeouts(enabled);
+  }
+
+  /**
+   * Returns the base URLs of the servers requests are sent to.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String ServerURLs() {
+    return requests.getServerURLs();
+  }
+
+  /**
+   * Sets the servers requests are sent to: one or more base URLs, separated by
+   * commas (e.g., to spread requests over several servers, or to use a local
+   * test server). LoadBalancing picks the server for each request.
+   *
+   * @param urls
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_SERVER_URLS)
+  @SimpleProperty(description = "The base URLs of the servers requests are sent to, separated by commas. "
+      + "LoadBalancing picks the server for each request.")
+  public void ServerURLs(String urls) {
+    requests.setServerURLs(urls);
+  }
+
+  /**
+   * Returns how the server for each request is picked.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String LoadBalancing() {
+    return requests.getLoadBalancing();
+  }
+
+  /**
+   * Sets how the server for each request is picked, when ServerURLs has more
+   * than one. Servers that have failed since they last answered are avoided
+   * either way.
+   * <ul>
+   * <li>RoundRobin: each server in turn.</li>
+   * <li>LeastLatency: the server that has been answering fastest.</li>
+   * </ul>
+   *
+   * @param balancing
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_LOAD_BALANCING)
+  @SimpleProperty(description = "How the server for each request is picked, when there are several: "
+      + "RoundRobin (each in turn) or LeastLatency (the one that has been answering fastest).")
+  public void LoadBalancing(String balancing) {
+    requests.setLoadBalancing(balancing);
+  }
+
+  /**
+   * Returns where sentences are generated.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String Engine() {
+    return engine;
+  }
+
+  /**
+   * Sets where sentences are generated.
+   * <ul>
+   * <li>Server: by the LSTM on the TextMixer server (ServerURLs).</li>
+   * <li>Local: on the device, in milliseconds and without a network, by the
+   * n-gram models in LocalModels (simpler text than the server's).</li>
+   * </ul>
+   * The same events are raised either way.
+   *
+   * @param engine
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_ENGINE)
+  @SimpleProperty(description = "Where sentences are generated: Server (by the TextMixer server) or Local "
+      + "(on the device, without a network, by the n-gram models in LocalModels). The same events "
+      + "are raised either way.")
+  public void Engine(String engine) {
+    if (!engine.equals(ENGINE_SERVER) && !engine.equals(ENGINE_LOCAL)) {
+      Log.e(LOG_TAG, "Engine must be " + ENGINE_SERVER + " or " + ENGINE_LOCAL + ". Using " + DEFAULT_ENGINE
+          + " instead.");
+      engine = DEFAULT_ENGINE;
+    }
+    this.engine = engine;
+  }
+
+  /**
+   * Returns the model files of the Local engine.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String LocalModels() {
+    return localModels;
+  }
+
+  /**
+   * Sets the model files of the Local engine: the n-gram models of the seuss,
+   * taylor and shakespeare corpora, in that order, separated by commas. Each
+   * is an app asset or the absolute path of a file on the device (which is
+   * memory-mapped rather than read). They are loaded by the first Local
+   * request.
+   *
+   * @param models
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_STRING, defaultValue = DEFAULT_LOCAL_MODELS)
+  @SimpleProperty(description = "The n-gram model files of the Local engine, for the seuss, taylor and "
+      + "shakespeare texts, in that order, separated by commas: app assets, or absolute paths of "
+      + "files on the device.")
+  public void LocalModels(String models) {
+    if (models.split(",").length != 3) {
+      Log.e(LOG_TAG, "LocalModels must be 3 files separated by commas. Using " + DEFAULT_LOCAL_MODELS
+          + " instead.");
+      models = DEFAULT_LOCAL_MODELS;
+    }
+    localModels = models;
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxParallelRequests() {
+    return GenerationExecutor.getInstance().getMaxParallel();
+  }
+
+  /**
+   * Sets the maximum number of requests (of both this extension and
+   * SentenceGenerator) sent at once; the others wait their turn, interactive
+   * requests before batches.
+   *
+   * @param maxParallel
+   */
+  @SimpleProperty(description = "The maximum number of requests sent at once (shared with "
+      + "SentenceGenerator). The others wait their turn, StartSentenceGeneration requests before batches.")
+  public void MaxParallelRequests(int maxParallel) {
+    requests.setMaxParallelRequests(maxParallel);
+  }
+
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MaxQueuedRequests() {
+    return GenerationExecutor.getInstance().getMaxQueued();
+  }
+
+  /**
+   * Sets the maximum number of requests (of both this extension and
+   * SentenceGenerator) waiting to be sent. When there are more,
+   * SaturationPolicy decides which is turned away, raising RequestRejected.
+   *
+   * @param maxQueued
+   */
+  @SimpleProperty(description = "The maximum number of requests waiting to be sent (shared with "
+      + "SentenceGenerator). When there are more, one is turned away (see SaturationPolicy) and "
+      + "RequestRejected is raised.")
+  public void MaxQueuedRequests(int maxQueued) {
+    requests.setMaxQueuedRequests(maxQueued);
+  }
+
+  /**
+   * Returns which request is turned away when too many are waiting.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public String SaturationPolicy() {
+    return GenerationExecutor.getInstance().getSaturationPolicy();
+  }
+
+  /**
+   * Sets which request is turned away when MaxQueuedRequests are already
+   * waiting (shared with SentenceGenerator).
+   * <ul>
+   * <li>RejectNew: the new request.</li>
+   * <li>DropOldest: the oldest waiting request of the lowest priority
+   * (batches before interactive requests), unless the new request is a batch
+   * and only interactive requests are waiting.</li>
+   * </ul>
+   *
+   * @param policy
+   */
+  @SimpleProperty(description = "Which request is turned away when too many are waiting (shared with "
+      + "SentenceGenerator): RejectNew (the new one) or DropOldest (the oldest waiting one, batches first).")
+  public void SaturationPolicy(String policy) {
+    requests.setSaturationPolicy(policy);
+  }
+
+  /**
+   * Returns how often, in milliseconds, GotMetrics is raised.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR)
+  public int MetricsInterval() {
+    return requests.getMetricsInterval();
+  }
+
+  /**
+   * Sets how often, in milliseconds, GotMetrics is raised. 0 means never.
+   *
+   * @param interval
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER, defaultValue = DEFAULT_METRICS_INTERVAL + "")
+  @SimpleProperty(description = "How often, in milliseconds, GotMetrics is raised with the metrics of this "
+      + "extension's requests. 0 means never.")
+  public void MetricsInterval(int interval) {
+    requests.setMetricsInterval(interval);
+  }
+
+  @Override
+  public void onDestroy() {
+    // stops GotMetrics, so the handler doesn't keep the destroyed form alive
+    requests.onDestroy();
+  }
+
+  /**
+   * Returns the number of requests waiting to be sent.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of requests (of both "
+      + "this extension and SentenceGenerator) waiting to be sent.")
+  public int QueueDepth() {
+    return GenerationExecutor.getInstance().getQueued();
+  }
+
+  /**
+   * Returns the number of requests being sent.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR, description = "The number of requests (of both "
+      + "this extension and SentenceGenerator) being sent.")
+  public int ActiveRequests() {
+    return GenerationExecutor.getInstance().getActive();
+  }
+}